@@ -0,0 +1,33 @@
+package fr.ensibs.quansim;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder event emitted for each gate applied on a qbit register while profiling is enabled.
+ */
+@Name("fr.ensibs.quansim.Gate")
+@Label("Gate Application")
+@Category("Quansim")
+class GateEvent extends jdk.jfr.Event {
+
+    /**
+     * the kind of the gate
+     */
+    @Label("Kind")
+    String kind;
+
+    /**
+     * the indexes of the qbits touched by the gate
+     */
+    @Label("Qbits")
+    String qbits;
+
+    /**
+     * the number of amplitudes processed by the gate
+     */
+    @Label("Amplitudes")
+    long amplitudes;
+
+}
@@ -0,0 +1,47 @@
+package fr.ensibs.quansim;
+
+import java.util.Arrays;
+
+/**
+ * The flight recorder emitting the profiled operations as JDK Flight Recorder events.
+ */
+class JfrFlightRecorder implements FlightRecorder {
+
+    @Override
+    public Object beginGate() {
+        GateEvent event = new GateEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public Object beginMeasurement() {
+        MeasurementEvent event = new MeasurementEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endGate(Object event, String kind, int[] qbitsIdx, long amplitudes) {
+        GateEvent gateEvent = (GateEvent) event;
+        gateEvent.end();
+        if (gateEvent.shouldCommit()) {
+            gateEvent.kind = kind;
+            gateEvent.qbits = Arrays.toString(qbitsIdx);
+            gateEvent.amplitudes = amplitudes;
+            gateEvent.commit();
+        }
+    }
+
+    @Override
+    public void endMeasurement(Object event, int[] qbitsIdx, long amplitudes) {
+        MeasurementEvent measurementEvent = (MeasurementEvent) event;
+        measurementEvent.end();
+        if (measurementEvent.shouldCommit()) {
+            measurementEvent.qbits = Arrays.toString(qbitsIdx);
+            measurementEvent.amplitudes = amplitudes;
+            measurementEvent.commit();
+        }
+    }
+
+}
@@ -0,0 +1,27 @@
+package fr.ensibs.quansim;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder event emitted for each measurement of a qbit register while profiling is enabled.
+ */
+@Name("fr.ensibs.quansim.Measurement")
+@Label("Measurement")
+@Category("Quansim")
+class MeasurementEvent extends jdk.jfr.Event {
+
+    /**
+     * the indexes of the measured qbits
+     */
+    @Label("Qbits")
+    String qbits;
+
+    /**
+     * the number of amplitudes processed by the measurement
+     */
+    @Label("Amplitudes")
+    long amplitudes;
+
+}
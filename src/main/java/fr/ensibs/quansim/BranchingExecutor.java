@@ -0,0 +1,296 @@
+package fr.ensibs.quansim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An executor running many shots of a circuit with mid-circuit measurements, without replaying the whole circuit
+ * for each shot.
+ *
+ * The shots share a single register until a measurement. The shots are then split between the two outcomes by
+ * a binomial draw on the probability of the measured qbit, and each outcome drawn by at least one shot becomes a
+ * branch holding its own collapsed copy of the register, which continues the circuit once for all its shots.
+ * The branches run in parallel in a fork/join pool, except for large registers whose gates are already
+ * parallel, which are run one branch after the other to bound the number of live copies. The random draws of
+ * the branches are split from a single generator, so that the results only depend on its seed.
+ */
+public class BranchingExecutor {
+
+    /**
+     * The result of the execution of the shots of a circuit.
+     */
+    public static final class Result {
+
+        /**
+         * the number of shots of each value of the classical bits
+         */
+        private final Map<String, Integer> counts;
+
+        /**
+         * the number of branches which reached the end of the circuit
+         */
+        private final int branches;
+
+        /**
+         * Constructor.
+         * @param counts the number of shots of each value of the classical bits
+         * @param branches the number of branches which reached the end of the circuit
+         */
+        private Result(Map<String, Integer> counts, int branches) {
+            this.counts = Collections.unmodifiableMap(new TreeMap<>(counts));
+            this.branches = branches;
+        }
+
+        /**
+         * Get the number of shots of each value of the classical bits.
+         * @return the map from the values of the classical bits, written from the highest bit to the lowest one
+         * (e.g. "01" if only the bit 0 is 1), to their number of shots
+         */
+        public Map<String, Integer> counts() {
+            return this.counts;
+        }
+
+        /**
+         * Get the number of branches which reached the end of the circuit, i.e. the number of times the last
+         * operation of the circuit was simulated.
+         * @return the number of branches
+         */
+        public int branches() {
+            return this.branches;
+        }
+
+        @Override
+        public String toString() {
+            return this.counts + " (" + this.branches + " branches)";
+        }
+
+    }
+
+    /**
+     * the generator from which the random draws of the executions are split
+     */
+    private final SplittableRandom random;
+
+    /**
+     * Constructor with a random seed.
+     */
+    public BranchingExecutor() {
+        this.random = new SplittableRandom();
+    }
+
+    /**
+     * Constructor.
+     * @param seed the seed of the random draws
+     */
+    public BranchingExecutor(long seed) {
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Run the shots of a circuit from the register whose qbits are all 0.
+     * @param circuit the circuit
+     * @param shots the number of shots
+     * @return the number of shots of each value of the classical bits at the end of the circuit
+     */
+    public Result run(Circuit circuit, int shots) {
+        if (circuit == null)
+            throw new NullPointerException("The circuit cannot be null.");
+
+        if (circuit.qbits() <= 0)
+            throw new IllegalArgumentException("The circuit has not been initialized.");
+
+        return this.run(circuit, new QBitRegister(circuit.qbits()), shots);
+    }
+
+    /**
+     * Run the shots of a circuit from a given register, which is used by the first branch and modified.
+     * @param circuit the circuit
+     * @param initial the register in its initial state, whose size is the number of qbits of the circuit
+     * @param shots the number of shots
+     * @return the number of shots of each value of the classical bits at the end of the circuit
+     */
+    public Result run(Circuit circuit, QBitRegister initial, int shots) {
+        if (circuit == null)
+            throw new NullPointerException("The circuit cannot be null.");
+
+        if (initial == null)
+            throw new NullPointerException("The initial register cannot be null.");
+
+        if (initial.size() != circuit.qbits())
+            throw new IllegalArgumentException("The initial register must have the number of qbits of the circuit.");
+
+        if (shots <= 0)
+            throw new IllegalArgumentException("The number of shots must be positive.");
+
+        SplittableRandom random;
+        synchronized (this.random) {
+            random = this.random.split();
+        }
+        Map<String, Integer> counts = new ConcurrentHashMap<>();
+        AtomicInteger branches = new AtomicInteger();
+        Branch root = new Branch(circuit.operations(), initial, 0, shots,
+                new boolean[circuit.bits()], random, counts, branches);
+        ForkJoinPool.commonPool().invoke(root);
+        return new Result(counts, branches.get());
+    }
+
+    /**
+     * Draw the number of successes among independent trials.
+     * @param random the random generator
+     * @param n the number of trials
+     * @param p the probability of success of a trial
+     * @return the number of successes, following a binomial distribution of parameters n and p
+     */
+    static int binomial(SplittableRandom random, int n, double p) {
+        if (p <= 0)
+            return 0;
+        if (p >= 1)
+            return n;
+
+        // the gaps between the successes of the least probable outcome follow a geometric distribution, so that
+        // the draw takes a time proportional to the expected number of these successes
+        double q = Math.min(p, 1 - p);
+        double logQ = Math.log1p(-q);
+        int ret = 0;
+        double position = 0;
+        while (true) {
+            position += Math.floor(Math.log(1 - random.nextDouble()) / logQ) + 1;
+            if (position > n)
+                break;
+            ret++;
+        }
+        return p <= 0.5 ? ret : n - ret;
+    }
+
+    /**
+     * A branch of the execution, running the rest of the circuit for some shots.
+     */
+    private static final class Branch extends RecursiveAction {
+
+        /**
+         * the version of the serialized form inherited from RecursiveAction
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * the operations of the circuit
+         */
+        private final List<Circuit.Operation> operations;
+
+        /**
+         * the register of the branch, which is not shared with the other branches
+         */
+        private final QBitRegister register;
+
+        /**
+         * the index of the first operation run by the branch
+         */
+        private final int first;
+
+        /**
+         * the number of shots of the branch
+         */
+        private int shots;
+
+        /**
+         * the classical bits of the branch
+         */
+        private final boolean[] bits;
+
+        /**
+         * the random generator of the branch
+         */
+        private final SplittableRandom random;
+
+        /**
+         * the number of shots of each value of the classical bits, shared by the branches
+         */
+        private final Map<String, Integer> counts;
+
+        /**
+         * the number of branches which reached the end of the circuit, shared by the branches
+         */
+        private final AtomicInteger branches;
+
+        /**
+         * Constructor.
+         * @param operations the operations of the circuit
+         * @param register the register of the branch
+         * @param first the index of the first operation run by the branch
+         * @param shots the number of shots of the branch
+         * @param bits the classical bits of the branch
+         * @param random the random generator of the branch
+         * @param counts the number of shots of each value of the classical bits, shared by the branches
+         * @param branches the number of branches which reached the end of the circuit, shared by the branches
+         */
+        private Branch(List<Circuit.Operation> operations, QBitRegister register, int first, int shots,
+                       boolean[] bits, SplittableRandom random, Map<String, Integer> counts,
+                       AtomicInteger branches) {
+            this.operations = operations;
+            this.register = register;
+            this.first = first;
+            this.shots = shots;
+            this.bits = bits;
+            this.random = random;
+            this.counts = counts;
+            this.branches = branches;
+        }
+
+        @Override
+        protected void compute() {
+            List<Branch> forked = new ArrayList<>();
+            for (int i = this.first; i < this.operations.size(); i++) {
+                Circuit.Operation operation = this.operations.get(i);
+                if (!operation.isMeasurement()) {
+                    operation.gate().applyTo(this.register);
+                    continue;
+                }
+
+                int qbit = operation.qbit();
+                int ones = binomial(this.random, this.shots, this.register.bitProba(qbit));
+                boolean bitIs1 = ones == this.shots;
+                if (ones > 0 && ones < this.shots) {
+                    // the shots which measured 1 continue in a new branch, the other ones in this branch
+                    boolean[] bits = this.bits.clone();
+                    bits[operation.bit()] = true;
+                    Branch branch = new Branch(this.operations, this.register.copy().collapse(qbit, true), i + 1,
+                            ones, bits, this.random.split(), this.counts, this.branches);
+                    if (Tuning.isParallel(1 << this.register.size())) {
+                        branch.compute();
+                    } else {
+                        branch.fork();
+                        forked.add(branch);
+                    }
+                    this.shots -= ones;
+                }
+                this.register.collapse(qbit, bitIs1);
+                this.bits[operation.bit()] = bitIs1;
+            }
+            this.counts.merge(this.key(), this.shots, Integer::sum);
+            this.branches.incrementAndGet();
+            for (Branch branch : forked)
+                branch.join();
+        }
+
+        /**
+         * Get the value of the classical bits of the branch.
+         * @return the bits written from the highest one to the lowest one
+         */
+        private String key() {
+            char[] ret = new char[this.bits.length];
+            for (int b = 0; b < this.bits.length; b++)
+                ret[this.bits.length - 1 - b] = this.bits[b] ? '1' : '0';
+            return new String(ret);
+        }
+
+    }
+
+}
@@ -0,0 +1,340 @@
+package fr.ensibs.quansim;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Class saving and restoring the state of qbit registers in a compact binary format.
+ *
+ * A checkpoint file is made of a 32 bytes header (magic number, format version, number of qbits,
+ * precision in bytes of an amplitude component, flags and number of amplitudes), followed by the real
+ * parts and then the imaginary parts of the amplitudes, and optionally by the CRC32 of these amplitudes.
+ * All the values are stored in little-endian order.
+ *
+ * The file is first written next to its destination and then moved over it, so that a job killed while
+ * checkpointing always leaves the previous complete checkpoint behind, from which it can be resumed.
+ */
+public class Checkpoint {
+
+    /**
+     * magic number at the beginning of every checkpoint file ("QSCP")
+     */
+    private static final int MAGIC = 0x50435351;
+
+    /**
+     * version of the checkpoint format
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * size of the header in bytes
+     */
+    private static final int HEADER_SIZE = 32;
+
+    /**
+     * flag telling that the amplitudes are followed by their checksum
+     */
+    private static final int FLAG_CHECKSUM = 1;
+
+    /**
+     * size of the buffer through which the amplitudes are written and read
+     */
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Private constructor to assert noninstanciability.
+     */
+    private Checkpoint() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Save the state of a qbit register in a checkpoint file, with a checksum.
+     * @param register the qbit register to save
+     * @param path the path of the checkpoint file
+     * @throws IOException if the checkpoint file cannot be written
+     */
+    public static void save(QBitRegister register, Path path) throws IOException {
+        save(register, path, true);
+    }
+
+    /**
+     * Save the state of a qbit register in a checkpoint file.
+     * @param register the qbit register to save
+     * @param path the path of the checkpoint file
+     * @param checksum true if the checksum of the amplitudes must be appended to the file
+     * @throws IOException if the checkpoint file cannot be written
+     */
+    public static void save(QBitRegister register, Path path, boolean checksum) throws IOException {
+        if (register == null)
+            throw new NullPointerException("The qbit register cannot be null.");
+
+        double[] re = register.realParts();
+        save(path, Integer.numberOfTrailingZeros(re.length), Double.BYTES, checksum, re, register.imaginaryParts());
+    }
+
+    /**
+     * Save the state of a single precision qbit register in a checkpoint file, with a checksum.
+     * @param register the qbit register to save
+     * @param path the path of the checkpoint file
+     * @throws IOException if the checkpoint file cannot be written
+     */
+    public static void save(FloatQBitRegister register, Path path) throws IOException {
+        save(register, path, true);
+    }
+
+    /**
+     * Save the state of a single precision qbit register in a checkpoint file.
+     * @param register the qbit register to save
+     * @param path the path of the checkpoint file
+     * @param checksum true if the checksum of the amplitudes must be appended to the file
+     * @throws IOException if the checkpoint file cannot be written
+     */
+    public static void save(FloatQBitRegister register, Path path, boolean checksum) throws IOException {
+        if (register == null)
+            throw new NullPointerException("The qbit register cannot be null.");
+
+        float[] re = register.realParts();
+        save(path, Integer.numberOfTrailingZeros(re.length), Float.BYTES, checksum, re, register.imaginaryParts());
+    }
+
+    /**
+     * Restore the state of a qbit register from a checkpoint file, converting it to double precision if needed.
+     * @param path the path of the checkpoint file
+     * @return a new qbit register in the saved state
+     * @throws IOException if the checkpoint file cannot be read, or is truncated or corrupted
+     */
+    public static QBitRegister restore(Path path) throws IOException {
+        Object[] parts = restore(path, Double.BYTES);
+        return new QBitRegister((double[]) parts[0], (double[]) parts[1]);
+    }
+
+    /**
+     * Restore the state of a single precision qbit register from a checkpoint file, converting it to single
+     * precision if needed.
+     * @param path the path of the checkpoint file
+     * @return a new single precision qbit register in the saved state
+     * @throws IOException if the checkpoint file cannot be read, or is truncated or corrupted
+     */
+    public static FloatQBitRegister restoreFloat(Path path) throws IOException {
+        Object[] parts = restore(path, Float.BYTES);
+        return new FloatQBitRegister((float[]) parts[0], (float[]) parts[1]);
+    }
+
+    /**
+     * Save amplitudes in a checkpoint file.
+     * @param path the path of the checkpoint file
+     * @param n the number of qbits
+     * @param precision the size in bytes of an amplitude component
+     * @param checksum true if the checksum of the amplitudes must be appended to the file
+     * @param re the real parts of the amplitudes, as a double or float array
+     * @param im the imaginary parts of the amplitudes, as a double or float array
+     * @throws IOException if the checkpoint file cannot be written
+     */
+    private static void save(Path path, int n, int precision, boolean checksum, Object re, Object im)
+            throws IOException {
+        if (path == null)
+            throw new NullPointerException("The checkpoint path cannot be null.");
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        CRC32 crc = checksum ? new CRC32() : null;
+
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(n);
+            buffer.putInt(precision);
+            buffer.putInt(checksum ? FLAG_CHECKSUM : 0);
+            buffer.putInt(0);
+            buffer.putLong(1L << n);
+            buffer.flip();
+            writeFully(channel, buffer);
+
+            writeArray(channel, buffer, re, crc);
+            writeArray(channel, buffer, im, crc);
+
+            if (crc != null) {
+                buffer.clear();
+                buffer.putLong(crc.getValue());
+                buffer.flip();
+                writeFully(channel, buffer);
+            }
+            channel.force(false);
+        }
+
+        try {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Restore amplitudes from a checkpoint file.
+     * @param path the path of the checkpoint file
+     * @param precision the size in bytes of an amplitude component in the returned arrays
+     * @return the real and imaginary parts of the amplitudes, as double or float arrays depending on the precision
+     * @throws IOException if the checkpoint file cannot be read, or is truncated or corrupted
+     */
+    private static Object[] restore(Path path, int precision) throws IOException {
+        if (path == null)
+            throw new NullPointerException("The checkpoint path cannot be null.");
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.limit(HEADER_SIZE);
+            readFully(channel, buffer);
+            buffer.flip();
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("The file is not a checkpoint.");
+            if (buffer.getInt() != VERSION)
+                throw new IOException("The version of the checkpoint is not supported.");
+            int n = buffer.getInt();
+            int filePrecision = buffer.getInt();
+            int flags = buffer.getInt();
+            buffer.getInt();
+            long length = buffer.getLong();
+
+            if (filePrecision != Double.BYTES && filePrecision != Float.BYTES)
+                throw new IOException("The precision of the checkpoint is not supported.");
+            if (n <= 0 || n > 30 || length != 1L << n)
+                throw new IOException("The checkpoint header is corrupted.");
+
+            boolean checksum = (flags & FLAG_CHECKSUM) != 0;
+            long expectedSize = HEADER_SIZE + 2 * length * filePrecision + (checksum ? Long.BYTES : 0);
+            if (channel.size() != expectedSize)
+                throw new IOException("The checkpoint is truncated.");
+
+            CRC32 crc = checksum ? new CRC32() : null;
+            Object re = filePrecision == Double.BYTES ? new double[(int) length] : new float[(int) length];
+            Object im = filePrecision == Double.BYTES ? new double[(int) length] : new float[(int) length];
+            readArray(channel, buffer, re, crc);
+            readArray(channel, buffer, im, crc);
+
+            if (crc != null) {
+                buffer.clear();
+                buffer.limit(Long.BYTES);
+                readFully(channel, buffer);
+                buffer.flip();
+                if (buffer.getLong() != crc.getValue())
+                    throw new IOException("The checksum of the checkpoint does not match its amplitudes.");
+            }
+            return new Object[]{convert(re, precision), convert(im, precision)};
+        }
+    }
+
+    /**
+     * Convert an array of amplitude components to the given precision.
+     * @param values the double or float array to convert
+     * @param precision the size in bytes of an amplitude component in the returned array
+     * @return the given array if it already has the right precision, or a converted copy otherwise
+     */
+    private static Object convert(Object values, int precision) {
+        if (values instanceof double[] && precision == Float.BYTES) {
+            double[] doubles = (double[]) values;
+            float[] ret = new float[doubles.length];
+            for (int i = 0; i < doubles.length; i++)
+                ret[i] = (float) doubles[i];
+            return ret;
+        }
+        if (values instanceof float[] && precision == Double.BYTES) {
+            float[] floats = (float[]) values;
+            double[] ret = new double[floats.length];
+            for (int i = 0; i < floats.length; i++)
+                ret[i] = floats[i];
+            return ret;
+        }
+        return values;
+    }
+
+    /**
+     * Write an array of doubles or floats to a channel, chunk by chunk.
+     * @param channel the channel to write to
+     * @param buffer the buffer through which the values are written
+     * @param values the double or float array to write
+     * @param crc the checksum to update with the written bytes, or null
+     * @throws IOException if the channel cannot be written
+     */
+    private static void writeArray(FileChannel channel, ByteBuffer buffer, Object values, CRC32 crc)
+            throws IOException {
+        boolean doubles = values instanceof double[];
+        int precision = doubles ? Double.BYTES : Float.BYTES;
+        int length = doubles ? ((double[]) values).length : ((float[]) values).length;
+        int perChunk = buffer.capacity() / precision;
+        for (int offset = 0; offset < length; offset += perChunk) {
+            int count = Math.min(perChunk, length - offset);
+            buffer.clear();
+            if (doubles)
+                buffer.asDoubleBuffer().put((double[]) values, offset, count);
+            else buffer.asFloatBuffer().put((float[]) values, offset, count);
+            buffer.limit(count * precision);
+            if (crc != null) {
+                crc.update(buffer);
+                buffer.flip();
+            }
+            writeFully(channel, buffer);
+        }
+    }
+
+    /**
+     * Read an array of doubles or floats from a channel, chunk by chunk.
+     * @param channel the channel to read from
+     * @param buffer the buffer through which the values are read
+     * @param values the double or float array to fill
+     * @param crc the checksum to update with the read bytes, or null
+     * @throws IOException if the channel cannot be read
+     */
+    private static void readArray(FileChannel channel, ByteBuffer buffer, Object values, CRC32 crc)
+            throws IOException {
+        boolean doubles = values instanceof double[];
+        int precision = doubles ? Double.BYTES : Float.BYTES;
+        int length = doubles ? ((double[]) values).length : ((float[]) values).length;
+        int perChunk = buffer.capacity() / precision;
+        for (int offset = 0; offset < length; offset += perChunk) {
+            int count = Math.min(perChunk, length - offset);
+            buffer.clear();
+            buffer.limit(count * precision);
+            readFully(channel, buffer);
+            buffer.flip();
+            if (doubles)
+                buffer.asDoubleBuffer().get((double[]) values, offset, count);
+            else buffer.asFloatBuffer().get((float[]) values, offset, count);
+            if (crc != null)
+                crc.update(buffer);
+        }
+    }
+
+    /**
+     * Write all the remaining bytes of a buffer to a channel.
+     * @param channel the channel to write to
+     * @param buffer the buffer to write
+     * @throws IOException if the channel cannot be written
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    /**
+     * Fill the remaining space of a buffer from a channel.
+     * @param channel the channel to read from
+     * @param buffer the buffer to fill
+     * @throws IOException if the channel cannot be read or ends before the buffer is full
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            if (channel.read(buffer) < 0)
+                throw new IOException("The checkpoint is truncated.");
+    }
+
+}
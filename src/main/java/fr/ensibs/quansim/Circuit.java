@@ -0,0 +1,249 @@
+package fr.ensibs.quansim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A quantum circuit recorded as the sequence of its operations, e.g. from a QASM reader, so that it can be
+ * transformed or replayed on other circuit listeners.
+ */
+public class Circuit implements CircuitListener {
+
+    /**
+     * An operation of a circuit: either a gate or the measurement of a qbit.
+     */
+    public static final class Operation {
+
+        /**
+         * the applied gate, or null for a measurement
+         */
+        private final Gate gate;
+
+        /**
+         * the index of the measured qbit, or -1 for a gate
+         */
+        private final int qbitIdx;
+
+        /**
+         * the index of the classical bit receiving the result of the measurement, or -1 for a gate
+         */
+        private final int bitIdx;
+
+        /**
+         * Constructor.
+         * @param gate the applied gate, or null for a measurement
+         * @param qbitIdx the index of the measured qbit, or -1 for a gate
+         * @param bitIdx the index of the classical bit receiving the result, or -1 for a gate
+         */
+        private Operation(Gate gate, int qbitIdx, int bitIdx) {
+            this.gate = gate;
+            this.qbitIdx = qbitIdx;
+            this.bitIdx = bitIdx;
+        }
+
+        /**
+         * Create the operation applying a gate.
+         * @param gate the applied gate
+         * @return the operation
+         */
+        public static Operation gate(Gate gate) {
+            if (gate == null)
+                throw new NullPointerException("The gate cannot be null.");
+
+            return new Operation(gate, -1, -1);
+        }
+
+        /**
+         * Create the operation measuring a qbit.
+         * @param qbitIdx the index of the measured qbit
+         * @param bitIdx the index of the classical bit receiving the result
+         * @return the operation
+         */
+        public static Operation measure(int qbitIdx, int bitIdx) {
+            if (qbitIdx < 0 || bitIdx < 0)
+                throw new IndexOutOfBoundsException("The qbit and bit indexes cannot be negative.");
+
+            return new Operation(null, qbitIdx, bitIdx);
+        }
+
+        /**
+         * Tell if the operation is a measurement.
+         * @return true if the operation measures a qbit, false if it applies a gate
+         */
+        public boolean isMeasurement() {
+            return this.gate == null;
+        }
+
+        /**
+         * Get the gate applied by the operation.
+         * @return the gate, or null for a measurement
+         */
+        public Gate gate() {
+            return this.gate;
+        }
+
+        /**
+         * Get the index of the qbit measured by the operation.
+         * @return the index of the qbit, or -1 for a gate
+         */
+        public int qbit() {
+            return this.qbitIdx;
+        }
+
+        /**
+         * Get the index of the classical bit receiving the result of the measurement.
+         * @return the index of the bit, or -1 for a gate
+         */
+        public int bit() {
+            return this.bitIdx;
+        }
+
+        /**
+         * Tell if the operation acts on the given qbit.
+         * @param qbitIdx the index of the qbit
+         * @return true if and only if the operation applies a gate on the qbit or measures it
+         */
+        public boolean actsOn(int qbitIdx) {
+            return this.gate == null ? this.qbitIdx == qbitIdx : this.gate.actsOn(qbitIdx);
+        }
+
+        /**
+         * Send the operation to a circuit listener.
+         * @param listener the circuit listener
+         */
+        public void sendTo(CircuitListener listener) {
+            if (this.gate == null)
+                listener.measure(this.qbitIdx, this.bitIdx);
+            else listener.gate(this.gate);
+        }
+
+        @Override
+        public String toString() {
+            return this.gate == null ? "measure " + this.qbitIdx + " -> " + this.bitIdx : this.gate.toString();
+        }
+
+    }
+
+    /**
+     * the number of qbits of the circuit
+     */
+    private int qbits;
+
+    /**
+     * the number of classical bits of the circuit
+     */
+    private int bits;
+
+    /**
+     * the operations of the circuit, in order
+     */
+    private final List<Operation> operations = new ArrayList<>();
+
+    /**
+     * Constructor of an empty circuit, whose dimensions are given by the first call to init.
+     */
+    public Circuit() {
+    }
+
+    /**
+     * Constructor.
+     * @param qbits the number of qbits of the circuit
+     * @param bits the number of classical bits of the circuit
+     */
+    public Circuit(int qbits, int bits) {
+        this.init(qbits, bits);
+    }
+
+    @Override
+    public void init(int qbits, int bits) {
+        if (qbits <= 0)
+            throw new IllegalArgumentException("The number of qbits in the circuit must be positive.");
+
+        if (bits < 0)
+            throw new IllegalArgumentException("The number of bits in the circuit cannot be negative.");
+
+        this.qbits = qbits;
+        this.bits = bits;
+        this.operations.clear();
+    }
+
+    @Override
+    public void gate(Gate gate) {
+        this.operations.add(Operation.gate(gate));
+    }
+
+    @Override
+    public void measure(int qbitIdx, int bitIdx) {
+        this.operations.add(Operation.measure(qbitIdx, bitIdx));
+    }
+
+    /**
+     * Add an operation at the end of the circuit.
+     * @param operation the operation
+     */
+    public void add(Operation operation) {
+        if (operation == null)
+            throw new NullPointerException("The operation cannot be null.");
+
+        this.operations.add(operation);
+    }
+
+    /**
+     * Get the number of qbits of the circuit.
+     * @return the number of qbits
+     */
+    public int qbits() {
+        return this.qbits;
+    }
+
+    /**
+     * Get the number of classical bits of the circuit.
+     * @return the number of bits
+     */
+    public int bits() {
+        return this.bits;
+    }
+
+    /**
+     * Get the operations of the circuit.
+     * @return an unmodifiable view of the operations, in order
+     */
+    public List<Operation> operations() {
+        return Collections.unmodifiableList(this.operations);
+    }
+
+    /**
+     * Get the number of gates of the circuit.
+     * @return the number of operations which are not measurements
+     */
+    public int gateCount() {
+        int ret = 0;
+        for (Operation operation : this.operations)
+            if (!operation.isMeasurement())
+                ret++;
+        return ret;
+    }
+
+    /**
+     * Send the whole circuit to a circuit listener, e.g. a register executor.
+     * @param listener the circuit listener
+     */
+    public void replay(CircuitListener listener) {
+        if (listener == null)
+            throw new NullPointerException("The circuit listener cannot be null.");
+
+        listener.init(this.qbits, this.bits);
+        for (Operation operation : this.operations)
+            operation.sendTo(listener);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Operation operation : this.operations)
+            builder.append(operation).append('\n');
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,28 @@
+package fr.ensibs.quansim;
+
+/**
+ * A listener receiving the operations of a quantum circuit one by one, in the order of the circuit.
+ */
+public interface CircuitListener {
+
+    /**
+     * Called once, before any other operation, with the dimensions of the circuit.
+     * @param qbits the number of qbits of the circuit
+     * @param bits the number of classical bits of the circuit
+     */
+    void init(int qbits, int bits);
+
+    /**
+     * Called when a gate of the circuit is applied.
+     * @param gate the applied gate
+     */
+    void gate(Gate gate);
+
+    /**
+     * Called when a qbit of the circuit is measured.
+     * @param qbitIdx the index of the measured qbit
+     * @param bitIdx the index of the classical bit receiving the result
+     */
+    void measure(int qbitIdx, int bitIdx);
+
+}
@@ -0,0 +1,229 @@
+package fr.ensibs.quansim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static fr.ensibs.quansim.QuantumGates.*;
+
+/**
+ * An optimization pass removing the gates of a circuit which have no effect on its result.
+ *
+ * Two consecutive applications of the same self-inverse gate (X, Y, Z, H, CNOT or SWAP) on the same qbits are
+ * removed, and the conjugations HXH and HZH of a qbit are rewritten into Z and X. Gates and measurements acting
+ * on disjoint qbits commute, so the operations are looked for backwards across the operations on other qbits,
+ * whereas an operation acting on one of the qbits of the gate stops the search. The gates are recognized by
+ * their matrix, which must be one of the constants of {@link QuantumGates}.
+ *
+ * The last operation acting on each qbit is tracked so that each operation is optimized in constant time,
+ * and the cancelled operations are only dropped from the optimized circuit at the end.
+ */
+public class CircuitOptimizer {
+
+    /**
+     * the number of pairs of gates cancelled during the last optimization
+     */
+    private int cancellations;
+
+    /**
+     * the number of conjugations rewritten during the last optimization
+     */
+    private int rewrites;
+
+    /**
+     * the number of gates removed during the last optimization
+     */
+    private int removedGates;
+
+    /**
+     * the optimized operations of the running optimization, the cancelled ones being replaced by null
+     */
+    private List<Circuit.Operation> operations;
+
+    /**
+     * for each optimized operation, the position of the previous operation acting on each of its qbits, or -1
+     */
+    private List<int[]> before;
+
+    /**
+     * the position of the last optimized operation acting on each qbit, or -1
+     */
+    private int[] last;
+
+    /**
+     * Optimize a circuit.
+     * @param circuit the circuit to optimize, which is left unchanged
+     * @return a new circuit with the same effect and at most the same number of gates
+     */
+    public Circuit optimize(Circuit circuit) {
+        if (circuit == null)
+            throw new NullPointerException("The circuit cannot be null.");
+
+        this.cancellations = 0;
+        this.rewrites = 0;
+        int qbits = circuit.qbits();
+        for (Circuit.Operation operation : circuit.operations())
+            for (int q : qbitsOf(operation))
+                qbits = Math.max(qbits, q + 1);
+        this.operations = new ArrayList<>();
+        this.before = new ArrayList<>();
+        this.last = new int[qbits];
+        Arrays.fill(this.last, -1);
+        for (Circuit.Operation operation : circuit.operations())
+            this.push(operation);
+
+        Circuit ret = new Circuit(circuit.qbits(), circuit.bits());
+        for (Circuit.Operation operation : this.operations)
+            if (operation != null)
+                ret.add(operation);
+        this.operations = null;
+        this.before = null;
+        this.last = null;
+        this.removedGates = circuit.gateCount() - ret.gateCount();
+        return ret;
+    }
+
+    /**
+     * Get the number of pairs of self-inverse gates cancelled during the last optimization.
+     * @return the number of cancelled pairs
+     */
+    public int cancellations() {
+        return this.cancellations;
+    }
+
+    /**
+     * Get the number of conjugations HXH or HZH rewritten during the last optimization.
+     * @return the number of rewritten conjugations
+     */
+    public int rewrites() {
+        return this.rewrites;
+    }
+
+    /**
+     * Get the number of gates removed during the last optimization.
+     * @return the number of gates of the original circuit minus the number of gates of the optimized one
+     */
+    public int removedGates() {
+        return this.removedGates;
+    }
+
+    /**
+     * Append an operation to the optimized operations, cancelling or rewriting it with the previous ones
+     * when possible.
+     * @param operation the operation to append
+     */
+    private void push(Circuit.Operation operation) {
+        Gate gate = operation.gate();
+        if (gate == null || !isSelfInverse(gate.matrix())) {
+            this.append(operation);
+            return;
+        }
+
+        // the same gate on the same qbits, reachable through operations on other qbits, cancels the gate
+        int previous = this.previous(gate);
+        if (previous >= 0 && sameGate(this.operations.get(previous).gate(), gate)) {
+            this.remove(previous);
+            this.cancellations++;
+            return;
+        }
+
+        // H P H with P = X or Z on the same qbit is replaced by the conjugated gate
+        if (gate.matrix() == H && previous >= 0) {
+            Gate middle = this.operations.get(previous).gate();
+            if (middle != null && (middle.matrix() == X || middle.matrix() == Z)) {
+                // P only acts on the qbit of H, so the operation before it on this qbit is the candidate first H
+                int first = this.before.get(previous)[0];
+                if (first >= 0 && sameGate(this.operations.get(first).gate(), gate)) {
+                    this.remove(previous);
+                    this.remove(first);
+                    this.rewrites++;
+                    // the operations after the first H act on other qbits, so the conjugated gate can be appended
+                    ComplexMatrix conjugated = middle.matrix() == X ? Z : X;
+                    this.push(Circuit.Operation.gate(new Gate(nameOf(conjugated), conjugated, gate.qbits())));
+                    return;
+                }
+            }
+        }
+        this.append(operation);
+    }
+
+    /**
+     * Append an operation to the optimized operations, as the last one acting on its qbits.
+     * @param operation the operation
+     */
+    private void append(Circuit.Operation operation) {
+        int[] qbitsIdx = qbitsOf(operation);
+        int[] previous = new int[qbitsIdx.length];
+        for (int k = 0; k < qbitsIdx.length; k++) {
+            previous[k] = this.last[qbitsIdx[k]];
+            this.last[qbitsIdx[k]] = this.operations.size();
+        }
+        this.operations.add(operation);
+        this.before.add(previous);
+    }
+
+    /**
+     * Cancel an optimized operation, which must be the last one acting on each of its qbits.
+     * @param position the position of the operation
+     */
+    private void remove(int position) {
+        int[] qbitsIdx = qbitsOf(this.operations.get(position));
+        int[] previous = this.before.get(position);
+        for (int k = 0; k < qbitsIdx.length; k++) {
+            assert this.last[qbitsIdx[k]] == position;
+            this.last[qbitsIdx[k]] = previous[k];
+        }
+        this.operations.set(position, null);
+    }
+
+    /**
+     * Find the last optimized operation sharing a qbit with a gate.
+     * @param gate the gate
+     * @return the position of the operation, or -1 if all the operations act on other qbits
+     */
+    private int previous(Gate gate) {
+        int ret = -1;
+        for (int q : gate.qbits())
+            ret = Math.max(ret, this.last[q]);
+        return ret;
+    }
+
+    /**
+     * Get the qbits on which an operation acts.
+     * @param operation the operation
+     * @return the qbits of the gate, or the measured qbit
+     */
+    private static int[] qbitsOf(Circuit.Operation operation) {
+        return operation.isMeasurement() ? new int[]{operation.qbit()} : operation.gate().qbits();
+    }
+
+    /**
+     * Tell if a gate matrix is one of the self-inverse gates recognized by the optimizer.
+     * @param qg the quantum gate matrix
+     * @return true if and only if the matrix is X, Y, Z, H, CNOT or SWAP
+     */
+    private static boolean isSelfInverse(ComplexMatrix qg) {
+        return qg == X || qg == Y || qg == Z || qg == H || qg == CNOT || qg == SWAP;
+    }
+
+    /**
+     * Tell if two gates apply the same matrix on the same qbits.
+     * @param g1 the first gate, or null for a measurement
+     * @param g2 the second gate
+     * @return true if and only if the gates have the same effect
+     */
+    private static boolean sameGate(Gate g1, Gate g2) {
+        if (g1 == null || g1.matrix() != g2.matrix())
+            return false;
+
+        int[] qbits1 = g1.qbits();
+        int[] qbits2 = g2.qbits();
+        // the SWAP gate is symmetric in its qbits
+        if (g2.matrix() == SWAP) {
+            Arrays.sort(qbits1);
+            Arrays.sort(qbits2);
+        }
+        return Arrays.equals(qbits1, qbits2);
+    }
+
+}
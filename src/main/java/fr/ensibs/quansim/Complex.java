@@ -43,7 +43,7 @@ public class Complex {
      * @return a new complex number representing the result
      */
     public Complex minus(Complex c) {
-        return this.plus(c.negative());
+        return new Complex(this.re - c.re, this.im - c.im);
     }
 
     /**
@@ -1,14 +1,35 @@
 package fr.ensibs.quansim;
 
+import java.util.Arrays;
+
 /**
  * A matrix of complex numbers.
+ *
+ * The cells are stored as arrays of real and imaginary parts. Besides the operations returning a new matrix,
+ * the "Into" operations write their result into a matrix given by the caller and the "InPlace" ones modify the
+ * matrix, so that loops can reuse the same matrices instead of allocating new ones.
  */
 public class ComplexMatrix {
 
     /**
-     * the 2-dimensional list containing the matrix's cells.
+     * the width of the matrix
      */
-    private final Complex[][] cells;
+    private final int width;
+
+    /**
+     * the height of the matrix
+     */
+    private final int height;
+
+    /**
+     * the real parts of the cells, row after row
+     */
+    private final double[] re;
+
+    /**
+     * the imaginary parts of the cells, row after row
+     */
+    private final double[] im;
 
     /**
      * Constructor.
@@ -19,7 +40,10 @@ public class ComplexMatrix {
         if (width <= 0 || height <= 0)
             throw new IllegalArgumentException("The matrix's dimensions cannot be negative.");
 
-        this.cells = new Complex[height][width];
+        this.width = width;
+        this.height = height;
+        this.re = new double[width * height];
+        this.im = new double[width * height];
     }
 
     /**
@@ -32,7 +56,19 @@ public class ComplexMatrix {
         if (cells.length == 0)
             throw new IllegalArgumentException("The initialization matrix cannot be empty.");
 
-        this.cells = cells;
+        this.width = cells[0].length;
+        this.height = cells.length;
+        if (this.width == 0)
+            throw new IllegalArgumentException("The initialization matrix cannot be empty.");
+
+        this.re = new double[this.width * this.height];
+        this.im = new double[this.width * this.height];
+        for (int y = 0; y < this.height; y++) {
+            if (cells[y].length != this.width)
+                throw new IllegalArgumentException("The rows of the initialization matrix must have the same length.");
+            for (int x = 0; x < this.width; x++)
+                this.setCell(x, y, cells[y][x]);
+        }
     }
 
     /**
@@ -40,7 +76,7 @@ public class ComplexMatrix {
      * @return the width of the matrix
      */
     public int width() {
-        return this.cells[0].length;
+        return this.width;
     }
 
     /**
@@ -48,7 +84,7 @@ public class ComplexMatrix {
      * @return the height of the matrix
      */
     public int height() {
-        return this.cells.length;
+        return this.height;
     }
 
     /**
@@ -58,13 +94,29 @@ public class ComplexMatrix {
      * @return the complex number of the cell
      */
     public Complex getCell(int x, int y) {
-        if (x < 0 || x >= this.width())
-            throw new IndexOutOfBoundsException("The x coordinate is out of bounds.");
+        int i = this.index(x, y);
+        return new Complex(this.re[i], this.im[i]);
+    }
 
-        if (y < 0 || y >= this.height())
-            throw new IndexOutOfBoundsException("The y coordinate is out of bounds.");
+    /**
+     * Get the real part of the complex number at the (x, y) coordinates, without allocating a complex number.
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the real part of the cell
+     */
+    public double getRe(int x, int y) {
+        return this.re[this.index(x, y)];
+    }
 
-        return this.cells[y][x];
+    /**
+     * Get the imaginary part of the complex number at the (x, y) coordinates, without allocating a complex
+     * number.
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the imaginary part of the cell
+     */
+    public double getIm(int x, int y) {
+        return this.im[this.index(x, y)];
     }
 
     /**
@@ -74,13 +126,23 @@ public class ComplexMatrix {
      * @param c the complex number to put in the cell
      */
     public void setCell(int x, int y, Complex c) {
-        if (x < 0 || x >= this.width())
-            throw new IndexOutOfBoundsException("The x coordinate is out of bounds.");
+        if (c == null)
+            throw new NullPointerException("The complex number cannot be null.");
 
-        if (y < 0 || y >= this.height())
-            throw new IndexOutOfBoundsException("The y coordinate is out of bounds.");
+        this.setCell(x, y, c.getRe(), c.getIm());
+    }
 
-        this.cells[y][x] = c;
+    /**
+     * Set the number of the cell having the x and y coordinates in the matrix from its parts.
+     * @param x the x coordinate of the cell
+     * @param y the y coordinate of the cell
+     * @param re the real part of the number
+     * @param im the imaginary part of the number
+     */
+    public void setCell(int x, int y, double re, double im) {
+        int i = this.index(x, y);
+        this.re[i] = re;
+        this.im[i] = im;
     }
 
     /**
@@ -92,20 +154,22 @@ public class ComplexMatrix {
         if (m == null)
             throw new NullPointerException("The other matrix cannot be null.");
 
-        if (this.width() != m.width())
-            throw new IllegalArgumentException("The matrices' widths must be equal.");
-
-        if (this.height() != m.height())
-            throw new IllegalArgumentException("The matrices' heights must be equal.");
+        return this.plusInto(m, new ComplexMatrix(this.width, this.height));
+    }
 
-        ComplexMatrix ret = new ComplexMatrix(this.width(), this.height());
-        for (int y = 0; y < this.height(); y++) {
-            for (int x = 0; x < this.width(); x++) {
-                Complex c = this.getCell(x, y).plus(m.getCell(x, y));
-                ret.setCell(x, y, c);
-            }
+    /**
+     * Add the matrix with another one, writing the result into a destination matrix.
+     * @param m the other matrix
+     * @param dest the matrix receiving the result, which can be one of the operands
+     * @return the destination matrix
+     */
+    public ComplexMatrix plusInto(ComplexMatrix m, ComplexMatrix dest) {
+        this.checkSameDimensions(m, dest);
+        for (int i = 0; i < this.re.length; i++) {
+            dest.re[i] = this.re[i] + m.re[i];
+            dest.im[i] = this.im[i] + m.im[i];
         }
-        return ret;
+        return dest;
     }
 
     /**
@@ -117,7 +181,22 @@ public class ComplexMatrix {
         if (m == null)
             throw new NullPointerException("The other matrix cannot be null.");
 
-        return this.plus(m.negative());
+        return this.minusInto(m, new ComplexMatrix(this.width, this.height));
+    }
+
+    /**
+     * Subtract the matrix with another one, writing the result into a destination matrix.
+     * @param m the other matrix
+     * @param dest the matrix receiving the result, which can be one of the operands
+     * @return the destination matrix
+     */
+    public ComplexMatrix minusInto(ComplexMatrix m, ComplexMatrix dest) {
+        this.checkSameDimensions(m, dest);
+        for (int i = 0; i < this.re.length; i++) {
+            dest.re[i] = this.re[i] - m.re[i];
+            dest.im[i] = this.im[i] - m.im[i];
+        }
+        return dest;
     }
 
     /**
@@ -129,19 +208,34 @@ public class ComplexMatrix {
         if (m == null)
             throw new NullPointerException("The other matrix cannot be null.");
 
-        if (this.width() != m.height())
-            throw new IllegalArgumentException("This matrix's width must be equal to the other matrix's height.");
+        return this.timesInto(m, new ComplexMatrix(m.width, this.height));
+    }
 
-        ComplexMatrix ret = new ComplexMatrix(m.width(), this.height());
-        for (int y = 0; y < ret.height(); y++) {
-            for (int x = 0; x < ret.width(); x++) {
-                Complex c = this.getCell(0, y).times(m.getCell(x, 0));
-                for (int i = 1; i < this.width(); i++)
-                    c = c.plus(this.getCell(i, y).times(m.getCell(x, i)));
-                ret.setCell(x, y, c);
-            }
-        }
-        return ret;
+    /**
+     * Multiply the matrix with another one, writing the result into a destination matrix.
+     * @param m the other matrix
+     * @param dest the matrix receiving the result, which cannot be one of the operands
+     * @return the destination matrix
+     */
+    public ComplexMatrix timesInto(ComplexMatrix m, ComplexMatrix dest) {
+        this.checkProduct(m, dest);
+        Arrays.fill(dest.re, 0);
+        Arrays.fill(dest.im, 0);
+        this.multiplyAdd(m, dest);
+        return dest;
+    }
+
+    /**
+     * Multiply the matrix with another one and add the result to a destination matrix, i.e. compute
+     * dest + this * m in the destination matrix.
+     * @param m the other matrix
+     * @param dest the matrix to which the product is added, which cannot be one of the operands
+     * @return the destination matrix
+     */
+    public ComplexMatrix timesAddInto(ComplexMatrix m, ComplexMatrix dest) {
+        this.checkProduct(m, dest);
+        this.multiplyAdd(m, dest);
+        return dest;
     }
 
     /**
@@ -150,11 +244,38 @@ public class ComplexMatrix {
      * @return a new matrix representing the result
      */
     public ComplexMatrix times(double s) {
-        ComplexMatrix ret = new ComplexMatrix(this.width(), this.height());
-        for (int x = 0; x < this.width(); x++)
-            for (int y = 0; y < this.height(); y++)
-                ret.setCell(x, y, this.getCell(x, y).times(s));
-        return ret;
+        return this.copy().scaleInPlace(s);
+    }
+
+    /**
+     * Multiply the matrix with a scalar, modifying the matrix.
+     * @param s the scalar
+     * @return the matrix
+     */
+    public ComplexMatrix scaleInPlace(double s) {
+        for (int i = 0; i < this.re.length; i++) {
+            this.re[i] *= s;
+            this.im[i] *= s;
+        }
+        return this;
+    }
+
+    /**
+     * Multiply the matrix with a complex number, modifying the matrix.
+     * @param c the complex number
+     * @return the matrix
+     */
+    public ComplexMatrix scaleInPlace(Complex c) {
+        if (c == null)
+            throw new NullPointerException("The complex number cannot be null.");
+
+        double cRe = c.getRe(), cIm = c.getIm();
+        for (int i = 0; i < this.re.length; i++) {
+            double re = this.re[i];
+            this.re[i] = re * cRe - this.im[i] * cIm;
+            this.im[i] = re * cIm + this.im[i] * cRe;
+        }
+        return this;
     }
 
     /**
@@ -179,10 +300,28 @@ public class ComplexMatrix {
      * @return a new matrix representing the result
      */
     public ComplexMatrix transpose() {
-        ComplexMatrix ret = new ComplexMatrix(this.height(), this.width());
-        for (int x = 0; x < this.width(); x++)
-            for (int y = 0; y < this.height(); y++)
-                ret.setCell(y, x, this.getCell(x, y));
+        ComplexMatrix ret = new ComplexMatrix(this.height, this.width);
+        for (int x = 0; x < this.width; x++) {
+            for (int y = 0; y < this.height; y++) {
+                int i = y * this.width + x;
+                ret.setCell(y, x, this.re[i], this.im[i]);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Get the conjugate transpose of the matrix, which is the inverse of a unitary matrix.
+     * @return a new matrix representing the result
+     */
+    public ComplexMatrix adjoint() {
+        ComplexMatrix ret = new ComplexMatrix(this.height, this.width);
+        for (int x = 0; x < this.width; x++) {
+            for (int y = 0; y < this.height; y++) {
+                int i = y * this.width + x;
+                ret.setCell(y, x, this.re[i], -this.im[i]);
+            }
+        }
         return ret;
     }
 
@@ -229,11 +368,19 @@ public class ComplexMatrix {
      * @return a new matrix representing the copy
      */
     public ComplexMatrix copy() {
-        ComplexMatrix ret = new ComplexMatrix(this.width(), this.height());
-        for (int x = 0; x < this.width(); x++)
-            for (int y = 0; y < this.width(); y++)
-                ret.setCell(x, y, this.getCell(x, y));
-        return ret;
+        return this.copyInto(new ComplexMatrix(this.width, this.height));
+    }
+
+    /**
+     * Copy the cells of the matrix into a destination matrix.
+     * @param dest the matrix receiving the copy
+     * @return the destination matrix
+     */
+    public ComplexMatrix copyInto(ComplexMatrix dest) {
+        this.checkSameDimensions(this, dest);
+        System.arraycopy(this.re, 0, dest.re, 0, this.re.length);
+        System.arraycopy(this.im, 0, dest.im, 0, this.im.length);
+        return dest;
     }
 
     @Override
@@ -243,10 +390,10 @@ public class ComplexMatrix {
         ComplexMatrix m = (ComplexMatrix) o;
         if (this.width() != m.width() || this.height() != m.height())
             return false;
-        for (int x = 0; x < this.width(); x++)
-            for (int y = 0; y < this.height(); y++)
-                if (!this.getCell(x, y).equals(m.getCell(x, y)))
-                    return false;
+        double threshold = .000000001;
+        for (int i = 0; i < this.re.length; i++)
+            if (!(Math.abs(this.re[i] - m.re[i]) < threshold && Math.abs(this.im[i] - m.im[i]) < threshold))
+                return false;
         return true;
     }
 
@@ -271,4 +418,80 @@ public class ComplexMatrix {
         return builder.toString();
     }
 
+    /**
+     * Get the position of the cell having the x and y coordinates in the arrays of parts.
+     * @param x the x coordinate of the cell
+     * @param y the y coordinate of the cell
+     * @return the index of the cell
+     */
+    private int index(int x, int y) {
+        if (x < 0 || x >= this.width)
+            throw new IndexOutOfBoundsException("The x coordinate is out of bounds.");
+
+        if (y < 0 || y >= this.height)
+            throw new IndexOutOfBoundsException("The y coordinate is out of bounds.");
+
+        return y * this.width + x;
+    }
+
+    /**
+     * Check that another matrix and a destination matrix have the dimensions of the matrix.
+     * @param m the other matrix
+     * @param dest the destination matrix
+     */
+    private void checkSameDimensions(ComplexMatrix m, ComplexMatrix dest) {
+        if (m == null)
+            throw new NullPointerException("The other matrix cannot be null.");
+
+        if (dest == null)
+            throw new NullPointerException("The destination matrix cannot be null.");
+
+        if (this.width != m.width || this.width != dest.width)
+            throw new IllegalArgumentException("The matrices' widths must be equal.");
+
+        if (this.height != m.height || this.height != dest.height)
+            throw new IllegalArgumentException("The matrices' heights must be equal.");
+    }
+
+    /**
+     * Check that the product of the matrix with another one can be written into a destination matrix.
+     * @param m the other matrix
+     * @param dest the destination matrix
+     */
+    private void checkProduct(ComplexMatrix m, ComplexMatrix dest) {
+        if (m == null)
+            throw new NullPointerException("The other matrix cannot be null.");
+
+        if (dest == null)
+            throw new NullPointerException("The destination matrix cannot be null.");
+
+        if (this.width != m.height)
+            throw new IllegalArgumentException("This matrix's width must be equal to the other matrix's height.");
+
+        if (dest.width != m.width || dest.height != this.height)
+            throw new IllegalArgumentException("The destination matrix must have the dimensions of the product.");
+
+        if (dest == this || dest == m)
+            throw new IllegalArgumentException("The destination matrix cannot be one of the operands.");
+    }
+
+    /**
+     * Add the product of the matrix with another one to a destination matrix.
+     * @param m the other matrix
+     * @param dest the destination matrix
+     */
+    private void multiplyAdd(ComplexMatrix m, ComplexMatrix dest) {
+        for (int y = 0; y < this.height; y++) {
+            for (int i = 0; i < this.width; i++) {
+                double aRe = this.re[y * this.width + i], aIm = this.im[y * this.width + i];
+                if (aRe == 0 && aIm == 0) continue;
+                for (int x = 0; x < m.width; x++) {
+                    double bRe = m.re[i * m.width + x], bIm = m.im[i * m.width + x];
+                    dest.re[y * dest.width + x] += aRe * bRe - aIm * bIm;
+                    dest.im[y * dest.width + x] += aRe * bIm + aIm * bRe;
+                }
+            }
+        }
+    }
+
 }
\ No newline at end of file
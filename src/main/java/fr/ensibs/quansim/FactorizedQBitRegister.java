@@ -0,0 +1,366 @@
+package fr.ensibs.quansim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A qbit register holding its state as a product of the states of independent clusters of qbits.
+ *
+ * Each qbit starts in its own cluster, a dense register of 1 qbit, so that the register needs 2n amplitudes
+ * instead of 2^n. A gate acting on qbits of several clusters merges them into a single cluster, whose state is
+ * the tensor product of their states, and a measured qbit is split from its cluster since it is no longer
+ * entangled with the other qbits. The gates and the measurements thus only cost the size of the clusters they
+ * touch, and wide circuits with little entanglement can be simulated on many more qbits than a dense register.
+ */
+public class FactorizedQBitRegister implements QuantumRegister {
+
+    /**
+     * A cluster of qbits whose state is held by a dense register.
+     */
+    private static final class Cluster {
+
+        /**
+         * the logical qbits of the cluster, the j-th qbit of the dense register being the j-th one
+         */
+        private final int[] qbits;
+
+        /**
+         * the state of the cluster
+         */
+        private final QBitRegister state;
+
+        /**
+         * Constructor.
+         * @param qbits the logical qbits of the cluster
+         * @param state the state of the cluster
+         */
+        private Cluster(int[] qbits, QBitRegister state) {
+            this.qbits = qbits;
+            this.state = state;
+        }
+
+        /**
+         * Get the qbit of the dense register holding a logical qbit.
+         * @param qbitIdx the index of the logical qbit
+         * @return the index of the qbit in the dense register
+         */
+        private int local(int qbitIdx) {
+            for (int j = 0; j < this.qbits.length; j++)
+                if (this.qbits[j] == qbitIdx)
+                    return j;
+            throw new IllegalStateException("The qbit " + qbitIdx + " is not in the cluster.");
+        }
+
+    }
+
+    /**
+     * the cluster of each qbit
+     */
+    private final Cluster[] clusters;
+
+    /**
+     * Constructor.
+     * @param n the number of qbits, all of them being initialized to |0>
+     */
+    public FactorizedQBitRegister(int n) {
+        if (n <= 0)
+            throw new IllegalArgumentException("The number of qbits in the register must be positive.");
+
+        this.clusters = new Cluster[n];
+        for (int q = 0; q < n; q++)
+            this.clusters[q] = new Cluster(new int[]{q}, new QBitRegister(1));
+    }
+
+    /**
+     * Copy constructor.
+     * @param register the register to copy
+     */
+    private FactorizedQBitRegister(FactorizedQBitRegister register) {
+        this.clusters = new Cluster[register.clusters.length];
+        Map<Cluster, Cluster> copies = new IdentityHashMap<>();
+        for (int q = 0; q < this.clusters.length; q++)
+            this.clusters[q] = copies.computeIfAbsent(register.clusters[q],
+                    c -> new Cluster(c.qbits.clone(), c.state.copy()));
+    }
+
+    /**
+     * Get the number of qbits in the register.
+     * @return the size of the register
+     */
+    @Override
+    public int size() {
+        return this.clusters.length;
+    }
+
+    /**
+     * Get the number of clusters of the register, i.e. of groups of qbits which may be entangled together.
+     * @return the number of clusters
+     */
+    public int clusterCount() {
+        return this.distinctClusters().size();
+    }
+
+    /**
+     * Get the number of qbits of the largest cluster of the register.
+     * @return the size of the largest cluster
+     */
+    public int largestCluster() {
+        int ret = 0;
+        for (Cluster cluster : this.clusters)
+            ret = Math.max(ret, cluster.qbits.length);
+        return ret;
+    }
+
+    /**
+     * Get the number of amplitudes held by the register.
+     * @return the sum of the sizes of the states of the clusters
+     */
+    public long amplitudes() {
+        long ret = 0;
+        for (Cluster cluster : this.distinctClusters())
+            ret += 1L << cluster.qbits.length;
+        return ret;
+    }
+
+    /**
+     * Give the probability to draw the given basic state.
+     * In a register of more than 31 qbits, the highest qbits of the basic state are 0.
+     * @param basicState the decimal representation of the basic state (e.g. 3 = b011 in a 3 qbits register)
+     * @return the corresponding probability
+     */
+    @Override
+    public double proba(int basicState) {
+        if (basicState < 0 || (this.clusters.length < 31 && basicState >= 1 << this.clusters.length))
+            throw new IndexOutOfBoundsException("The basic state is out of bounds.");
+
+        double ret = 1;
+        for (Cluster cluster : this.distinctClusters()) {
+            int local = 0;
+            for (int j = 0; j < cluster.qbits.length; j++)
+                if (cluster.qbits[j] < 31 && (basicState & (1 << cluster.qbits[j])) != 0)
+                    local |= 1 << j;
+            ret *= cluster.state.proba(local);
+        }
+        return ret;
+    }
+
+    /**
+     * Apply a nxn quantic gate on one or several qbits of the register, merging their clusters if needed.
+     * @param qg the quantic gate matrix
+     * @param qbitsIdx the indexes of the qbits in the register
+     * @return the qbit register after the quantic gate
+     */
+    @Override
+    public FactorizedQBitRegister apply(ComplexMatrix qg, int... qbitsIdx) {
+        if (qg == null)
+            throw new NullPointerException("The quantum gate matrix cannot be null.");
+
+        if (qbitsIdx == null)
+            throw new NullPointerException("The list of qbits indexes cannot be null.");
+
+        if (qbitsIdx.length == 0)
+            throw new IllegalArgumentException("There must be at least 1 selected qubit.");
+
+        if (!qg.isSquare() || qg.width() != 1 << qbitsIdx.length)
+            throw new IllegalArgumentException("The given quantic gate is incompatible with the number of qubits.");
+
+        int[] sorted = qbitsIdx.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < sorted.length; i++)
+            if (sorted[i] < 0 || sorted[i] >= this.clusters.length)
+                throw new IndexOutOfBoundsException("One of the qbit indexes is out of bounds.");
+            else if (i > 0 && sorted[i - 1] == sorted[i])
+                throw new IllegalArgumentException("The list of qbit indexes cannot contain duplicates.");
+
+        Cluster cluster = this.clusters[sorted[0]];
+        for (int q : sorted)
+            if (this.clusters[q] != cluster)
+                cluster = this.merge(cluster, this.clusters[q]);
+
+        if (sorted.length == 1) {
+            cluster.state.apply(qg, cluster.local(sorted[0]));
+            return this;
+        }
+        // the qbits of the gate in the order of its matrix, the first one being the most significant bit
+        int[] localIdx = new int[sorted.length];
+        for (int p = 0; p < sorted.length; p++)
+            localIdx[p] = cluster.local(sorted[sorted.length - 1 - p]);
+        new Gate("U", qg, localIdx).applyTo(cluster.state);
+        return this;
+    }
+
+    /**
+     * Measure a single qbit of the register and collapse the state according to the result. The measured qbit
+     * is split from its cluster.
+     * @param qbitIdx the index of the qbit in the register
+     * @return true if the measured bit was 1, false otherwise
+     */
+    @Override
+    public boolean measure(int qbitIdx) {
+        if (qbitIdx < 0 || qbitIdx >= this.clusters.length)
+            throw new IndexOutOfBoundsException("The qbit index is out of bounds.");
+
+        Cluster cluster = this.clusters[qbitIdx];
+        int local = cluster.local(qbitIdx);
+        boolean ret = cluster.state.measure(local);
+        if (cluster.qbits.length > 1)
+            this.split(cluster, local, ret);
+        return ret;
+    }
+
+    /**
+     * Draw values randomly for the qbits of the register according to their associated probabilities.
+     * @return an array of booleans, which are equal to true if the drawn bit was 1, and false otherwise
+     */
+    @Override
+    public boolean[] randomDraw() {
+        int n = this.clusters.length;
+        boolean[] ret = new boolean[n];
+        for (Cluster cluster : this.distinctClusters()) {
+            boolean[] draws = cluster.state.randomDraw();
+            int k = cluster.qbits.length;
+            for (int j = 0; j < k; j++)
+                ret[n - 1 - cluster.qbits[j]] = draws[k - 1 - j];
+        }
+        return ret;
+    }
+
+    /**
+     * Create a deep copy of the qbit register, even though it is physically impossible.
+     * @return a copy of the qbit register
+     */
+    @Override
+    public FactorizedQBitRegister copy() {
+        return new FactorizedQBitRegister(this);
+    }
+
+    /**
+     * Get the dense register with the same state.
+     * @return a new qbit register of the same size
+     */
+    public QBitRegister toQBitRegister() {
+        int n = this.clusters.length;
+        if (n > 30)
+            throw new IllegalStateException("The register is too large to be held by a dense register.");
+
+        double[] re = {1};
+        double[] im = {0};
+        int[] qbits = new int[0];
+        for (Cluster cluster : this.distinctClusters()) {
+            Cluster merged = tensor(new Cluster(qbits, new QBitRegister(re, im)), cluster);
+            qbits = merged.qbits;
+            re = merged.state.realParts();
+            im = merged.state.imaginaryParts();
+        }
+
+        // the qbits of the product are reordered so that the j-th qbit is the logical qbit j
+        double[] sortedRe = new double[re.length];
+        double[] sortedIm = new double[im.length];
+        for (int i = 0; i < re.length; i++) {
+            int logical = 0;
+            for (int j = 0; j < n; j++)
+                if ((i & (1 << j)) != 0)
+                    logical |= 1 << qbits[j];
+            sortedRe[logical] = re[i];
+            sortedIm[logical] = im[i];
+        }
+        return new QBitRegister(sortedRe, sortedIm);
+    }
+
+    /**
+     * Merge two clusters into the cluster of the tensor product of their states.
+     * @param c1 the first cluster
+     * @param c2 the second cluster
+     * @return the merged cluster, which replaces them for all their qbits
+     */
+    private Cluster merge(Cluster c1, Cluster c2) {
+        Cluster ret = tensor(c1, c2);
+        for (int q : ret.qbits)
+            this.clusters[q] = ret;
+        return ret;
+    }
+
+    /**
+     * Split a measured qbit from its cluster, the remaining qbits forming a new cluster.
+     * @param cluster the cluster of the measured qbit
+     * @param local the index of the measured qbit in the dense register of the cluster
+     * @param value the result of the measurement
+     */
+    private void split(Cluster cluster, int local, boolean value) {
+        int k = cluster.qbits.length;
+        double[] re = cluster.state.realParts();
+        double[] im = cluster.state.imaginaryParts();
+        int low = (1 << local) - 1;
+        int bit = value ? 1 << local : 0;
+        double[] restRe = new double[re.length / 2];
+        double[] restIm = new double[im.length / 2];
+        // the amplitudes of the remaining qbits are the ones where the measured qbit has the measured value
+        for (int r = 0; r < restRe.length; r++) {
+            int i = ((r & ~low) << 1) | bit | (r & low);
+            restRe[r] = re[i];
+            restIm[r] = im[i];
+        }
+        int[] restQbits = new int[k - 1];
+        for (int j = 0, m = 0; j < k; j++)
+            if (j != local)
+                restQbits[m++] = cluster.qbits[j];
+        Cluster rest = new Cluster(restQbits, new QBitRegister(restRe, restIm));
+        for (int q : restQbits)
+            this.clusters[q] = rest;
+
+        double[] measuredRe = new double[2];
+        measuredRe[value ? 1 : 0] = 1;
+        this.clusters[cluster.qbits[local]] = new Cluster(new int[]{cluster.qbits[local]},
+                new QBitRegister(measuredRe, new double[2]));
+    }
+
+    /**
+     * Get the distinct clusters of the register.
+     * @return the clusters, each of them once
+     */
+    private List<Cluster> distinctClusters() {
+        List<Cluster> ret = new ArrayList<>();
+        for (int q = 0; q < this.clusters.length; q++)
+            if (this.clusters[q].qbits[0] == q)
+                ret.add(this.clusters[q]);
+        return ret;
+    }
+
+    /**
+     * Compute the tensor product of the states of two clusters.
+     * @param c1 the first cluster, whose qbits become the lowest qbits of the product
+     * @param c2 the second cluster, whose qbits become the highest qbits of the product
+     * @return the cluster of the product
+     */
+    private static Cluster tensor(Cluster c1, Cluster c2) {
+        double[] re1 = c1.state.realParts();
+        double[] im1 = c1.state.imaginaryParts();
+        double[] re2 = c2.state.realParts();
+        double[] im2 = c2.state.imaginaryParts();
+        int k1 = c1.qbits.length;
+        double[] re = new double[re1.length * re2.length];
+        double[] im = new double[re.length];
+        for (int b = 0; b < re2.length; b++) {
+            for (int a = 0; a < re1.length; a++) {
+                int i = (b << k1) | a;
+                re[i] = re1[a] * re2[b] - im1[a] * im2[b];
+                im[i] = re1[a] * im2[b] + im1[a] * re2[b];
+            }
+        }
+        int[] qbits = Arrays.copyOf(c1.qbits, k1 + c2.qbits.length);
+        System.arraycopy(c2.qbits, 0, qbits, k1, c2.qbits.length);
+        return new Cluster(qbits, new QBitRegister(re, im));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Cluster cluster : this.distinctClusters())
+            builder.append(Arrays.toString(cluster.qbits)).append(' ').append(cluster.state).append('\n');
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,55 @@
+package fr.ensibs.quansim;
+
+/**
+ * The emission of the profiled operations as JDK Flight Recorder events.
+ *
+ * The events are begun when an operation starts and ended when it is done. They are opaque to the profiler, so
+ * that it does not depend on the jdk.jfr module, which is only available on the recent JVMs.
+ */
+interface FlightRecorder {
+
+    /**
+     * Begin the event of a gate application.
+     * @return the begun event
+     */
+    Object beginGate();
+
+    /**
+     * Begin the event of a measurement.
+     * @return the begun event
+     */
+    Object beginMeasurement();
+
+    /**
+     * End the event of a gate application and commit it if it is recorded.
+     * @param event the event begun by beginGate
+     * @param kind the kind of the applied gate
+     * @param qbitsIdx the indexes of the qbits touched by the gate
+     * @param amplitudes the number of amplitudes processed by the gate
+     */
+    void endGate(Object event, String kind, int[] qbitsIdx, long amplitudes);
+
+    /**
+     * End the event of a measurement and commit it if it is recorded.
+     * @param event the event begun by beginMeasurement
+     * @param qbitsIdx the indexes of the measured qbits
+     * @param amplitudes the number of amplitudes processed by the measurement
+     */
+    void endMeasurement(Object event, int[] qbitsIdx, long amplitudes);
+
+    /**
+     * Get the flight recorder of the running JVM: the one emitting JDK Flight Recorder events when it has been
+     * built and the jdk.jfr module is available, and none otherwise.
+     * @return the flight recorder, or null if the events cannot be emitted
+     */
+    static FlightRecorder load() {
+        try {
+            Class<?> c = Class.forName("fr.ensibs.quansim.JfrFlightRecorder");
+            return (FlightRecorder) c.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // the events are not built or not supported by the JVM
+            return null;
+        }
+    }
+
+}
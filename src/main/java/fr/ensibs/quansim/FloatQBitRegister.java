@@ -0,0 +1,465 @@
+package fr.ensibs.quansim;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * A qbit register storing its state in single precision, which halves its memory footprint and bandwidth
+ * compared to a QBitRegister.
+ *
+ * The rounding errors of single precision accumulate gate after gate and make the norm of the state drift
+ * away from 1. The norm is computed while applying every gate, and when its drift exceeds the norm
+ * tolerance, the state is either renormalized or a warning is logged, depending on the configuration.
+ */
+public class FloatQBitRegister implements QuantumRegister {
+
+    /**
+     * the logger of the class
+     */
+    private static final Logger LOGGER = Logger.getLogger(FloatQBitRegister.class.getName());
+
+    /**
+     * the default maximal drift of the norm of the state
+     */
+    public static final double DEFAULT_NORM_TOLERANCE = 1e-4;
+
+    /**
+     * the real parts of the state of the qbit register
+     */
+    private final float[] re;
+
+    /**
+     * the imaginary parts of the state of the qbit register
+     */
+    private final float[] im;
+
+    /**
+     * the maximal drift of the norm of the state before it is renormalized or a warning is logged
+     */
+    private double normTolerance = DEFAULT_NORM_TOLERANCE;
+
+    /**
+     * true if the state is renormalized when its norm drifts too much, false if a warning is logged instead
+     */
+    private boolean renormalize;
+
+    /**
+     * the drift of the norm of the state measured after the last gate
+     */
+    private double normDrift;
+
+    /**
+     * true if a warning has already been logged for the drift of the norm
+     */
+    private boolean warned;
+
+    /**
+     * Constructor.
+     * @param n the number of qbits
+     */
+    public FloatQBitRegister(int n) {
+        if (n <= 0)
+            throw new IllegalArgumentException("The number of qbits in the register must be positive.");
+
+        if (n > 30)
+            throw new IllegalArgumentException("The number of qbits in the register cannot exceed 30, use a LargeQBitRegister instead.");
+
+        int length = 1 << n;
+        this.re = new float[length];
+        this.im = new float[length];
+        this.re[0] = 1;
+    }
+
+    /**
+     * Constructor.
+     * @param coordinates the coordinates of qbit register
+     */
+    public FloatQBitRegister(Complex[] coordinates) {
+        if (coordinates == null)
+            throw new NullPointerException("The initialization coordinates cannot be null.");
+
+        if (coordinates.length == 0 || (coordinates.length & (coordinates.length - 1)) != 0)
+            throw new IllegalArgumentException("The length of the coordinates must be a power of 2.");
+
+        double sum = 0;
+        for (Complex c : coordinates)
+            sum += Math.pow(c.modulus(), 2);
+        if (sum <= 0.999 || sum >= 1.001)
+            throw new IllegalArgumentException("The sum of the square moduli of the coordinates must be 1.");
+
+        this.re = new float[coordinates.length];
+        this.im = new float[coordinates.length];
+        for (int i = 0; i < coordinates.length; i++) {
+            this.re[i] = (float) coordinates[i].getRe();
+            this.im[i] = (float) coordinates[i].getIm();
+        }
+    }
+
+    /**
+     * Constructor converting a double precision qbit register.
+     * @param register the qbit register to convert
+     */
+    public FloatQBitRegister(QBitRegister register) {
+        if (register == null)
+            throw new NullPointerException("The qbit register cannot be null.");
+
+        double[] re = register.realParts();
+        double[] im = register.imaginaryParts();
+        this.re = new float[re.length];
+        this.im = new float[im.length];
+        for (int i = 0; i < re.length; i++) {
+            this.re[i] = (float) re[i];
+            this.im[i] = (float) im[i];
+        }
+    }
+
+    /**
+     * Constructor wrapping existing amplitude arrays, without copy nor normalization check.
+     * @param re the real parts of the coordinates
+     * @param im the imaginary parts of the coordinates
+     */
+    FloatQBitRegister(float[] re, float[] im) {
+        this.re = re;
+        this.im = im;
+    }
+
+    /**
+     * Set the maximal drift of the norm of the state before it is renormalized or a warning is logged.
+     * @param normTolerance the maximal drift of the norm
+     */
+    public void setNormTolerance(double normTolerance) {
+        if (normTolerance <= 0)
+            throw new IllegalArgumentException("The norm tolerance must be positive.");
+
+        this.normTolerance = normTolerance;
+    }
+
+    /**
+     * Get the maximal drift of the norm of the state before it is renormalized or a warning is logged.
+     * @return the maximal drift of the norm
+     */
+    public double getNormTolerance() {
+        return this.normTolerance;
+    }
+
+    /**
+     * Choose what to do when the norm of the state drifts beyond the norm tolerance.
+     * @param renormalize true to renormalize the state, false to log a warning
+     */
+    public void setRenormalize(boolean renormalize) {
+        this.renormalize = renormalize;
+    }
+
+    /**
+     * Tell what is done when the norm of the state drifts beyond the norm tolerance.
+     * @return true if the state is renormalized, false if a warning is logged
+     */
+    public boolean isRenormalize() {
+        return this.renormalize;
+    }
+
+    /**
+     * Get the drift of the norm of the state measured after the last gate.
+     * @return the absolute difference between the squared norm of the state and 1
+     */
+    public double normDrift() {
+        return this.normDrift;
+    }
+
+    @Override
+    public int size() {
+        return Integer.numberOfTrailingZeros(this.re.length);
+    }
+
+    @Override
+    public double proba(int basicState) {
+        return (double) this.re[basicState] * this.re[basicState] + (double) this.im[basicState] * this.im[basicState];
+    }
+
+    /**
+     * Apply a 2x2 quantic gate on a qbit of the register.
+     * @param qg the quantic gate matrix
+     * @param qbitIdx the index of the qbit in the register
+     * @return the qbit register after the quantic gate
+     */
+    public FloatQBitRegister apply(ComplexMatrix qg, int qbitIdx) {
+        if (qg == null)
+            throw new NullPointerException("The quantum gate matrix cannot be null.");
+
+        if (qg.width() != 2 || qg.height() != 2)
+            throw new IllegalArgumentException("The quantum gate matrix must be 2x2.");
+
+        if (qbitIdx < 0 || qbitIdx >= this.size())
+            throw new IndexOutOfBoundsException("The qbit index is out of bounds.");
+
+        float g00re = (float) qg.getRe(0, 0), g00im = (float) qg.getIm(0, 0);
+        float g01re = (float) qg.getRe(1, 0), g01im = (float) qg.getIm(1, 0);
+        float g10re = (float) qg.getRe(0, 1), g10im = (float) qg.getIm(0, 1);
+        float g11re = (float) qg.getRe(1, 1), g11im = (float) qg.getIm(1, 1);
+
+        Profiler.Span span = Profiler.startGate();
+        double norm = 0;
+        int offset = 1 << qbitIdx;
+        for (int startIdx = 0; startIdx < this.re.length; startIdx += 2 * offset) {
+            for (int i = startIdx; i < startIdx + offset; i++) {
+                int j = i + offset;
+                float aRe = this.re[i], aIm = this.im[i];
+                float bRe = this.re[j], bIm = this.im[j];
+                float cRe = g00re * aRe - g00im * aIm + g01re * bRe - g01im * bIm;
+                float cIm = g00re * aIm + g00im * aRe + g01re * bIm + g01im * bRe;
+                float dRe = g10re * aRe - g10im * aIm + g11re * bRe - g11im * bIm;
+                float dIm = g10re * aIm + g10im * aRe + g11re * bIm + g11im * bRe;
+                this.re[i] = cRe;
+                this.im[i] = cIm;
+                this.re[j] = dRe;
+                this.im[j] = dIm;
+                norm += cRe * cRe + cIm * cIm + dRe * dRe + dIm * dIm;
+            }
+        }
+        this.checkNorm(norm);
+        if (span != null)
+            span.endGate(qg, new int[]{qbitIdx}, this.re.length);
+        return this;
+    }
+
+    @Override
+    public FloatQBitRegister apply(ComplexMatrix qg, int... qbitsIdx) {
+        if (qg == null)
+            throw new NullPointerException("The quantum gate matrix cannot be null.");
+
+        if (qg.width() <= 1 || (qg.width() & (qg.width() - 1)) != 0)
+            throw new IllegalArgumentException("The quantum gate matrix must have dimensions that are a power of 2.");
+
+        if (qg.width() != qg.height())
+            throw new IllegalArgumentException("The quantum gate matrix must be square.");
+
+        if (qg.width() > this.re.length)
+            throw new IllegalArgumentException("The quantum gate matrix cannot be longer than the state vector.");
+
+        if (qbitsIdx == null)
+            throw new NullPointerException("The list of qbits indexes cannot be null.");
+
+        if (qbitsIdx.length == 0)
+            throw new IllegalArgumentException("There must be at least 1 selected qubit.");
+
+        if (qbitsIdx.length >= 31 || 1 << qbitsIdx.length != qg.width())
+            throw new IllegalArgumentException("The given quantic gate is incompatible with the number of qubits.");
+
+        Arrays.sort(qbitsIdx);
+        for (int i = 0; i < qbitsIdx.length; i++)
+            if (qbitsIdx[i] < 0 || qbitsIdx[i] >= this.size())
+                throw new IndexOutOfBoundsException("One of the qbit indexes is out of bounds.");
+            else if (i > 0 && qbitsIdx[i - 1] == qbitsIdx[i])
+                throw new IllegalArgumentException("The list of qbit indexes cannot contain duplicates.");
+
+        // a gate on a single qbit, e.g. applied through the varargs of QuantumRegister, uses the 2x2 kernels
+        if (qbitsIdx.length == 1)
+            return this.apply(qg, qbitsIdx[0]);
+
+        Profiler.Span span = Profiler.startGate();
+        int subvectorLen = qg.width();
+        float[] gRe = new float[subvectorLen * subvectorLen];
+        float[] gIm = new float[subvectorLen * subvectorLen];
+        for (int y = 0; y < subvectorLen; y++) {
+            for (int x = 0; x < subvectorLen; x++) {
+                gRe[y * subvectorLen + x] = (float) qg.getRe(x, y);
+                gIm[y * subvectorLen + x] = (float) qg.getIm(x, y);
+            }
+        }
+
+        // same layout of the sub-vectors as in QBitRegister.apply
+        int[] offsets = new int[subvectorLen];
+        int mask = 0;
+        for (int j = 0; j < qbitsIdx.length; j++)
+            mask |= 1 << qbitsIdx[j];
+        for (int i = 0; i < subvectorLen; i++)
+            for (int j = 0; j < qbitsIdx.length; j++)
+                if ((i & (1 << j)) != 0)
+                    offsets[i] |= 1 << qbitsIdx[j];
+
+        float[] vRe = new float[subvectorLen];
+        float[] vIm = new float[subvectorLen];
+        double norm = 0;
+        for (int startIdx = 0; startIdx < this.re.length; startIdx++) {
+            if ((startIdx & mask) != 0) continue;
+            for (int j = 0; j < subvectorLen; j++) {
+                vRe[j] = this.re[startIdx + offsets[j]];
+                vIm[j] = this.im[startIdx + offsets[j]];
+            }
+            for (int y = 0; y < subvectorLen; y++) {
+                float sumRe = 0, sumIm = 0;
+                for (int x = 0; x < subvectorLen; x++) {
+                    float cRe = gRe[y * subvectorLen + x], cIm = gIm[y * subvectorLen + x];
+                    sumRe += cRe * vRe[x] - cIm * vIm[x];
+                    sumIm += cRe * vIm[x] + cIm * vRe[x];
+                }
+                this.re[startIdx + offsets[y]] = sumRe;
+                this.im[startIdx + offsets[y]] = sumIm;
+                norm += sumRe * sumRe + sumIm * sumIm;
+            }
+        }
+
+        this.checkNorm(norm);
+        if (span != null)
+            span.endGate(qg, qbitsIdx, this.re.length);
+        return this;
+    }
+
+    @Override
+    public boolean measure(int qbitIdx) {
+        if (qbitIdx < 0 || qbitIdx >= this.size())
+            throw new IndexOutOfBoundsException("The qbit index is out of bounds.");
+
+        Profiler.Span span = Profiler.startMeasurement();
+        int bit = 1 << qbitIdx;
+        double p0 = 0, p1 = 0;
+        for (int i = 0; i < this.re.length; i++) {
+            double p = (double) this.re[i] * this.re[i] + (double) this.im[i] * this.im[i];
+            if ((i & bit) != 0) p1 += p;
+            else p0 += p;
+        }
+
+        boolean bitIs1 = Math.random() * (p0 + p1) < p1;
+        float factor = (float) (1 / Math.sqrt(bitIs1 ? p1 : p0));
+        for (int i = 0; i < this.re.length; i++) {
+            if (((i & bit) != 0) == bitIs1) {
+                this.re[i] *= factor;
+                this.im[i] *= factor;
+            } else {
+                this.re[i] = 0;
+                this.im[i] = 0;
+            }
+        }
+        this.normDrift = 0;
+        if (span != null)
+            span.endMeasurement(new int[]{qbitIdx}, this.re.length);
+        return bitIs1;
+    }
+
+    @Override
+    public boolean[] randomDraw() {
+        Profiler.Span span = Profiler.startMeasurement();
+        double norm = 0;
+        for (int i = 0; i < this.re.length; i++)
+            norm += (double) this.re[i] * this.re[i] + (double) this.im[i] * this.im[i];
+
+        // the drawn value is scaled by the norm, so that the drift of the norm cannot bias the draw
+        double drawnValue = Math.random() * norm;
+        double accumulator = 0;
+        int drawnState = this.re.length - 1;
+        for (int i = 0; i < this.re.length; i++) {
+            accumulator += (double) this.re[i] * this.re[i] + (double) this.im[i] * this.im[i];
+            if (drawnValue <= accumulator) {
+                drawnState = i;
+                break;
+            }
+        }
+        Arrays.fill(this.re, 0);
+        Arrays.fill(this.im, 0);
+        this.re[drawnState] = 1;
+        this.normDrift = 0;
+
+        boolean[] ret = new boolean[this.size()];
+        for (int i = 0; i < ret.length; i++)
+            ret[ret.length - 1 - i] = (drawnState & (1 << i)) != 0;
+        if (span != null) {
+            int[] qbitsIdx = new int[ret.length];
+            for (int i = 0; i < qbitsIdx.length; i++)
+                qbitsIdx[i] = i;
+            span.endMeasurement(qbitsIdx, this.re.length);
+        }
+        return ret;
+    }
+
+    @Override
+    public FloatQBitRegister copy() {
+        FloatQBitRegister ret = new FloatQBitRegister(this.re.clone(), this.im.clone());
+        ret.normTolerance = this.normTolerance;
+        ret.renormalize = this.renormalize;
+        ret.normDrift = this.normDrift;
+        return ret;
+    }
+
+    /**
+     * Convert the qbit register to double precision.
+     * @return a new double precision qbit register in the same state
+     */
+    public QBitRegister toDoublePrecision() {
+        double[] re = new double[this.re.length];
+        double[] im = new double[this.im.length];
+        for (int i = 0; i < re.length; i++) {
+            re[i] = this.re[i];
+            im[i] = this.im[i];
+        }
+        return new QBitRegister(re, im);
+    }
+
+    /**
+     * Get the real parts of the coordinates, without copy.
+     * @return the array of the real parts
+     */
+    float[] realParts() {
+        return this.re;
+    }
+
+    /**
+     * Get the imaginary parts of the coordinates, without copy.
+     * @return the array of the imaginary parts
+     */
+    float[] imaginaryParts() {
+        return this.im;
+    }
+
+    /**
+     * Check the drift of the squared norm of the state after a gate, and renormalize the state or log a
+     * warning if it exceeds the norm tolerance.
+     * @param norm the squared norm of the state
+     */
+    private void checkNorm(double norm) {
+        this.normDrift = Math.abs(norm - 1);
+        if (this.normDrift <= this.normTolerance)
+            return;
+
+        if (this.renormalize) {
+            float factor = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < this.re.length; i++) {
+                this.re[i] *= factor;
+                this.im[i] *= factor;
+            }
+            this.normDrift = 0;
+        } else if (!this.warned) {
+            LOGGER.warning("The norm of the single precision state has drifted by " + this.normDrift
+                    + ", beyond the tolerance of " + this.normTolerance + ".");
+            this.warned = true;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FloatQBitRegister)) return false;
+        FloatQBitRegister register = (FloatQBitRegister) o;
+        if (this.re.length != register.re.length)
+            return false;
+        // the threshold matches the precision of single precision numbers
+        double threshold = .000001;
+        for (int i = 0; i < this.re.length; i++)
+            if (Math.abs(this.re[i] - register.re[i]) >= threshold || Math.abs(this.im[i] - register.im[i]) >= threshold)
+                return false;
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        // registers equal up to the threshold may have different amplitudes, so only their size is hashed
+        return this.re.length;
+    }
+
+    @Override
+    public String toString() {
+        ComplexVector state = new ComplexVector(this.re.length);
+        for (int i = 0; i < this.re.length; i++)
+            state.setCoordinate(i, new Complex(this.re[i], this.im[i]));
+        return state.toString();
+    }
+
+}
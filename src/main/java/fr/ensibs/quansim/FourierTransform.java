@@ -0,0 +1,327 @@
+package fr.ensibs.quansim;
+
+import java.util.stream.IntStream;
+
+/**
+ * An in-place radix-2 fast Fourier transform of the amplitudes of a state over some of its bits, i.e. the
+ * quantum Fourier transform of the corresponding qbits.
+ *
+ * The value x of the selected bits of each index is transformed independently for each value of the other
+ * bits. The amplitudes are first permuted so that x is bit-reversed, then combined in one stage per selected
+ * bit. The first stages whose bits are inside a block of amplitudes are all done on a block while it is in
+ * cache, and the blocks are processed in parallel for large states.
+ */
+class FourierTransform {
+
+    /**
+     * number of lowest bits of the indexes resolved by the first lookup table when gathering x
+     */
+    private static final int LOOKUP_BITS = 12;
+
+    /**
+     * number of lowest bits of the indexes in a run of consecutive amplitudes of a tile
+     */
+    private static final int RUN_BITS = 5;
+
+    /**
+     * the masks of the selected bits, the j-th one being the j-th bit of x
+     */
+    private final int[] bits;
+
+    /**
+     * the number of bits of the indexes
+     */
+    private final int size;
+
+    /**
+     * the index of the lowest selected bit if the selected bits are consecutive, -1 otherwise
+     */
+    private final int shift;
+
+    /**
+     * the number of lowest bits of the indexes resolved by the first lookup table
+     */
+    private final int lowBits;
+
+    /**
+     * the table gathering the bits of x from the lowest bits of the indexes
+     */
+    private final int[] low;
+
+    /**
+     * the table gathering the bits of x from the highest bits of the indexes
+     */
+    private final int[] high;
+
+    /**
+     * the number of lowest bits of x scattered by the first deposit table
+     */
+    private final int depositBits;
+
+    /**
+     * the table scattering the lowest bits of x to the selected bits of an index
+     */
+    private final int[] lowDeposit;
+
+    /**
+     * the table scattering the highest bits of x to the selected bits of an index
+     */
+    private final int[] highDeposit;
+
+    /**
+     * the real parts of the twiddle factors of the last stage, the ones of the other stages being a subset
+     */
+    private final double[] cos;
+
+    /**
+     * the imaginary parts of the twiddle factors of the last stage
+     */
+    private final double[] sin;
+
+    /**
+     * Constructor.
+     * @param physicalBits the indexes of the selected bits, the first one being the least significant bit of x
+     * @param size the number of bits of the indexes
+     * @param sign 1 for the transform, -1 for its inverse
+     */
+    FourierTransform(int[] physicalBits, int size, int sign) {
+        int k = physicalBits.length;
+        this.bits = new int[k];
+        boolean consecutive = true;
+        for (int j = 0; j < k; j++) {
+            this.bits[j] = 1 << physicalBits[j];
+            consecutive &= physicalBits[j] == physicalBits[0] + j;
+        }
+        this.size = size;
+        this.shift = consecutive ? physicalBits[0] : -1;
+        this.lowBits = Math.min(LOOKUP_BITS, size);
+        this.low = this.gatherTable(0, this.lowBits);
+        this.high = this.gatherTable(this.lowBits, size - this.lowBits);
+        this.depositBits = Math.min(LOOKUP_BITS, k);
+        this.lowDeposit = this.depositTable(0, this.depositBits);
+        this.highDeposit = this.depositTable(this.depositBits, k - this.depositBits);
+
+        int n = 1 << k;
+        this.cos = new double[n / 2];
+        this.sin = new double[n / 2];
+        for (int t = 0; t < n / 2; t++) {
+            this.cos[t] = Math.cos(2 * Math.PI * t / n);
+            this.sin[t] = sign * Math.sin(2 * Math.PI * t / n);
+        }
+    }
+
+    /**
+     * Transform the amplitudes of a state.
+     * @param re the real parts of the amplitudes
+     * @param im the imaginary parts of the amplitudes
+     */
+    void apply(double[] re, double[] im) {
+        int k = this.bits.length;
+        int blockLength = Math.min(Tuning.blockSize(), re.length);
+        this.blocks(re.length, blockLength).forEach(b -> this.reverse(re, im, b * blockLength, (b + 1) * blockLength));
+
+        // the amplitudes of the last stage are normalized while they are combined
+        double norm = 1 / Math.sqrt(1 << k);
+        int localStages = 0;
+        while (localStages < k && this.bits[localStages] < blockLength)
+            localStages++;
+        int firstStages = localStages;
+        this.blocks(re.length, blockLength).forEach(b -> {
+            for (int s = 0; s < firstStages; s++)
+                this.stage(re, im, s, s == k - 1 ? norm : 1, b * blockLength / 2, (b + 1) * blockLength / 2);
+        });
+
+        // the next stages are grouped so that a tile of amplitudes, made of runs of consecutive amplitudes
+        // at each value of the bits of the group, fits in a block
+        int blockBits = Integer.numberOfTrailingZeros(blockLength);
+        int runBits = Math.max(0, Math.min(RUN_BITS, blockBits - 1));
+        int groupLength = Math.max(1, blockBits - runBits);
+        int s = localStages;
+        while (s < k) {
+            int last = s;
+            while (last < k && last - s < groupLength && this.bits[last] >= 1 << runBits)
+                last++;
+            if (last > s) {
+                this.group(re, im, s, last, runBits, norm);
+                s = last;
+            } else {
+                // a stage whose bit is inside the runs is done in a pass over all the pairs
+                int stage = s++;
+                int pairBlock = blockLength / 2;
+                this.blocks(re.length / 2, pairBlock).forEach(b ->
+                        this.stage(re, im, stage, stage == k - 1 ? norm : 1, b * pairBlock, (b + 1) * pairBlock));
+            }
+        }
+    }
+
+    /**
+     * Do a group of stages whose bits are above the runs of consecutive amplitudes, tile by tile.
+     * @param re the real parts of the amplitudes
+     * @param im the imaginary parts of the amplitudes
+     * @param first the index of the first stage of the group, inclusive
+     * @param last the index of the last stage of the group, exclusive
+     * @param runBits the number of lowest bits of the indexes in a run of consecutive amplitudes
+     * @param norm the factor by which the amplitudes of the last stage are multiplied
+     */
+    private void group(double[] re, double[] im, int first, int last, int runBits, double norm) {
+        int count = last - first;
+        // the offsets of the runs of a tile, at each value of the bits of the group
+        int[] offsets = new int[1 << count];
+        int mask = (1 << runBits) - 1;
+        for (int x = 0; x < offsets.length; x++)
+            for (int j = 0; j < count; j++)
+                if ((x & (1 << j)) != 0)
+                    offsets[x] |= this.bits[first + j];
+        for (int j = first; j < last; j++)
+            mask |= this.bits[j];
+        // the other bits of the indexes give the start of each tile
+        int[] others = new int[this.size - Integer.bitCount(mask)];
+        for (int b = 0, o = 0; b < this.size; b++)
+            if ((mask & (1 << b)) == 0)
+                others[o++] = 1 << b;
+
+        int run = 1 << runBits;
+        this.blocks(1 << others.length, 1).forEach(tile -> {
+            int start = 0;
+            for (int o = 0; o < others.length; o++)
+                if ((tile & (1 << o)) != 0)
+                    start |= others[o];
+            for (int s = first; s < last; s++) {
+                int u = s - first;
+                int half = 1 << s;
+                int stride = (this.cos.length * 2) >>> (s + 1);
+                double factor = s == this.bits.length - 1 ? norm : 1;
+                for (int y = 0; y < offsets.length / 2; y++) {
+                    // the value of the bits of the group with a 0 inserted at the bit of the stage
+                    int x = ((y & -(1 << u)) << 1) | (y & ((1 << u) - 1));
+                    int from = start | offsets[x];
+                    for (int i = from; i < from + run; i++)
+                        this.butterfly(re, im, i, i | this.bits[s], (this.gather(i) & (half - 1)) * stride, factor);
+                }
+            }
+        });
+    }
+
+    /**
+     * Swap the amplitudes of a range of indexes with the ones whose x is bit-reversed, each pair being swapped
+     * from its lowest index.
+     * @param re the real parts of the amplitudes
+     * @param im the imaginary parts of the amplitudes
+     * @param from the first index of the range, inclusive
+     * @param to the last index of the range, exclusive
+     */
+    private void reverse(double[] re, double[] im, int from, int to) {
+        int k = this.bits.length;
+        for (int i = from; i < to; i++) {
+            int x = this.gather(i);
+            int reversed = Integer.reverse(x) >>> (32 - k);
+            if (reversed <= x) continue;
+            int flipped = x ^ reversed;
+            int j = i ^ this.lowDeposit[flipped & ((1 << this.depositBits) - 1)]
+                    ^ this.highDeposit[flipped >>> this.depositBits];
+            double tmp = re[i];
+            re[i] = re[j];
+            re[j] = tmp;
+            tmp = im[i];
+            im[i] = im[j];
+            im[j] = tmp;
+        }
+    }
+
+    /**
+     * Combine the pairs of amplitudes differing by the bit of a stage, for a range of pairs.
+     * @param re the real parts of the amplitudes
+     * @param im the imaginary parts of the amplitudes
+     * @param s the index of the stage
+     * @param factor the factor by which the combined amplitudes are multiplied
+     * @param from the first pair of the range, inclusive
+     * @param to the last pair of the range, exclusive
+     */
+    private void stage(double[] re, double[] im, int s, double factor, int from, int to) {
+        int bit = this.bits[s];
+        int half = 1 << s;
+        int stride = (this.cos.length * 2) >>> (s + 1);
+        for (int p = from; p < to; p++) {
+            // the index of the pair with a 0 inserted at the position of the bit
+            int i = ((p & -bit) << 1) | (p & (bit - 1));
+            this.butterfly(re, im, i, i | bit, (this.gather(i) & (half - 1)) * stride, factor);
+        }
+    }
+
+    /**
+     * Combine a pair of amplitudes.
+     * @param re the real parts of the amplitudes
+     * @param im the imaginary parts of the amplitudes
+     * @param i the index of the first amplitude of the pair
+     * @param j the index of the second amplitude of the pair
+     * @param t the index of the twiddle factor by which the second amplitude is multiplied
+     * @param factor the factor by which the combined amplitudes are multiplied
+     */
+    private void butterfly(double[] re, double[] im, int i, int j, int t, double factor) {
+        double wRe = this.cos[t], wIm = this.sin[t];
+        double uRe = re[i], uIm = im[i];
+        double vRe = wRe * re[j] - wIm * im[j];
+        double vIm = wRe * im[j] + wIm * re[j];
+        re[i] = (uRe + vRe) * factor;
+        im[i] = (uIm + vIm) * factor;
+        re[j] = (uRe - vRe) * factor;
+        im[j] = (uIm - vIm) * factor;
+    }
+
+    /**
+     * Get the value x of the selected bits of an index.
+     * @param i the index
+     * @return the value of the selected bits
+     */
+    private int gather(int i) {
+        if (this.shift >= 0)
+            return (i >>> this.shift) & ((1 << this.bits.length) - 1);
+        return this.low[i & ((1 << this.lowBits) - 1)] | this.high[i >>> this.lowBits];
+    }
+
+    /**
+     * Build the lookup table gathering the selected bits from a range of bits of the indexes.
+     * @param from the lowest bit of the range
+     * @param count the number of bits of the range
+     * @return the table giving the gathered value of each value of the range
+     */
+    private int[] gatherTable(int from, int count) {
+        int[] ret = new int[1 << count];
+        for (int j = 0; j < this.bits.length; j++) {
+            int bit = Integer.numberOfTrailingZeros(this.bits[j]) - from;
+            if (bit < 0 || bit >= count)
+                continue;
+            for (int x = 0; x < ret.length; x++)
+                if ((x & (1 << bit)) != 0)
+                    ret[x] |= 1 << j;
+        }
+        return ret;
+    }
+
+    /**
+     * Build the lookup table scattering a range of bits of x to the selected bits of an index.
+     * @param from the lowest bit of x in the range
+     * @param count the number of bits of the range
+     * @return the table giving the scattered bits of each value of the range
+     */
+    private int[] depositTable(int from, int count) {
+        int[] ret = new int[1 << count];
+        for (int x = 0; x < ret.length; x++)
+            for (int j = 0; j < count; j++)
+                if ((x & (1 << j)) != 0)
+                    ret[x] |= this.bits[from + j];
+        return ret;
+    }
+
+    /**
+     * Get the stream of the indexes of the blocks of a loop, which is parallel for large states.
+     * @param length the number of iterations of the loop
+     * @param blockLength the number of iterations of a block, which divides the number of iterations
+     * @return the stream of the block indexes
+     */
+    private IntStream blocks(int length, int blockLength) {
+        IntStream ret = IntStream.range(0, length / blockLength);
+        return Tuning.isParallel(1 << this.size) ? ret.parallel() : ret;
+    }
+
+}
@@ -0,0 +1,214 @@
+package fr.ensibs.quansim;
+
+import java.util.Arrays;
+
+/**
+ * A quantum gate applied on given qbits of a register.
+ *
+ * The first qbit of the gate corresponds to the most significant bit of the gate matrix's indexes, e.g. the
+ * first qbit of a CNOT gate is its control qbit and the second one is its target qbit.
+ */
+public class Gate {
+
+    /**
+     * the name of the gate
+     */
+    private final String name;
+
+    /**
+     * the matrix of the gate
+     */
+    private final ComplexMatrix matrix;
+
+    /**
+     * the indexes of the qbits on which the gate is applied
+     */
+    private final int[] qbitsIdx;
+
+    /**
+     * the matrix of the gate when the qbits are sorted in the order used by QBitRegister.apply
+     */
+    private final ComplexMatrix sortedMatrix;
+
+    /**
+     * Constructor.
+     * @param name the name of the gate
+     * @param matrix the matrix of the gate
+     * @param qbitsIdx the indexes of the qbits on which the gate is applied
+     */
+    public Gate(String name, ComplexMatrix matrix, int... qbitsIdx) {
+        if (name == null)
+            throw new NullPointerException("The name of the gate cannot be null.");
+
+        if (matrix == null)
+            throw new NullPointerException("The quantum gate matrix cannot be null.");
+
+        if (qbitsIdx == null)
+            throw new NullPointerException("The list of qbits indexes cannot be null.");
+
+        if (qbitsIdx.length == 0)
+            throw new IllegalArgumentException("There must be at least 1 selected qubit.");
+
+        if (!matrix.isSquare() || matrix.width() != 1 << qbitsIdx.length)
+            throw new IllegalArgumentException("The given quantic gate is incompatible with the number of qubits.");
+
+        for (int i = 0; i < qbitsIdx.length; i++)
+            for (int j = 0; j < i; j++)
+                if (qbitsIdx[i] == qbitsIdx[j])
+                    throw new IllegalArgumentException("The list of qbit indexes cannot contain duplicates.");
+
+        this.name = name;
+        this.matrix = matrix;
+        this.qbitsIdx = qbitsIdx.clone();
+        this.sortedMatrix = sortedMatrix(matrix, qbitsIdx);
+    }
+
+    /**
+     * Get the name of the gate.
+     * @return the name of the gate
+     */
+    public String name() {
+        return this.name;
+    }
+
+    /**
+     * Get the matrix of the gate.
+     * @return the matrix of the gate
+     */
+    public ComplexMatrix matrix() {
+        return this.matrix;
+    }
+
+    /**
+     * Get the indexes of the qbits on which the gate is applied.
+     * @return a copy of the qbits indexes
+     */
+    public int[] qbits() {
+        return this.qbitsIdx.clone();
+    }
+
+    /**
+     * Get the inverse of the gate, whose matrix is the conjugate transpose of the matrix of the gate.
+     * @return a new gate applied on the same qbits, whose name is the name of the gate followed by "†"
+     */
+    public Gate inverse() {
+        return new Gate(this.name + "†", this.matrix.adjoint(), this.qbitsIdx);
+    }
+
+    /**
+     * Tell if the gate is applied on the given qbit.
+     * @param qbitIdx the index of the qbit
+     * @return true if and only if the gate acts on the qbit
+     */
+    public boolean actsOn(int qbitIdx) {
+        for (int q : this.qbitsIdx)
+            if (q == qbitIdx)
+                return true;
+        return false;
+    }
+
+    /**
+     * Apply the gate on a qbit register.
+     * @param register the qbit register
+     * @return the qbit register after the gate
+     */
+    public QBitRegister applyTo(QBitRegister register) {
+        return (QBitRegister) this.applyTo((QuantumRegister) register);
+    }
+
+    /**
+     * Apply the gate on a register of any implementation.
+     * @param register the register
+     * @return the register after the gate
+     */
+    public QuantumRegister applyTo(QuantumRegister register) {
+        if (register == null)
+            throw new NullPointerException("The qbit register cannot be null.");
+
+        if (!Profiler.isEnabled())
+            return this.applyUnnamed(register);
+
+        // the register only sees the matrix, so the name of the gate is handed over to the profiler
+        Profiler.nameGates(this.name);
+        try {
+            return this.applyUnnamed(register);
+        } finally {
+            Profiler.nameGates(null);
+        }
+    }
+
+    /**
+     * Apply the gate on a register of any implementation, without handing its name over to the profiler.
+     * @param register the register
+     * @return the register after the gate
+     */
+    private QuantumRegister applyUnnamed(QuantumRegister register) {
+        if (this.qbitsIdx.length == 1)
+            return register.apply(this.matrix, this.qbitsIdx[0]);
+
+        int[] sorted = this.qbitsIdx.clone();
+        Arrays.sort(sorted);
+        return register.apply(this.sortedMatrix, sorted);
+    }
+
+    /**
+     * Get the matrix of a gate when its qbits are sorted in ascending order, i.e. when the most significant
+     * bit of the matrix's indexes corresponds to the highest qbit.
+     * @param matrix the matrix of the gate
+     * @param qbitsIdx the indexes of the qbits on which the gate is applied
+     * @return the reordered matrix of the gate
+     */
+    private static ComplexMatrix sortedMatrix(ComplexMatrix matrix, int[] qbitsIdx) {
+        int k = qbitsIdx.length;
+        boolean descending = true;
+        for (int i = 1; i < k; i++)
+            if (qbitsIdx[i - 1] < qbitsIdx[i])
+                descending = false;
+        if (descending)
+            return matrix;
+
+        // position of each qbit of the gate once the qbits are sorted
+        int[] positions = new int[k];
+        for (int p = 0; p < k; p++)
+            for (int q : qbitsIdx)
+                if (q < qbitsIdx[p])
+                    positions[p]++;
+
+        int dim = 1 << k;
+        int[] permutation = new int[dim];
+        for (int s = 0; s < dim; s++)
+            for (int p = 0; p < k; p++)
+                if ((s & (1 << positions[p])) != 0)
+                    permutation[s] |= 1 << (k - 1 - p);
+
+        ComplexMatrix ret = new ComplexMatrix(dim, dim);
+        for (int y = 0; y < dim; y++)
+            for (int x = 0; x < dim; x++)
+                ret.setCell(x, y, matrix.getRe(permutation[x], permutation[y]),
+                        matrix.getIm(permutation[x], permutation[y]));
+        return ret;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Gate)) return false;
+        Gate gate = (Gate) o;
+        return Arrays.equals(this.qbitsIdx, gate.qbitsIdx) && this.matrix.equals(gate.matrix);
+    }
+
+    @Override
+    public int hashCode() {
+        // the matrices are compared up to a threshold, so only the qbits are hashed
+        return Arrays.hashCode(this.qbitsIdx);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(this.name);
+        for (int i = 0; i < this.qbitsIdx.length; i++)
+            builder.append(i == 0 ? " " : ", ").append(this.qbitsIdx[i]);
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,58 @@
+package fr.ensibs.quansim;
+
+/**
+ * The loops applying the most common kinds of gates on the amplitudes of a qbit register.
+ *
+ * A gate matrix g is given as the array {g00re, g00im, g01re, g01im, g10re, g10im, g11re, g11im}, where gyx is
+ * the cell at the x column and y row of the matrix. The qbit on which a gate is applied is given by its offset,
+ * i.e. 2 to the power of its index.
+ */
+interface GateKernels {
+
+    /**
+     * Apply a 2x2 gate on a qbit.
+     * @param re the real parts of the amplitudes
+     * @param im the imaginary parts of the amplitudes
+     * @param offset the offset of the target qbit
+     * @param g the gate matrix
+     */
+    void apply(double[] re, double[] im, int offset, double[] g);
+
+    /**
+     * Apply a 2x2 gate on a qbit, only on the basic states where all the control qbits are 1.
+     * @param re the real parts of the amplitudes
+     * @param im the imaginary parts of the amplitudes
+     * @param controlMask the mask of the control qbits
+     * @param offset the offset of the target qbit
+     * @param g the gate matrix
+     */
+    void applyControlled(double[] re, double[] im, int controlMask, int offset, double[] g);
+
+    /**
+     * Apply a diagonal 2x2 gate on a qbit.
+     * @param re the real parts of the amplitudes
+     * @param im the imaginary parts of the amplitudes
+     * @param offset the offset of the target qbit
+     * @param d the diagonal of the gate matrix, as {d0re, d0im, d1re, d1im}
+     */
+    void applyDiagonal(double[] re, double[] im, int offset, double[] d);
+
+    /**
+     * Get the kernels to use in the running JVM: the vectorized kernels when they have been built and the
+     * jdk.incubator.vector module is available, unless the "quansim.kernels" system property is "scalar",
+     * and the scalar kernels otherwise.
+     * @return the gate kernels
+     */
+    static GateKernels load() {
+        if (!"scalar".equals(System.getProperty("quansim.kernels"))) {
+            try {
+                Class<?> c = Class.forName("fr.ensibs.quansim.VectorGateKernels");
+                return (GateKernels) c.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // the vectorized kernels are not built or not supported by the JVM
+            }
+        }
+        return new ScalarGateKernels();
+    }
+
+}
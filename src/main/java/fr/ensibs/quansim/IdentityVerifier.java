@@ -0,0 +1,275 @@
+package fr.ensibs.quansim;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * A harness verifying that two gate sequences have the same effect, by comparing the exact states they produce
+ * from the same initial register instead of sampling them.
+ *
+ * Two sequences are equivalent on an initial register if the fidelity between the resulting states is 1 and
+ * their probability vectors are equal, up to a tolerance. The cases are verified in parallel.
+ */
+public class IdentityVerifier {
+
+    /**
+     * A verification case: two gate sequences expected to have the same effect on an initial register.
+     */
+    public static final class Case {
+
+        /**
+         * the name of the case
+         */
+        private final String name;
+
+        /**
+         * the initial register, which is left unchanged
+         */
+        private final QBitRegister initial;
+
+        /**
+         * the first gate sequence
+         */
+        private final Gate[] left;
+
+        /**
+         * the second gate sequence
+         */
+        private final Gate[] right;
+
+        /**
+         * Constructor.
+         * @param name the name of the case
+         * @param initial the initial register, which is left unchanged
+         * @param left the first gate sequence
+         * @param right the second gate sequence, which may be empty for the identity
+         */
+        public Case(String name, QBitRegister initial, Gate[] left, Gate[] right) {
+            if (name == null)
+                throw new NullPointerException("The name of the case cannot be null.");
+
+            if (initial == null)
+                throw new NullPointerException("The initial register cannot be null.");
+
+            if (left == null || right == null)
+                throw new NullPointerException("The gate sequences cannot be null.");
+
+            this.name = name;
+            this.initial = initial;
+            this.left = left.clone();
+            this.right = right.clone();
+        }
+
+        /**
+         * Get the name of the case.
+         * @return the name of the case
+         */
+        public String name() {
+            return this.name;
+        }
+
+        @Override
+        public String toString() {
+            return this.name;
+        }
+
+    }
+
+    /**
+     * The result of the verification of a case.
+     */
+    public static final class Result {
+
+        /**
+         * the verified case
+         */
+        private final Case verifiedCase;
+
+        /**
+         * the fidelity between the states produced by the two sequences
+         */
+        private final double fidelity;
+
+        /**
+         * the largest difference between the probabilities of a basic state in the two states
+         */
+        private final double probabilityError;
+
+        /**
+         * true if the two sequences are equivalent on the initial register
+         */
+        private final boolean passed;
+
+        /**
+         * Constructor.
+         * @param verifiedCase the verified case
+         * @param fidelity the fidelity between the states produced by the two sequences
+         * @param probabilityError the largest difference between the probabilities of a basic state
+         * @param passed true if the two sequences are equivalent on the initial register
+         */
+        private Result(Case verifiedCase, double fidelity, double probabilityError, boolean passed) {
+            this.verifiedCase = verifiedCase;
+            this.fidelity = fidelity;
+            this.probabilityError = probabilityError;
+            this.passed = passed;
+        }
+
+        /**
+         * Get the verified case.
+         * @return the verified case
+         */
+        public Case verifiedCase() {
+            return this.verifiedCase;
+        }
+
+        /**
+         * Get the fidelity between the states produced by the two sequences.
+         * @return the fidelity, between 0 and 1
+         */
+        public double fidelity() {
+            return this.fidelity;
+        }
+
+        /**
+         * Get the largest difference between the probabilities of a basic state in the two states.
+         * @return the probability error
+         */
+        public double probabilityError() {
+            return this.probabilityError;
+        }
+
+        /**
+         * Tell if the two sequences are equivalent on the initial register.
+         * @return true if and only if the verification succeeded
+         */
+        public boolean passed() {
+            return this.passed;
+        }
+
+        @Override
+        public String toString() {
+            return this.verifiedCase + ": " + (this.passed ? "passed" : "failed") + " (fidelity " + this.fidelity
+                    + ", probability error " + this.probabilityError + ")";
+        }
+
+    }
+
+    /**
+     * default tolerance on the fidelity and the probabilities
+     */
+    public static final double DEFAULT_TOLERANCE = 1e-9;
+
+    /**
+     * the tolerance on the fidelity and the probabilities
+     */
+    private final double tolerance;
+
+    /**
+     * Constructor with the default tolerance.
+     */
+    public IdentityVerifier() {
+        this(DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * Constructor.
+     * @param tolerance the tolerance on the fidelity and the probabilities
+     */
+    public IdentityVerifier(double tolerance) {
+        if (tolerance < 0)
+            throw new IllegalArgumentException("The tolerance cannot be negative.");
+
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Verify a case.
+     * @param verifiedCase the case
+     * @return the result of the verification
+     */
+    public Result verify(Case verifiedCase) {
+        if (verifiedCase == null)
+            throw new NullPointerException("The case cannot be null.");
+
+        QBitRegister left = verifiedCase.initial.copy();
+        for (Gate gate : verifiedCase.left)
+            gate.applyTo(left);
+        QBitRegister right = verifiedCase.initial.copy();
+        for (Gate gate : verifiedCase.right)
+            gate.applyTo(right);
+
+        double fidelity = fidelity(left, right);
+        double probabilityError = probabilityError(left, right);
+        boolean passed = fidelity >= 1 - this.tolerance && probabilityError <= this.tolerance;
+        return new Result(verifiedCase, fidelity, probabilityError, passed);
+    }
+
+    /**
+     * Verify several cases in parallel.
+     * @param cases the cases
+     * @return the results of the verifications, in the order of the cases
+     */
+    public List<Result> verifyAll(List<Case> cases) {
+        if (cases == null)
+            throw new NullPointerException("The list of cases cannot be null.");
+
+        return cases.parallelStream().map(this::verify).collect(Collectors.toList());
+    }
+
+    /**
+     * Compute the fidelity between the states of two registers of the same size, i.e. the square modulus of
+     * their inner product.
+     * @param r1 the first register
+     * @param r2 the second register
+     * @return the fidelity, between 0 and 1 for normalized states
+     */
+    public static double fidelity(QBitRegister r1, QBitRegister r2) {
+        return r1.fidelity(r2);
+    }
+
+    /**
+     * Compute the largest difference between the probabilities of a basic state in two registers.
+     * @param r1 the first register
+     * @param r2 the second register
+     * @return the largest probability difference
+     */
+    public static double probabilityError(QBitRegister r1, QBitRegister r2) {
+        double[] re1 = r1.realParts(), im1 = r1.imaginaryParts();
+        double[] re2 = r2.realParts(), im2 = r2.imaginaryParts();
+        if (re1.length != re2.length)
+            throw new IllegalArgumentException("The registers must have the same size.");
+
+        double ret = 0;
+        for (int i = 0; i < re1.length; i++)
+            ret = Math.max(ret, Math.abs(re1[i] * re1[i] + im1[i] * im1[i] - re2[i] * re2[i] - im2[i] * im2[i]));
+        return ret;
+    }
+
+    /**
+     * Create a register with a random normalized state, whose amplitudes are drawn from a normal distribution.
+     * @param n the number of qbits
+     * @param random the random generator
+     * @return the random register
+     */
+    public static QBitRegister randomRegister(int n, Random random) {
+        if (n <= 0 || n > 30)
+            throw new IllegalArgumentException("The number of qbits in the register must be between 1 and 30.");
+
+        double[] re = new double[1 << n];
+        double[] im = new double[1 << n];
+        double norm = 0;
+        for (int i = 0; i < re.length; i++) {
+            re[i] = random.nextGaussian();
+            im[i] = random.nextGaussian();
+            norm += re[i] * re[i] + im[i] * im[i];
+        }
+        double factor = 1 / Math.sqrt(norm);
+        for (int i = 0; i < re.length; i++) {
+            re[i] *= factor;
+            im[i] *= factor;
+        }
+        return new QBitRegister(re, im);
+    }
+
+}
@@ -0,0 +1,17 @@
+package fr.ensibs.quansim;
+
+/**
+ * An operation receiving the amplitudes of a qbit register one by one, as primitive values.
+ */
+@FunctionalInterface
+public interface IndexedAmplitudeConsumer {
+
+    /**
+     * Receive an amplitude.
+     * @param basicState the decimal representation of the basic state of the amplitude
+     * @param re the real part of the amplitude
+     * @param im the imaginary part of the amplitude
+     */
+    void accept(int basicState, double re, double im);
+
+}
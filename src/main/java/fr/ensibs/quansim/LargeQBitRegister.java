@@ -0,0 +1,543 @@
+package fr.ensibs.quansim;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+import java.util.function.LongToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * A qbit register whose state is stored in chunks of amplitudes addressed by long indexes, so that it can hold
+ * more than the 2^30 amplitudes of a single array, e.g. from 31 to 34 qbits on hosts with enough memory.
+ *
+ * The lowest qbits address the amplitudes inside a chunk and the highest ones select the chunk. A gate on a low
+ * qbit is applied on each chunk independently with the usual kernels, whereas a gate on a high qbit pairs the
+ * amplitudes at the same position of two chunks. The chunks are processed in parallel.
+ *
+ * Oracles and phases defined by a function of the basic states, as well as the Grover diffusion, are applied
+ * in one sweep of the chunks.
+ */
+public class LargeQBitRegister implements QuantumRegister {
+
+    /**
+     * the kernels applying the common kinds of gates inside a chunk
+     */
+    private static final GateKernels KERNELS = GateKernels.load();
+
+    /**
+     * maximal number of qbits addressing the amplitudes inside a chunk
+     */
+    private static final int CHUNK_BITS = 22;
+
+    /**
+     * the number of qbits
+     */
+    private final int size;
+
+    /**
+     * the number of qbits addressing the amplitudes inside a chunk
+     */
+    private final int chunkBits;
+
+    /**
+     * the real parts of the state of the qbit register, by chunk
+     */
+    private final double[][] re;
+
+    /**
+     * the imaginary parts of the state of the qbit register, by chunk
+     */
+    private final double[][] im;
+
+    /**
+     * Constructor.
+     * @param n the number of qbits
+     */
+    public LargeQBitRegister(int n) {
+        if (n <= 0)
+            throw new IllegalArgumentException("The number of qbits in the register must be positive.");
+
+        if (n > CHUNK_BITS + 30)
+            throw new IllegalArgumentException("The number of qbits in the register cannot exceed " + (CHUNK_BITS + 30) + ".");
+
+        this.size = n;
+        this.chunkBits = Math.min(n, CHUNK_BITS);
+        this.re = new double[1 << (n - this.chunkBits)][1 << this.chunkBits];
+        this.im = new double[this.re.length][1 << this.chunkBits];
+        this.re[0][0] = 1;
+    }
+
+    /**
+     * Constructor copying the state of a qbit register.
+     * @param register the qbit register
+     */
+    public LargeQBitRegister(QBitRegister register) {
+        this(register.size());
+        double[] re = register.realParts();
+        double[] im = register.imaginaryParts();
+        int chunkLength = 1 << this.chunkBits;
+        for (int c = 0; c < this.re.length; c++) {
+            System.arraycopy(re, c * chunkLength, this.re[c], 0, chunkLength);
+            System.arraycopy(im, c * chunkLength, this.im[c], 0, chunkLength);
+        }
+    }
+
+    /**
+     * Copy constructor.
+     * @param register the register to copy
+     */
+    private LargeQBitRegister(LargeQBitRegister register) {
+        this.size = register.size;
+        this.chunkBits = register.chunkBits;
+        this.re = new double[register.re.length][];
+        this.im = new double[register.im.length][];
+        for (int c = 0; c < this.re.length; c++) {
+            this.re[c] = register.re[c].clone();
+            this.im[c] = register.im[c].clone();
+        }
+    }
+
+    /**
+     * Get the number of qbits in the register.
+     * @return the size of the register
+     */
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Get the number of amplitudes of the state of the register.
+     * @return 2 to the power of the size of the register
+     */
+    public long length() {
+        return 1L << this.size;
+    }
+
+    /**
+     * Give the probability to draw the given basic state.
+     * @param basicState the decimal representation of the basic state (e.g. 3 = b011 in a 3 qbits register)
+     * @return the corresponding probability
+     */
+    @Override
+    public double proba(int basicState) {
+        return this.proba((long) basicState);
+    }
+
+    /**
+     * Give the probability to draw the given basic state.
+     * @param basicState the decimal representation of the basic state (e.g. 3 = b011 in a 3 qbits register)
+     * @return the corresponding probability
+     */
+    public double proba(long basicState) {
+        if (basicState < 0 || basicState >= this.length())
+            throw new IndexOutOfBoundsException("The basic state is out of bounds.");
+
+        int c = (int) (basicState >>> this.chunkBits);
+        int i = (int) (basicState & ((1 << this.chunkBits) - 1));
+        return this.re[c][i] * this.re[c][i] + this.im[c][i] * this.im[c][i];
+    }
+
+    /**
+     * Apply a nxn quantic gate on one or several qbits of the register.
+     * @param qg the quantic gate matrix
+     * @param qbitsIdx the indexes of the qbits in the register
+     * @return the qbit register after the quantic gate
+     */
+    @Override
+    public LargeQBitRegister apply(ComplexMatrix qg, int... qbitsIdx) {
+        if (qg == null)
+            throw new NullPointerException("The quantum gate matrix cannot be null.");
+
+        if (qbitsIdx == null)
+            throw new NullPointerException("The list of qbits indexes cannot be null.");
+
+        if (qbitsIdx.length == 0)
+            throw new IllegalArgumentException("There must be at least 1 selected qubit.");
+
+        if (!qg.isSquare() || qbitsIdx.length >= 31 || qbitsIdx.length > this.size
+                || qg.width() != 1 << qbitsIdx.length)
+            throw new IllegalArgumentException("The given quantic gate is incompatible with the number of qubits.");
+
+        int[] sorted = qbitsIdx.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < sorted.length; i++)
+            if (sorted[i] < 0 || sorted[i] >= this.size)
+                throw new IndexOutOfBoundsException("One of the qbit indexes is out of bounds.");
+            else if (i > 0 && sorted[i - 1] == sorted[i])
+                throw new IllegalArgumentException("The list of qbit indexes cannot contain duplicates.");
+
+        Profiler.Span span = Profiler.startGate();
+        int dim = qg.width();
+        double[] gRe = new double[dim * dim];
+        double[] gIm = new double[dim * dim];
+        for (int y = 0; y < dim; y++) {
+            for (int x = 0; x < dim; x++) {
+                gRe[y * dim + x] = qg.getRe(x, y);
+                gIm[y * dim + x] = qg.getIm(x, y);
+            }
+        }
+
+        if (dim == 2)
+            this.applyControlled(-1, sorted[0], new double[]{gRe[0], gIm[0], gRe[1], gIm[1], gRe[2], gIm[2], gRe[3], gIm[3]});
+        else if (dim != 4 || !(this.applyControlled(gRe, gIm, sorted, 1) || this.applyControlled(gRe, gIm, sorted, 0)))
+            this.applyGeneric(gRe, gIm, sorted);
+        if (span != null)
+            span.endGate(qg, qbitsIdx, this.length());
+        return this;
+    }
+
+    /**
+     * Apply a 2 qbits gate as a controlled 2x2 gate if it has this form.
+     * @param gRe the real parts of the 4x4 gate matrix, row by row
+     * @param gIm the imaginary parts of the 4x4 gate matrix, row by row
+     * @param qbitsIdx the 2 sorted qbits of the gate
+     * @param control the position of the control qbit in the indexes of the gate matrix (0 or 1)
+     * @return true if the gate has been applied, false if it is not a controlled gate with this control qbit
+     */
+    private boolean applyControlled(double[] gRe, double[] gIm, int[] qbitsIdx, int control) {
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                if ((x & (1 << control)) != 0 && (y & (1 << control)) != 0) continue;
+                if (gRe[4 * y + x] != (x == y ? 1 : 0) || gIm[4 * y + x] != 0)
+                    return false;
+            }
+        }
+        int a0 = 1 << control;
+        int a1 = a0 | (1 << (1 - control));
+        double[] g = {gRe[4 * a0 + a0], gIm[4 * a0 + a0], gRe[4 * a0 + a1], gIm[4 * a0 + a1],
+                gRe[4 * a1 + a0], gIm[4 * a1 + a0], gRe[4 * a1 + a1], gIm[4 * a1 + a1]};
+        this.applyControlled(qbitsIdx[control], qbitsIdx[1 - control], g);
+        return true;
+    }
+
+    /**
+     * Apply a 2x2 gate on a qbit, only on the basic states where the control qbit is 1.
+     * @param control the index of the control qbit, or -1 to apply the gate on all the basic states
+     * @param target the index of the target qbit
+     * @param g the gate matrix, as {g00re, g00im, g01re, g01im, g10re, g10im, g11re, g11im}
+     */
+    private void applyControlled(int control, int target, double[] g) {
+        // the control qbit either selects chunks or positions inside the chunks
+        int chunkControl = control >= this.chunkBits ? 1 << (control - this.chunkBits) : 0;
+        int localControl = control >= 0 && control < this.chunkBits ? 1 << control : 0;
+        if (target < this.chunkBits) {
+            int offset = 1 << target;
+            IntStream.range(0, this.re.length).parallel()
+                    .filter(c -> (c & chunkControl) == chunkControl)
+                    .forEach(c -> {
+                        if (localControl != 0)
+                            KERNELS.applyControlled(this.re[c], this.im[c], localControl, offset, g);
+                        else KERNELS.apply(this.re[c], this.im[c], offset, g);
+                    });
+        } else {
+            int chunkOffset = 1 << (target - this.chunkBits);
+            IntStream.range(0, this.re.length).parallel()
+                    .filter(c -> (c & chunkOffset) == 0 && (c & chunkControl) == chunkControl)
+                    .forEach(c -> this.applyAcross(c, c | chunkOffset, localControl, g));
+        }
+    }
+
+    /**
+     * Apply a 2x2 gate on a high qbit, pairing the amplitudes at the same position of two chunks.
+     * @param c0 the chunk where the target qbit is 0
+     * @param c1 the chunk where the target qbit is 1
+     * @param localControl the mask of the control qbit inside the chunks, or 0 if there is no such qbit
+     * @param g the gate matrix
+     */
+    private void applyAcross(int c0, int c1, int localControl, double[] g) {
+        double[] re0 = this.re[c0], im0 = this.im[c0], re1 = this.re[c1], im1 = this.im[c1];
+        for (int i = 0; i < re0.length; i++) {
+            if ((i & localControl) != localControl) continue;
+            double aRe = re0[i], aIm = im0[i], bRe = re1[i], bIm = im1[i];
+            re0[i] = g[0] * aRe - g[1] * aIm + g[2] * bRe - g[3] * bIm;
+            im0[i] = g[0] * aIm + g[1] * aRe + g[2] * bIm + g[3] * bRe;
+            re1[i] = g[4] * aRe - g[5] * aIm + g[6] * bRe - g[7] * bIm;
+            im1[i] = g[4] * aIm + g[5] * aRe + g[6] * bIm + g[7] * bRe;
+        }
+    }
+
+    /**
+     * Apply any gate by gathering the sub-vectors of the selected qbits, one sub-vector at a time.
+     * @param gRe the real parts of the gate matrix, row by row
+     * @param gIm the imaginary parts of the gate matrix, row by row
+     * @param qbitsIdx the sorted qbits of the gate, the j-th bit of the matrix's indexes corresponding to the
+     *                 j-th qbit
+     */
+    private void applyGeneric(double[] gRe, double[] gIm, int[] qbitsIdx) {
+        int dim = 1 << qbitsIdx.length;
+        long[] offsets = new long[dim];
+        long mask = 0;
+        for (int j = 0; j < qbitsIdx.length; j++)
+            mask |= 1L << qbitsIdx[j];
+        for (int i = 0; i < dim; i++)
+            for (int j = 0; j < qbitsIdx.length; j++)
+                if ((i & (1 << j)) != 0)
+                    offsets[i] |= 1L << qbitsIdx[j];
+
+        long selected = mask;
+        long free = this.length() >>> qbitsIdx.length;
+        IntStream.range(0, (int) Math.min(free, this.re.length)).parallel().forEach(part -> {
+            double[] vRe = new double[dim];
+            double[] vIm = new double[dim];
+            long perPart = free / Math.min(free, this.re.length);
+            for (long s = part * perPart; s < (part + 1) * perPart; s++) {
+                // deposit the bits of s in the positions of the unselected qbits
+                long start = 0;
+                long bits = s;
+                for (int q = 0; q < this.size && bits != 0; q++) {
+                    if ((selected & (1L << q)) != 0) continue;
+                    if ((bits & 1) != 0)
+                        start |= 1L << q;
+                    bits >>>= 1;
+                }
+                for (int j = 0; j < dim; j++) {
+                    long idx = start + offsets[j];
+                    vRe[j] = this.re[(int) (idx >>> this.chunkBits)][(int) (idx & ((1 << this.chunkBits) - 1))];
+                    vIm[j] = this.im[(int) (idx >>> this.chunkBits)][(int) (idx & ((1 << this.chunkBits) - 1))];
+                }
+                for (int y = 0; y < dim; y++) {
+                    double sumRe = 0, sumIm = 0;
+                    for (int x = 0; x < dim; x++) {
+                        double cRe = gRe[y * dim + x], cIm = gIm[y * dim + x];
+                        sumRe += cRe * vRe[x] - cIm * vIm[x];
+                        sumIm += cRe * vIm[x] + cIm * vRe[x];
+                    }
+                    long idx = start + offsets[y];
+                    this.re[(int) (idx >>> this.chunkBits)][(int) (idx & ((1 << this.chunkBits) - 1))] = sumRe;
+                    this.im[(int) (idx >>> this.chunkBits)][(int) (idx & ((1 << this.chunkBits) - 1))] = sumIm;
+                }
+            }
+        });
+    }
+
+    /**
+     * Apply an oracle flipping the sign of the coordinates of the basic states it marks, in a single sweep.
+     * The predicate is called in parallel from several threads.
+     * @param marked the predicate telling if a basic state is marked
+     * @return the qbit register after the oracle
+     */
+    public LargeQBitRegister applyOracle(LongPredicate marked) {
+        if (marked == null)
+            throw new NullPointerException("The oracle predicate cannot be null.");
+
+        Profiler.Span span = Profiler.startGate();
+        IntStream.range(0, this.re.length).parallel().forEach(c -> {
+            double[] re = this.re[c], im = this.im[c];
+            long start = (long) c << this.chunkBits;
+            for (int i = 0; i < re.length; i++) {
+                if (marked.test(start | i)) {
+                    re[i] = -re[i];
+                    im[i] = -im[i];
+                }
+            }
+        });
+        if (span != null)
+            span.endGate("ORACLE", this.qbits(), this.length());
+        return this;
+    }
+
+    /**
+     * Apply a phase oracle multiplying the coordinate of each basic state x by exp(i phase(x)), in a single
+     * sweep. The function is called in parallel from several threads.
+     * @param phase the function giving the phase of each basic state, in radians
+     * @return the qbit register after the phase oracle
+     */
+    public LargeQBitRegister applyPhase(LongToDoubleFunction phase) {
+        if (phase == null)
+            throw new NullPointerException("The phase function cannot be null.");
+
+        Profiler.Span span = Profiler.startGate();
+        IntStream.range(0, this.re.length).parallel().forEach(c -> {
+            double[] re = this.re[c], im = this.im[c];
+            long start = (long) c << this.chunkBits;
+            for (int i = 0; i < re.length; i++) {
+                double theta = phase.applyAsDouble(start | i);
+                if (theta == 0) continue;
+                double cos = Math.cos(theta), sin = Math.sin(theta);
+                double tmp = re[i];
+                re[i] = cos * tmp - sin * im[i];
+                im[i] = cos * im[i] + sin * tmp;
+            }
+        });
+        if (span != null)
+            span.endGate("PHASE_ORACLE", this.qbits(), this.length());
+        return this;
+    }
+
+    /**
+     * Apply the Grover diffusion operator 2|s><s| - I on the whole register, |s> being the uniform
+     * superposition: each coordinate a becomes 2m - a, m being the mean of the coordinates.
+     * @return the qbit register after the diffusion
+     */
+    public LargeQBitRegister applyDiffusion() {
+        return this.groverIteration(i -> false);
+    }
+
+    /**
+     * Apply a Grover iteration, i.e. an oracle followed by the diffusion operator, in two sweeps of the state:
+     * the first one computes the mean of the coordinates after the oracle and the second one applies both the
+     * oracle and the diffusion. The predicate is called in parallel from several threads.
+     * @param marked the predicate telling if a basic state is marked by the oracle
+     * @return the qbit register after the Grover iteration
+     */
+    public LargeQBitRegister groverIteration(LongPredicate marked) {
+        if (marked == null)
+            throw new NullPointerException("The oracle predicate cannot be null.");
+
+        Profiler.Span span = Profiler.startGate();
+        Complex sum = QBitRegister.sumBlocks(IntStream.range(0, this.re.length).parallel(), this.re.length, c -> {
+            double[] re = this.re[c], im = this.im[c];
+            long start = (long) c << this.chunkBits;
+            double sumRe = 0, sumIm = 0;
+            for (int i = 0; i < re.length; i++) {
+                if (marked.test(start | i)) {
+                    sumRe -= re[i];
+                    sumIm -= im[i];
+                } else {
+                    sumRe += re[i];
+                    sumIm += im[i];
+                }
+            }
+            return new Complex(sumRe, sumIm);
+        });
+        double twiceMeanRe = 2 * sum.getRe() / this.length();
+        double twiceMeanIm = 2 * sum.getIm() / this.length();
+        IntStream.range(0, this.re.length).parallel().forEach(c -> {
+            double[] re = this.re[c], im = this.im[c];
+            long start = (long) c << this.chunkBits;
+            for (int i = 0; i < re.length; i++) {
+                if (marked.test(start | i)) {
+                    re[i] += twiceMeanRe;
+                    im[i] += twiceMeanIm;
+                } else {
+                    re[i] = twiceMeanRe - re[i];
+                    im[i] = twiceMeanIm - im[i];
+                }
+            }
+        });
+        if (span != null)
+            span.endGate("GROVER", this.qbits(), 2 * this.length());
+        return this;
+    }
+
+    /**
+     * Measure a single qbit of the register and collapse the state according to the result.
+     * @param qbitIdx the index of the qbit in the register
+     * @return true if the measured bit was 1, false otherwise
+     */
+    @Override
+    public boolean measure(int qbitIdx) {
+        if (qbitIdx < 0 || qbitIdx >= this.size)
+            throw new IndexOutOfBoundsException("The qbit index is out of bounds.");
+
+        Profiler.Span span = Profiler.startMeasurement();
+        int chunkBit = qbitIdx >= this.chunkBits ? 1 << (qbitIdx - this.chunkBits) : 0;
+        int localBit = qbitIdx < this.chunkBits ? 1 << qbitIdx : 0;
+        double p1 = IntStream.range(0, this.re.length).parallel()
+                .filter(c -> (c & chunkBit) == chunkBit)
+                .mapToDouble(c -> {
+                    double sum = 0;
+                    for (int i = 0; i < this.re[c].length; i++)
+                        if ((i & localBit) == localBit)
+                            sum += this.re[c][i] * this.re[c][i] + this.im[c][i] * this.im[c][i];
+                    return sum;
+                }).sum();
+
+        boolean bitIs1 = Math.random() < p1;
+        // the coordinates of the drawn outcome are renormalized, the other ones become 0
+        double factor = 1 / Math.sqrt(bitIs1 ? p1 : 1 - p1);
+        IntStream.range(0, this.re.length).parallel().forEach(c -> {
+            for (int i = 0; i < this.re[c].length; i++) {
+                boolean is1 = chunkBit != 0 ? (c & chunkBit) != 0 : (i & localBit) != 0;
+                if (is1 == bitIs1) {
+                    this.re[c][i] *= factor;
+                    this.im[c][i] *= factor;
+                } else {
+                    this.re[c][i] = 0;
+                    this.im[c][i] = 0;
+                }
+            }
+        });
+        if (span != null)
+            span.endMeasurement(new int[]{qbitIdx}, this.length());
+        return bitIs1;
+    }
+
+    /**
+     * Draw values randomly for the qbits of the register according to their associated probabilities.
+     * @return an array of booleans, which are equal to true if the drawn bit was 1, and false otherwise
+     */
+    @Override
+    public boolean[] randomDraw() {
+        long drawnState = this.randomDrawState();
+        boolean[] ret = new boolean[this.size];
+        for (int i = 0; i < this.size; i++)
+            ret[this.size - 1 - i] = (drawnState & (1L << i)) != 0;
+        return ret;
+    }
+
+    /**
+     * Draw a basic state randomly according to the probabilities and collapse the register on it.
+     * @return the decimal representation of the drawn basic state
+     */
+    public long randomDrawState() {
+        Profiler.Span span = Profiler.startMeasurement();
+        double[] norms = IntStream.range(0, this.re.length).parallel()
+                .mapToDouble(c -> {
+                    double sum = 0;
+                    for (int i = 0; i < this.re[c].length; i++)
+                        sum += this.re[c][i] * this.re[c][i] + this.im[c][i] * this.im[c][i];
+                    return sum;
+                }).toArray();
+
+        // the chunk of the drawn state is found from the norms of the chunks, then the state in this chunk
+        double drawnValue = Math.random();
+        double accumulator = 0;
+        int chunk = norms.length - 1;
+        for (int c = 0; c < norms.length; c++) {
+            if (drawnValue <= accumulator + norms[c]) {
+                chunk = c;
+                break;
+            }
+            accumulator += norms[c];
+        }
+        int drawnIdx = this.re[chunk].length - 1;
+        for (int i = 0; i < this.re[chunk].length; i++) {
+            accumulator += this.re[chunk][i] * this.re[chunk][i] + this.im[chunk][i] * this.im[chunk][i];
+            if (drawnValue <= accumulator) {
+                drawnIdx = i;
+                break;
+            }
+        }
+
+        IntStream.range(0, this.re.length).parallel().forEach(c -> {
+            Arrays.fill(this.re[c], 0);
+            Arrays.fill(this.im[c], 0);
+        });
+        this.re[chunk][drawnIdx] = 1;
+        if (span != null)
+            span.endMeasurement(this.qbits(), this.length());
+        return ((long) chunk << this.chunkBits) | drawnIdx;
+    }
+
+    /**
+     * Get the indexes of all the qbits of the register.
+     * @return the array of the qbit indexes, in increasing order
+     */
+    private int[] qbits() {
+        int[] ret = new int[this.size];
+        for (int i = 0; i < ret.length; i++)
+            ret[i] = i;
+        return ret;
+    }
+
+    /**
+     * Create a deep copy of the qbit register, even though it is physically impossible.
+     * @return a copy of the qbit register
+     */
+    @Override
+    public LargeQBitRegister copy() {
+        return new LargeQBitRegister(this);
+    }
+
+}
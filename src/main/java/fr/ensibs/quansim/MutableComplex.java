@@ -0,0 +1,181 @@
+package fr.ensibs.quansim;
+
+/**
+ * A mutable complex number, used as an accumulator: its operations modify it and return it instead of
+ * allocating a new complex number.
+ */
+public class MutableComplex {
+
+    /**
+     * the real part of the complex number
+     */
+    private double re;
+
+    /**
+     * the imaginary part of the complex number
+     */
+    private double im;
+
+    /**
+     * Constructor of the complex number 0.
+     */
+    public MutableComplex() {
+        this(0, 0);
+    }
+
+    /**
+     * Constructor.
+     * @param re the real part of the complex number
+     * @param im the imaginary part of the complex number
+     */
+    public MutableComplex(double re, double im) {
+        this.re = re;
+        this.im = im;
+    }
+
+    /**
+     * Constructor.
+     * @param c the initial value of the complex number
+     */
+    public MutableComplex(Complex c) {
+        this(c.getRe(), c.getIm());
+    }
+
+    /**
+     * Set the value of the complex number.
+     * @param re the real part
+     * @param im the imaginary part
+     * @return the complex number
+     */
+    public MutableComplex set(double re, double im) {
+        this.re = re;
+        this.im = im;
+        return this;
+    }
+
+    /**
+     * Set the value of the complex number.
+     * @param c the new value
+     * @return the complex number
+     */
+    public MutableComplex set(Complex c) {
+        return this.set(c.getRe(), c.getIm());
+    }
+
+    /**
+     * Add another complex number to the complex number.
+     * @param c the other complex number
+     * @return the complex number
+     */
+    public MutableComplex plus(Complex c) {
+        return this.plus(c.getRe(), c.getIm());
+    }
+
+    /**
+     * Add another complex number, given by its parts, to the complex number.
+     * @param re the real part of the other complex number
+     * @param im the imaginary part of the other complex number
+     * @return the complex number
+     */
+    public MutableComplex plus(double re, double im) {
+        this.re += re;
+        this.im += im;
+        return this;
+    }
+
+    /**
+     * Subtract another complex number from the complex number.
+     * @param c the other complex number
+     * @return the complex number
+     */
+    public MutableComplex minus(Complex c) {
+        this.re -= c.getRe();
+        this.im -= c.getIm();
+        return this;
+    }
+
+    /**
+     * Multiply the complex number with another one.
+     * @param c the other complex number
+     * @return the complex number
+     */
+    public MutableComplex times(Complex c) {
+        double re = this.re * c.getRe() - this.im * c.getIm();
+        this.im = this.re * c.getIm() + this.im * c.getRe();
+        this.re = re;
+        return this;
+    }
+
+    /**
+     * Multiply the complex number with a scalar.
+     * @param s the scalar
+     * @return the complex number
+     */
+    public MutableComplex times(double s) {
+        this.re *= s;
+        this.im *= s;
+        return this;
+    }
+
+    /**
+     * Add the product of two complex numbers to the complex number.
+     * @param a the first factor
+     * @param b the second factor
+     * @return the complex number
+     */
+    public MutableComplex timesAdd(Complex a, Complex b) {
+        return this.timesAdd(a.getRe(), a.getIm(), b.getRe(), b.getIm());
+    }
+
+    /**
+     * Add the product of two complex numbers, given by their parts, to the complex number.
+     * @param aRe the real part of the first factor
+     * @param aIm the imaginary part of the first factor
+     * @param bRe the real part of the second factor
+     * @param bIm the imaginary part of the second factor
+     * @return the complex number
+     */
+    public MutableComplex timesAdd(double aRe, double aIm, double bRe, double bIm) {
+        this.re += aRe * bRe - aIm * bIm;
+        this.im += aRe * bIm + aIm * bRe;
+        return this;
+    }
+
+    /**
+     * Get the real part of the complex.
+     * @return the real part of the complex
+     */
+    public double getRe() {
+        return this.re;
+    }
+
+    /**
+     * Get the imaginary part of the complex.
+     * @return the imaginary part of the complex
+     */
+    public double getIm() {
+        return this.im;
+    }
+
+    /**
+     * Get the modulus of the complex.
+     * @return the modulus of the complex
+     */
+    public double modulus() {
+        return Math.sqrt(this.re * this.re + this.im * this.im);
+    }
+
+    /**
+     * Get the current value of the complex number as an immutable complex number.
+     * @return a new complex number representing the value
+     */
+    public Complex toComplex() {
+        return new Complex(this.re, this.im);
+    }
+
+    @Override
+    public String toString() {
+        return this.toComplex().toString();
+    }
+
+}
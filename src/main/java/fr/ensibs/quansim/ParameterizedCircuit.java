@@ -0,0 +1,331 @@
+package fr.ensibs.quansim;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static fr.ensibs.quansim.QuantumGates.*;
+
+/**
+ * A circuit made of fixed gates and of rotations whose angles are parameters, on which the expectation value of a
+ * Pauli observable and its gradient with respect to the parameters are computed.
+ *
+ * The gradient is computed by the adjoint method: the circuit is run forward once, then swept backward with the
+ * inverse gates on two registers, the state and the observable applied on the final state. At each rotation, the
+ * derivative of the expectation value with respect to its angle is read from the inner product of the two
+ * registers, so that all the gradient costs about three runs of the circuit whatever the number of parameters.
+ */
+public class ParameterizedCircuit {
+
+    /**
+     * A step of the circuit, either a fixed gate or a rotation.
+     */
+    private static final class Step {
+
+        /**
+         * the fixed gate, or null for a rotation
+         */
+        private final Gate gate;
+
+        /**
+         * the inverse of the fixed gate, or null for a rotation
+         */
+        private final Gate inverse;
+
+        /**
+         * the axis of the rotation, 'X', 'Y' or 'Z'
+         */
+        private final char axis;
+
+        /**
+         * the index of the qbit of the rotation
+         */
+        private final int qbit;
+
+        /**
+         * the index of the parameter giving the angle of the rotation, or -1 for a fixed gate
+         */
+        private final int parameter;
+
+        /**
+         * Constructor of a fixed gate.
+         * @param gate the gate
+         */
+        private Step(Gate gate) {
+            this.gate = gate;
+            this.inverse = gate.inverse();
+            this.axis = 0;
+            this.qbit = -1;
+            this.parameter = -1;
+        }
+
+        /**
+         * Constructor of a rotation.
+         * @param axis the axis of the rotation, 'X', 'Y' or 'Z'
+         * @param qbit the index of the qbit of the rotation
+         * @param parameter the index of the parameter giving the angle of the rotation
+         */
+        private Step(char axis, int qbit, int parameter) {
+            this.gate = null;
+            this.inverse = null;
+            this.axis = axis;
+            this.qbit = qbit;
+            this.parameter = parameter;
+        }
+
+        /**
+         * Apply the step on a register.
+         * @param register the register
+         * @param parameters the values of the parameters
+         * @param sign 1 to apply the step, -1 to apply its inverse
+         */
+        private void applyTo(QBitRegister register, double[] parameters, int sign) {
+            if (this.gate != null) {
+                (sign > 0 ? this.gate : this.inverse).applyTo(register);
+                return;
+            }
+            double theta = sign * parameters[this.parameter];
+            switch (this.axis) {
+                case 'X':
+                    register.apply(RX(theta), this.qbit);
+                    break;
+                case 'Y':
+                    register.apply(RY(theta), this.qbit);
+                    break;
+                default:
+                    register.apply(RZ(theta), this.qbit);
+                    break;
+            }
+        }
+
+    }
+
+    /**
+     * the number of qbits of the circuit
+     */
+    private final int qbits;
+
+    /**
+     * the steps of the circuit, in the order in which they are applied
+     */
+    private final List<Step> steps = new ArrayList<>();
+
+    /**
+     * the number of parameters of the circuit, i.e. the highest index of a parameter plus 1
+     */
+    private int parameters;
+
+    /**
+     * Constructor.
+     * @param qbits the number of qbits of the circuit
+     */
+    public ParameterizedCircuit(int qbits) {
+        if (qbits <= 0 || qbits > 30)
+            throw new IllegalArgumentException("The number of qbits of the circuit must be between 1 and 30.");
+
+        this.qbits = qbits;
+    }
+
+    /**
+     * Add a fixed gate at the end of the circuit.
+     * @param gate the gate, which must be unitary
+     * @return the circuit
+     */
+    public ParameterizedCircuit gate(Gate gate) {
+        if (gate == null)
+            throw new NullPointerException("The gate cannot be null.");
+
+        for (int q : gate.qbits())
+            this.checkQbit(q);
+        this.steps.add(new Step(gate));
+        return this;
+    }
+
+    /**
+     * Add a rotation around the X axis at the end of the circuit.
+     * @param qbitIdx the index of the qbit
+     * @param parameter the index of the parameter giving the angle of the rotation
+     * @return the circuit
+     */
+    public ParameterizedCircuit rx(int qbitIdx, int parameter) {
+        return this.rotation('X', qbitIdx, parameter);
+    }
+
+    /**
+     * Add a rotation around the Y axis at the end of the circuit.
+     * @param qbitIdx the index of the qbit
+     * @param parameter the index of the parameter giving the angle of the rotation
+     * @return the circuit
+     */
+    public ParameterizedCircuit ry(int qbitIdx, int parameter) {
+        return this.rotation('Y', qbitIdx, parameter);
+    }
+
+    /**
+     * Add a rotation around the Z axis at the end of the circuit.
+     * @param qbitIdx the index of the qbit
+     * @param parameter the index of the parameter giving the angle of the rotation
+     * @return the circuit
+     */
+    public ParameterizedCircuit rz(int qbitIdx, int parameter) {
+        return this.rotation('Z', qbitIdx, parameter);
+    }
+
+    /**
+     * Get the number of qbits of the circuit.
+     * @return the number of qbits
+     */
+    public int qbits() {
+        return this.qbits;
+    }
+
+    /**
+     * Get the number of parameters of the circuit, i.e. the highest index of a parameter plus 1.
+     * @return the number of parameters
+     */
+    public int parameters() {
+        return this.parameters;
+    }
+
+    /**
+     * Run the circuit from the register whose qbits are all 0.
+     * @param parameters the values of the parameters
+     * @return the register at the end of the circuit
+     */
+    public QBitRegister run(double[] parameters) {
+        this.checkParameters(parameters);
+
+        QBitRegister ret = new QBitRegister(this.qbits);
+        for (Step step : this.steps)
+            step.applyTo(ret, parameters, 1);
+        return ret;
+    }
+
+    /**
+     * Compute the expectation value of a Pauli observable on the state at the end of the circuit.
+     * @param parameters the values of the parameters
+     * @param observable the Pauli string of the observable, made of one 'I', 'X', 'Y' or 'Z' per qbit written
+     * from the highest qbit to the lowest one (e.g. "ZI" measures Z on the qbit 1)
+     * @return the expectation value, between -1 and 1
+     */
+    public double expectation(double[] parameters, String observable) {
+        this.checkObservable(observable);
+
+        QBitRegister state = this.run(parameters);
+        QBitRegister measured = this.applyObservable(state.copy(), observable);
+        return state.innerProduct(measured).getRe();
+    }
+
+    /**
+     * Compute the gradient of the expectation value of a Pauli observable with respect to the parameters, by the
+     * adjoint method.
+     * @param parameters the values of the parameters
+     * @param observable the Pauli string of the observable, made of one 'I', 'X', 'Y' or 'Z' per qbit written
+     * from the highest qbit to the lowest one
+     * @return the partial derivatives of the expectation value, indexed by parameter
+     */
+    public double[] gradient(double[] parameters, String observable) {
+        this.checkObservable(observable);
+
+        QBitRegister state = this.run(parameters);
+        QBitRegister adjoint = this.applyObservable(state.copy(), observable);
+        double[] ret = new double[this.parameters];
+        for (int i = this.steps.size() - 1; i >= 0; i--) {
+            Step step = this.steps.get(i);
+            if (step.parameter >= 0) {
+                // the derivative of R(theta) = exp(-i theta P / 2) is -i/2 P R(theta), so that the derivative of
+                // the expectation value is 2 Re(<adjoint| -i/2 P state>) = Im(<adjoint|P state>)
+                ComplexMatrix generator = step.axis == 'X' ? X : step.axis == 'Y' ? Y : Z;
+                state.apply(generator, step.qbit);
+                ret[step.parameter] += adjoint.innerProduct(state).getIm();
+                state.apply(generator, step.qbit);
+            }
+            if (i > 0) {
+                step.applyTo(state, parameters, -1);
+                step.applyTo(adjoint, parameters, -1);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Add a rotation at the end of the circuit.
+     * @param axis the axis of the rotation, 'X', 'Y' or 'Z'
+     * @param qbitIdx the index of the qbit
+     * @param parameter the index of the parameter giving the angle of the rotation
+     * @return the circuit
+     */
+    private ParameterizedCircuit rotation(char axis, int qbitIdx, int parameter) {
+        this.checkQbit(qbitIdx);
+
+        if (parameter < 0)
+            throw new IllegalArgumentException("The index of the parameter cannot be negative.");
+
+        this.steps.add(new Step(axis, qbitIdx, parameter));
+        this.parameters = Math.max(this.parameters, parameter + 1);
+        return this;
+    }
+
+    /**
+     * Apply the Pauli operators of an observable on a register.
+     * @param register the register
+     * @param observable the Pauli string of the observable
+     * @return the register
+     */
+    private QBitRegister applyObservable(QBitRegister register, String observable) {
+        for (int k = 0; k < observable.length(); k++) {
+            int qbit = this.qbits - 1 - k;
+            switch (observable.charAt(k)) {
+                case 'X':
+                    register.apply(X, qbit);
+                    break;
+                case 'Y':
+                    register.apply(Y, qbit);
+                    break;
+                case 'Z':
+                    register.apply(Z, qbit);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return register;
+    }
+
+    /**
+     * Check the index of a qbit of the circuit.
+     * @param qbitIdx the index of the qbit
+     */
+    private void checkQbit(int qbitIdx) {
+        if (qbitIdx < 0 || qbitIdx >= this.qbits)
+            throw new IndexOutOfBoundsException("The qbit index is out of bounds.");
+    }
+
+    /**
+     * Check the values of the parameters of the circuit.
+     * @param parameters the values of the parameters
+     */
+    private void checkParameters(double[] parameters) {
+        if (parameters == null)
+            throw new NullPointerException("The values of the parameters cannot be null.");
+
+        if (parameters.length < this.parameters)
+            throw new IllegalArgumentException("There must be a value for each parameter of the circuit.");
+    }
+
+    /**
+     * Check a Pauli string.
+     * @param observable the Pauli string
+     */
+    private void checkObservable(String observable) {
+        if (observable == null)
+            throw new NullPointerException("The observable cannot be null.");
+
+        if (observable.length() != this.qbits)
+            throw new IllegalArgumentException("The observable must have one Pauli operator per qbit.");
+
+        for (int k = 0; k < observable.length(); k++)
+            if ("IXYZ".indexOf(observable.charAt(k)) < 0)
+                throw new IllegalArgumentException("The observable must only contain 'I', 'X', 'Y' and 'Z'.");
+    }
+
+}
@@ -0,0 +1,104 @@
+package fr.ensibs.quansim;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A summary of the operations profiled by the simulator, by kind of operation.
+ */
+public class Profile {
+
+    /**
+     * the counters of each kind of operation: number of operations, total time in nanoseconds and number of
+     * processed amplitudes
+     */
+    private final Map<String, long[]> counters = new TreeMap<>();
+
+    /**
+     * Constructor of an empty profile.
+     */
+    Profile() {
+    }
+
+    /**
+     * Add the counters of a kind of operation.
+     * @param kind the kind of operation
+     * @param count the number of operations
+     * @param nanos the total time of the operations in nanoseconds
+     * @param amplitudes the number of amplitudes processed by the operations
+     */
+    void add(String kind, long count, long nanos, long amplitudes) {
+        this.counters.put(kind, new long[]{count, nanos, amplitudes});
+    }
+
+    /**
+     * Get the kinds of the profiled operations, e.g. "H", "CNOT", "U2" or "measure".
+     * @return the set of the kinds of operations
+     */
+    public Set<String> kinds() {
+        return this.counters.keySet();
+    }
+
+    /**
+     * Get the number of operations of a given kind.
+     * @param kind the kind of operation
+     * @return the number of operations
+     */
+    public long count(String kind) {
+        long[] c = this.counters.get(kind);
+        return c == null ? 0 : c[0];
+    }
+
+    /**
+     * Get the total time spent in operations of a given kind.
+     * @param kind the kind of operation
+     * @return the total time in nanoseconds
+     */
+    public long nanos(String kind) {
+        long[] c = this.counters.get(kind);
+        return c == null ? 0 : c[1];
+    }
+
+    /**
+     * Get the number of amplitudes processed by operations of a given kind.
+     * @param kind the kind of operation
+     * @return the number of processed amplitudes
+     */
+    public long amplitudes(String kind) {
+        long[] c = this.counters.get(kind);
+        return c == null ? 0 : c[2];
+    }
+
+    /**
+     * Get the throughput of operations of a given kind.
+     * @param kind the kind of operation
+     * @return the number of amplitudes processed per second
+     */
+    public double amplitudesPerSecond(String kind) {
+        long nanos = this.nanos(kind);
+        return nanos == 0 ? 0 : this.amplitudes(kind) * 1e9 / nanos;
+    }
+
+    /**
+     * Get the total time spent in all the profiled operations.
+     * @return the total time in nanoseconds
+     */
+    public long totalNanos() {
+        long ret = 0;
+        for (long[] c : this.counters.values())
+            ret += c[1];
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%-10s %12s %14s %16s%n", "kind", "count", "time (ms)", "amplitudes/s"));
+        for (String kind : this.counters.keySet())
+            builder.append(String.format("%-10s %12d %14.3f %16.4g%n", kind, this.count(kind),
+                    this.nanos(kind) / 1e6, this.amplitudesPerSecond(kind)));
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,188 @@
+package fr.ensibs.quansim;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class gathering the optional instrumentation of the simulator.
+ *
+ * While profiling is enabled, every gate application and measurement of a qbit register is timed and
+ * summarized by kind, and is also emitted as a JDK Flight Recorder event when the running JVM supports it.
+ * Profiling is disabled by default, in which case the instrumented operations only check a flag.
+ * It can be enabled at startup with the "quansim.profile" system property.
+ */
+public class Profiler {
+
+    /**
+     * true if the operations are currently profiled
+     */
+    private static volatile boolean enabled = Boolean.getBoolean("quansim.profile");
+
+    /**
+     * the emitter of the JDK Flight Recorder events, or null if the running JVM does not support them
+     */
+    private static final FlightRecorder RECORDER = FlightRecorder.load();
+
+    /**
+     * the counters of the profiled operations, by kind
+     */
+    private static final Map<String, LongAdder[]> COUNTERS = new ConcurrentHashMap<>();
+
+    /**
+     * the name of the gate being applied by each thread, when the gate is applied through a named gate
+     */
+    private static final ThreadLocal<String> GATE_NAMES = new ThreadLocal<>();
+
+    /**
+     * Private constructor to assert noninstanciability.
+     */
+    private Profiler() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Enable the profiling of the operations.
+     */
+    public static void enable() {
+        enabled = true;
+    }
+
+    /**
+     * Disable the profiling of the operations.
+     */
+    public static void disable() {
+        enabled = false;
+    }
+
+    /**
+     * Tell if the operations are currently profiled.
+     * @return true if and only if profiling is enabled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Discard the counters gathered so far.
+     */
+    public static void reset() {
+        COUNTERS.clear();
+    }
+
+    /**
+     * Get a summary of the operations profiled so far.
+     * @return a snapshot of the counters, by kind of operation
+     */
+    public static Profile profile() {
+        Profile profile = new Profile();
+        for (Map.Entry<String, LongAdder[]> entry : COUNTERS.entrySet()) {
+            LongAdder[] counters = entry.getValue();
+            profile.add(entry.getKey(), counters[0].sum(), counters[1].sum(), counters[2].sum());
+        }
+        return profile;
+    }
+
+    /**
+     * Set the name under which the gates applied by the current thread are profiled, instead of the name guessed
+     * from their matrix.
+     * @param name the name of the gate, or null to guess the names from the matrices again
+     */
+    static void nameGates(String name) {
+        if (name == null)
+            GATE_NAMES.remove();
+        else GATE_NAMES.set(name);
+    }
+
+    /**
+     * Start timing a gate application.
+     * @return the span to end once the gate has been applied, or null if profiling is disabled
+     */
+    static Span startGate() {
+        return enabled ? new Span(true) : null;
+    }
+
+    /**
+     * Start timing a measurement.
+     * @return the span to end once the measurement is done, or null if profiling is disabled
+     */
+    static Span startMeasurement() {
+        return enabled ? new Span(false) : null;
+    }
+
+    /**
+     * Add a profiled operation to the counters.
+     * @param kind the kind of the operation
+     * @param nanos the duration of the operation in nanoseconds
+     * @param amplitudes the number of amplitudes processed by the operation
+     */
+    private static void record(String kind, long nanos, long amplitudes) {
+        LongAdder[] counters = COUNTERS.computeIfAbsent(kind,
+                k -> new LongAdder[]{new LongAdder(), new LongAdder(), new LongAdder()});
+        counters[0].increment();
+        counters[1].add(nanos);
+        counters[2].add(amplitudes);
+    }
+
+    /**
+     * A profiled operation being timed.
+     */
+    static class Span {
+
+        /**
+         * the time at which the operation started, in nanoseconds
+         */
+        private final long start = System.nanoTime();
+
+        /**
+         * the flight recorder event of the operation, or null if it is not recorded
+         */
+        private final Object event;
+
+        /**
+         * Constructor.
+         * @param gate true for a gate application, false for a measurement
+         */
+        private Span(boolean gate) {
+            if (RECORDER == null)
+                this.event = null;
+            else this.event = gate ? RECORDER.beginGate() : RECORDER.beginMeasurement();
+        }
+
+        /**
+         * End the timing of a gate application.
+         * @param qg the applied quantum gate matrix
+         * @param qbitsIdx the indexes of the qbits touched by the gate
+         * @param amplitudes the number of amplitudes processed by the gate
+         */
+        void endGate(ComplexMatrix qg, int[] qbitsIdx, long amplitudes) {
+            String name = GATE_NAMES.get();
+            this.endGate(name != null ? name : QuantumGates.nameOf(qg), qbitsIdx, amplitudes);
+        }
+
+        /**
+         * End the timing of a gate application.
+         * @param kind the kind of the applied gate
+         * @param qbitsIdx the indexes of the qbits touched by the gate
+         * @param amplitudes the number of amplitudes processed by the gate
+         */
+        void endGate(String kind, int[] qbitsIdx, long amplitudes) {
+            record(kind, System.nanoTime() - this.start, amplitudes);
+            if (this.event != null)
+                RECORDER.endGate(this.event, kind, qbitsIdx, amplitudes);
+        }
+
+        /**
+         * End the timing of a measurement.
+         * @param qbitsIdx the indexes of the measured qbits
+         * @param amplitudes the number of amplitudes processed by the measurement
+         */
+        void endMeasurement(int[] qbitsIdx, long amplitudes) {
+            record("measure", System.nanoTime() - this.start, amplitudes);
+            if (this.event != null)
+                RECORDER.endMeasurement(this.event, qbitsIdx, amplitudes);
+        }
+
+    }
+
+}
@@ -4,13 +4,31 @@ import static fr.ensibs.quansim.QuantumGates.*;
 
 /**
  * A qbit, represented by its alpha and beta coordinates in the canonical base.
+ *
+ * The coordinates are stored as primitive numbers, so that the gates and the draws are done in place without
+ * allocating any object.
  */
 public class QBit {
 
     /**
-     * the state of the qbit, represented by a complex vector
+     * the real part of the alpha coordinate
      */
-    private ComplexVector state = new ComplexVector(2);
+    private double alphaRe;
+
+    /**
+     * the imaginary part of the alpha coordinate
+     */
+    private double alphaIm;
+
+    /**
+     * the real part of the beta coordinate
+     */
+    private double betaRe;
+
+    /**
+     * the imaginary part of the beta coordinate
+     */
+    private double betaIm;
 
     /**
      * Constructor.
@@ -22,8 +40,21 @@ public class QBit {
         if (p <= 0.999 || p >= 1.001)
             throw new IllegalArgumentException("The addition of the square moduli of alpha and beta must be 1.");
 
-        this.state.setCoordinate(0, alpha);
-        this.state.setCoordinate(1, beta);
+        this.alphaRe = alpha.getRe();
+        this.alphaIm = alpha.getIm();
+        this.betaRe = beta.getRe();
+        this.betaIm = beta.getIm();
+    }
+
+    /**
+     * Copy constructor.
+     * @param qbit the qbit to copy
+     */
+    private QBit(QBit qbit) {
+        this.alphaRe = qbit.alphaRe;
+        this.alphaIm = qbit.alphaIm;
+        this.betaRe = qbit.betaRe;
+        this.betaIm = qbit.betaIm;
     }
 
     /**
@@ -31,7 +62,7 @@ public class QBit {
      * @return the alpha coordinate
      */
     public Complex alpha() {
-        return this.state.getCoordinate(0);
+        return new Complex(this.alphaRe, this.alphaIm);
     }
 
     /**
@@ -39,7 +70,7 @@ public class QBit {
      * @return the beta coordinate
      */
     public Complex beta() {
-        return this.state.getCoordinate(1);
+        return new Complex(this.betaRe, this.betaIm);
     }
 
     /**
@@ -47,7 +78,7 @@ public class QBit {
      * @return the given probability
      */
     public double p0() {
-        return Math.pow(this.alpha().modulus(), 2);
+        return this.alphaRe * this.alphaRe + this.alphaIm * this.alphaIm;
     }
 
     /**
@@ -55,7 +86,7 @@ public class QBit {
      * @return the given probability
      */
     public double p1() {
-        return Math.pow(this.beta().modulus(), 2);
+        return this.betaRe * this.betaRe + this.betaIm * this.betaIm;
     }
 
     /**
@@ -63,14 +94,12 @@ public class QBit {
      * @return true if the drawn bit was 1, false otherwise
      */
     public boolean randomDraw() {
-        boolean bitIs1 = Math.random() > Math.pow(this.alpha().modulus(), 2);
-        if (bitIs1) {
-            this.state.setCoordinate(0, new Complex(0, 0));
-            this.state.setCoordinate(1, new Complex(Math.sqrt(.5), Math.sqrt(.5)));
-        } else {
-            this.state.setCoordinate(0, new Complex(Math.sqrt(.5), Math.sqrt(.5)));
-            this.state.setCoordinate(1, new Complex(0, 0));
-        }
+        boolean bitIs1 = Math.random() > this.p0();
+        double c = Math.sqrt(.5);
+        this.alphaRe = bitIs1 ? 0 : c;
+        this.alphaIm = bitIs1 ? 0 : c;
+        this.betaRe = bitIs1 ? c : 0;
+        this.betaIm = bitIs1 ? c : 0;
         return bitIs1;
     }
 
@@ -83,10 +112,17 @@ public class QBit {
         if (qg == null)
             throw new NullPointerException("The operation matrix cannot be null.");
 
-        if (qg.width() != 2 && qg.height() != 2)
+        if (qg.width() != 2 || qg.height() != 2)
             throw new IllegalArgumentException("The quantum gate matrix must be 2x2.");
 
-        this.state = qg.times(this.state).getColumnVector(0);
+        double g00re = qg.getRe(0, 0), g00im = qg.getIm(0, 0), g01re = qg.getRe(1, 0), g01im = qg.getIm(1, 0);
+        double g10re = qg.getRe(0, 1), g10im = qg.getIm(0, 1), g11re = qg.getRe(1, 1), g11im = qg.getIm(1, 1);
+        double aRe = this.alphaRe, aIm = this.alphaIm;
+        double bRe = this.betaRe, bIm = this.betaIm;
+        this.alphaRe = g00re * aRe - g00im * aIm + g01re * bRe - g01im * bIm;
+        this.alphaIm = g00re * aIm + g00im * aRe + g01re * bIm + g01im * bRe;
+        this.betaRe = g10re * aRe - g10im * aIm + g11re * bRe - g11im * bIm;
+        this.betaIm = g10re * aIm + g10im * aRe + g11re * bIm + g11im * bRe;
         return this;
     }
 
@@ -127,7 +163,7 @@ public class QBit {
      * @return a copy of the qbit
      */
     public QBit copy() {
-        return new QBit(this.alpha(), this.beta());
+        return new QBit(this);
     }
 
     @Override
@@ -139,7 +175,7 @@ public class QBit {
 
     @Override
     public String toString() {
-        return this.state.toString();
+        return new ComplexVector(new Complex[]{this.alpha(), this.beta()}).toString();
     }
 
 }
@@ -1,16 +1,116 @@
 package fr.ensibs.quansim;
 
+import java.nio.DoubleBuffer;
 import java.util.Arrays;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
 
 /**
  * A qbit register, containing one or more qbits.
+ *
+ * A gate on the qbit k pairs amplitudes that are 2^k apart, so the gates on the highest qbits of a large
+ * register stride across the whole state. The register thus keeps a permutation between the logical qbits seen
+ * by its users and the physical bits of the indexes of its amplitudes: when a logical qbit stored in a high
+ * physical bit becomes hot, it is swapped with a cold qbit stored in one of the cache-local lowest bits. The
+ * results are always given in the logical order. The remapping is off by default and can be enabled with the
+ * "quansim.remap" system property set to true.
+ *
+ * The diagonal gates, e.g. Z, S, T, RZ, CZ or controlled phases, commute with each other. Instead of sweeping
+ * the state for each of them, the register accumulates consecutive diagonal gates into a table of the phases of
+ * the basic states of the qbits they act on, and multiplies the state by this table in a single sweep when a
+ * non-diagonal gate, a measurement or a read of the state arrives.
+ *
+ * Oracles and phases defined by a function of the basic states, as well as the Grover diffusion, are applied
+ * in one sweep of the state instead of being built as huge diagonal matrices or gate cascades. Likewise, a
+ * reversible classical function of some qbits, e.g. a modular adder, is applied as an in-place permutation of
+ * the amplitudes.
  */
-public class QBitRegister {
+public class QBitRegister implements QuantumRegister {
 
     /**
-     * the state of the qbit register
+     * the kernels applying the common kinds of gates
      */
-    private final ComplexVector state;
+    private static final GateKernels KERNELS = GateKernels.load();
+
+    /**
+     * true if the hot qbits are moved to the cache-local bits, which is off unless the "quansim.remap" system
+     * property is true
+     */
+    private static volatile boolean remap = Boolean.getBoolean("quansim.remap");
+
+    /**
+     * number of lowest physical bits of the indexes in which the hot qbits are kept
+     */
+    static final int LOCAL_QBITS = 16;
+
+    /**
+     * number of gates between two evaluations of the layout of the qbits
+     */
+    private static final int REMAP_PERIOD = 32;
+
+    /**
+     * minimal number of gates on a qbit during a period for it to be moved to a cache-local bit
+     */
+    private static final int MIN_HEAT = 8;
+
+    /**
+     * maximal number of qbits on which the pending diagonal gates can act before being flushed
+     */
+    private static final int MAX_PHASE_QBITS = 10;
+
+    /**
+     * number of lowest bits of the indexes resolved by the first lookup table when flushing the phases
+     */
+    private static final int PHASE_LOOKUP_BITS = 12;
+
+    /**
+     * number of lowest bits of the indexes resolved by the first lookup table when mapping the indexes of a
+     * register to the ones of a register with another layout
+     */
+    private static final int INDEX_LOOKUP_BITS = 12;
+
+    /**
+     * the real parts of the state of the qbit register
+     */
+    private final double[] re;
+
+    /**
+     * the imaginary parts of the state of the qbit register
+     */
+    private final double[] im;
+
+    /**
+     * the physical bit of each logical qbit in the indexes of the amplitudes, or null for the identity layout
+     */
+    private int[] layout;
+
+    /**
+     * the recent number of gates applied on each logical qbit, or null if the register is too small to be remapped
+     */
+    private int[] heat;
+
+    /**
+     * the number of gates applied since the last evaluation of the layout
+     */
+    private int gatesSinceRemap;
+
+    /**
+     * the logical qbits on which the pending diagonal gates act, or null if no diagonal gate is pending
+     */
+    private int[] phaseQbits;
+
+    /**
+     * the real parts of the pending phases, the j-th bit of their index being the value of the j-th phase qbit
+     */
+    private double[] phaseRe;
+
+    /**
+     * the imaginary parts of the pending phases
+     */
+    private double[] phaseIm;
 
     /**
      * Constructor.
@@ -20,11 +120,13 @@ public class QBitRegister {
         if (n <= 0)
             throw new IllegalArgumentException("The number of qbits in the register must be positive.");
 
-        int length = (int) Math.pow(2, n);
-        this.state = new ComplexVector(length);
-        this.state.setCoordinate(0, new Complex(1, 0));
-        for (int i = 1; i < length; i++)
-            this.state.setCoordinate(i, new Complex(0, 0));
+        if (n > 30)
+            throw new IllegalArgumentException("The number of qbits in the register cannot exceed 30, use a LargeQBitRegister instead.");
+
+        int length = 1 << n;
+        this.re = new double[length];
+        this.im = new double[length];
+        this.re[0] = 1;
     }
 
     /**
@@ -44,15 +146,31 @@ public class QBitRegister {
         if (sum <= 0.999 || sum >= 1.001)
             throw new IllegalArgumentException("The sum of the square moduli of the coordinates must be 1.");
 
-        this.state = new ComplexVector(coordinates);
+        this.re = new double[coordinates.length];
+        this.im = new double[coordinates.length];
+        for (int i = 0; i < coordinates.length; i++) {
+            this.re[i] = coordinates[i].getRe();
+            this.im[i] = coordinates[i].getIm();
+        }
+    }
+
+    /**
+     * Constructor wrapping existing amplitude arrays, without copy nor normalization check.
+     * @param re the real parts of the coordinates
+     * @param im the imaginary parts of the coordinates
+     */
+    QBitRegister(double[] re, double[] im) {
+        this.re = re;
+        this.im = im;
     }
 
     /**
      * Get the number of qbits in the register.
      * @return the size of the register
      */
+    @Override
     public int size() {
-        return (int) (Math.log10(this.state.length()) / Math.log10(2));
+        return Integer.numberOfTrailingZeros(this.re.length);
     }
 
     /**
@@ -60,8 +178,11 @@ public class QBitRegister {
      * @param basicState the decimal representation of the basic state (e.g. 3 = b011 in a 3 qbits register)
      * @return the corresponding probability
      */
+    @Override
     public double proba(int basicState) {
-        return Math.pow(this.state.getCoordinate(basicState).modulus(), 2);
+        this.flushPhases();
+        int i = this.physicalIndex(basicState);
+        return this.re[i] * this.re[i] + this.im[i] * this.im[i];
     }
 
     /**
@@ -74,30 +195,35 @@ public class QBitRegister {
         if (qg == null)
             throw new NullPointerException("The quantum gate matrix cannot be null.");
 
-        if (qg.width() != 2 && qg.height() != 2)
+        if (qg.width() != 2 || qg.height() != 2)
             throw new IllegalArgumentException("The quantum gate matrix must be 2x2.");
 
         if (qbitIdx < 0 || qbitIdx >= this.size())
             throw new IndexOutOfBoundsException("The qbit index is out of bounds.");
 
-        int offset = (int) Math.pow(2, qbitIdx);
-        int startIdx = 0;
-        int ctr = 0;
-        while (startIdx < this.state.length()) {
-            Complex c1 = this.state.getCoordinate(startIdx);
-            Complex c2 = this.state.getCoordinate(startIdx + offset);
-            Complex[] coordinates = new Complex[]{c1, c2};
-            ComplexVector cv = new ComplexVector(coordinates);
-            cv = qg.times(cv).getColumnVector(0);
-            this.state.setCoordinate(startIdx, cv.getCoordinate(0));
-            this.state.setCoordinate(startIdx + offset, cv.getCoordinate(1));
-            startIdx++;
-            ctr++;
-            if (ctr >= offset) {
-                startIdx += offset;
-                ctr = 0;
+        double[] g = new double[8];
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 2; x++) {
+                g[4 * y + 2 * x] = qg.getRe(x, y);
+                g[4 * y + 2 * x + 1] = qg.getIm(x, y);
             }
         }
+
+        if (g[2] == 0 && g[3] == 0 && g[4] == 0 && g[5] == 0) {
+            Profiler.Span span = Profiler.startGate();
+            this.deferPhases(new int[]{qbitIdx}, new double[]{g[0], g[6]}, new double[]{g[1], g[7]});
+            if (span != null)
+                span.endGate(qg, new int[]{qbitIdx}, 0);
+            return this;
+        }
+
+        this.flushPhases();
+        this.heat(qbitIdx);
+        this.remapIfNeeded();
+        Profiler.Span span = Profiler.startGate();
+        KERNELS.apply(this.re, this.im, 1 << this.physical(qbitIdx), g);
+        if (span != null)
+            span.endGate(qg, new int[]{qbitIdx}, this.re.length);
         return this;
     }
 
@@ -107,6 +233,7 @@ public class QBitRegister {
      * @param qbitsIdx the indexes of the qbits in the register
      * @return the qbit register after the quantic gate
      */
+    @Override
     public QBitRegister apply(ComplexMatrix qg, int... qbitsIdx) {
         if (qg == null)
             throw new NullPointerException("The quantum gate matrix cannot be null.");
@@ -117,7 +244,7 @@ public class QBitRegister {
         if (qg.width() != qg.height())
             throw new IllegalArgumentException("The quantum gate matrix must be square.");
 
-        if (qg.width() > this.state.length())
+        if (qg.width() > this.re.length)
             throw new IllegalArgumentException("The quantum gate matrix cannot be longer than the state vector.");
 
         if (qbitsIdx == null)
@@ -126,7 +253,7 @@ public class QBitRegister {
         if (qbitsIdx.length == 0)
             throw new IllegalArgumentException("There must be at least 1 selected qubit.");
 
-        if (Math.pow(2, qbitsIdx.length) !=  qg.width())
+        if (qbitsIdx.length >= 31 || 1 << qbitsIdx.length != qg.width())
             throw new IllegalArgumentException("The given quantic gate is incompatible with the number of qubits.");
 
         Arrays.sort(qbitsIdx);
@@ -136,96 +263,1036 @@ public class QBitRegister {
             else if (i > 0 && qbitsIdx[i - 1] == qbitsIdx[i])
                 throw new IllegalArgumentException("The list of qbit indexes cannot contain duplicates.");
 
+        // a gate on a single qbit, e.g. applied through the varargs of QuantumRegister, uses the 2x2 kernels
+        if (qbitsIdx.length == 1)
+            return this.apply(qg, qbitsIdx[0]);
+
         // length of the sub-vectors on which we will apply the quantic gate
         int subvectorLen = qg.width();
-        // number of sub-vectors, i.e. number of times we apply the quantic gate on the state vector
-        int subvectorNb = this.state.length() / subvectorLen;
+        double[] gRe = new double[subvectorLen * subvectorLen];
+        double[] gIm = new double[subvectorLen * subvectorLen];
+        boolean diagonal = true;
+        for (int y = 0; y < subvectorLen; y++) {
+            for (int x = 0; x < subvectorLen; x++) {
+                gRe[y * subvectorLen + x] = qg.getRe(x, y);
+                gIm[y * subvectorLen + x] = qg.getIm(x, y);
+                if (x != y && (gRe[y * subvectorLen + x] != 0 || gIm[y * subvectorLen + x] != 0))
+                    diagonal = false;
+            }
+        }
 
-        boolean[][] substatesBin = new boolean[this.state.length()][qbitsIdx.length];
-        for (int i = 0; i < substatesBin.length; i++) {
-            boolean[] stateBin = toBinary(i, this.size());
-            for (int j = 0; j < qbitsIdx.length; j++)
-                substatesBin[i][qbitsIdx.length - 1 - j] = stateBin[this.size() - 1 - qbitsIdx[j]];
+        if (diagonal && qbitsIdx.length <= MAX_PHASE_QBITS) {
+            Profiler.Span span = Profiler.startGate();
+            double[] dRe = new double[subvectorLen];
+            double[] dIm = new double[subvectorLen];
+            for (int j = 0; j < subvectorLen; j++) {
+                dRe[j] = gRe[j * subvectorLen + j];
+                dIm[j] = gIm[j * subvectorLen + j];
+            }
+            this.deferPhases(qbitsIdx, dRe, dIm);
+            if (span != null)
+                span.endGate(qg, qbitsIdx, 0);
+            return this;
         }
 
+        this.flushPhases();
+        for (int qbitIdx : qbitsIdx)
+            this.heat(qbitIdx);
+        this.remapIfNeeded();
+        int[] physicalIdx = new int[qbitsIdx.length];
+        for (int j = 0; j < qbitsIdx.length; j++)
+            physicalIdx[j] = this.physical(qbitsIdx[j]);
+
+        Profiler.Span span = Profiler.startGate();
+
+        if (subvectorLen == 4 && (this.applyControlled(gRe, gIm, physicalIdx, 1) || this.applyControlled(gRe, gIm, physicalIdx, 0))) {
+            if (span != null)
+                span.endGate(qg, qbitsIdx, this.re.length);
+            return this;
+        }
+
+        // offset of each coordinate of a sub-vector from the start of the sub-vector,
+        // the j-th bit of the coordinate index corresponding to the j-th selected qbit
         int[] offsets = new int[subvectorLen];
-        for (int i = 0; i < subvectorLen; i++) {
-            int idx = 0;
-            while (!Arrays.equals(toBinary(i, qbitsIdx.length), substatesBin[idx])) idx++;
-            offsets[i] = idx;
+        int mask = 0;
+        for (int j = 0; j < physicalIdx.length; j++)
+            mask |= 1 << physicalIdx[j];
+        for (int i = 0; i < subvectorLen; i++)
+            for (int j = 0; j < physicalIdx.length; j++)
+                if ((i & (1 << j)) != 0)
+                    offsets[i] |= 1 << physicalIdx[j];
+
+        double[] vRe = new double[subvectorLen];
+        double[] vIm = new double[subvectorLen];
+        // the sub-vectors start at the indexes where all the selected qbits are 0
+        for (int startIdx = 0; startIdx < this.re.length; startIdx++) {
+            if ((startIdx & mask) != 0) continue;
+            for (int j = 0; j < subvectorLen; j++) {
+                vRe[j] = this.re[startIdx + offsets[j]];
+                vIm[j] = this.im[startIdx + offsets[j]];
+            }
+            for (int y = 0; y < subvectorLen; y++) {
+                double sumRe = 0, sumIm = 0;
+                for (int x = 0; x < subvectorLen; x++) {
+                    double cRe = gRe[y * subvectorLen + x], cIm = gIm[y * subvectorLen + x];
+                    sumRe += cRe * vRe[x] - cIm * vIm[x];
+                    sumIm += cRe * vIm[x] + cIm * vRe[x];
+                }
+                this.re[startIdx + offsets[y]] = sumRe;
+                this.im[startIdx + offsets[y]] = sumIm;
+            }
         }
 
-        int startIdx = 0;
-        for (int i = 0; i < subvectorNb; i++) {
-            while (!Arrays.equals(new boolean[qbitsIdx.length], substatesBin[startIdx])) startIdx++;
-            Complex[] coordinates = new Complex[subvectorLen];
-            for (int j = 0; j < subvectorLen; j++)
-                coordinates[j] = this.state.getCoordinate(startIdx + offsets[j]);
-            ComplexVector cv = new ComplexVector(coordinates);
-            cv = qg.times(cv).getColumnVector(0);
-            for (int j = 0; j < subvectorLen; j++)
-                this.state.setCoordinate(startIdx + offsets[j], cv.getCoordinate(j));
-            startIdx++;
+        if (span != null)
+            span.endGate(qg, qbitsIdx, this.re.length);
+        return this;
+    }
+
+    /**
+     * Apply a 2 qbits gate with the controlled kernel if it has the form of a controlled 2x2 gate.
+     * @param gRe the real parts of the 4x4 gate matrix, row by row
+     * @param gIm the imaginary parts of the 4x4 gate matrix, row by row
+     * @param physicalIdx the physical bits of the 2 sorted qbits of the gate
+     * @param control the position of the control qbit in the indexes of the gate matrix (0 or 1)
+     * @return true if the gate has been applied, false if it is not a controlled gate with this control qbit
+     */
+    private boolean applyControlled(double[] gRe, double[] gIm, int[] physicalIdx, int control) {
+        int target = 1 - control;
+        // the gate must be the identity on the basic states where the control qbit is 0
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                if ((x & (1 << control)) != 0 && (y & (1 << control)) != 0) continue;
+                if (gRe[4 * y + x] != (x == y ? 1 : 0) || gIm[4 * y + x] != 0)
+                    return false;
+            }
         }
+        int a0 = 1 << control;
+        int a1 = a0 | (1 << target);
+        double[] g = {gRe[4 * a0 + a0], gIm[4 * a0 + a0], gRe[4 * a0 + a1], gIm[4 * a0 + a1],
+                gRe[4 * a1 + a0], gIm[4 * a1 + a0], gRe[4 * a1 + a1], gIm[4 * a1 + a1]};
+        KERNELS.applyControlled(this.re, this.im, 1 << physicalIdx[control], 1 << physicalIdx[target], g);
+        return true;
+    }
+
+    /**
+     * Apply the quantum Fourier transform on some qbits of the register, with an in-place radix-2 fast Fourier
+     * transform of the amplitudes instead of a circuit of gates. The transform maps the basic state |x> of the
+     * selected qbits to the sum of exp(2i pi xy / 2^k) |y> / sqrt(2^k) over all the k qbits basic states |y>.
+     * @param qbitsIdx the indexes of the selected qbits, the first one being the least significant bit of x and y
+     * @return the qbit register after the transform
+     */
+    public QBitRegister applyQFT(int... qbitsIdx) {
+        return this.fourier(qbitsIdx, 1);
+    }
 
+    /**
+     * Apply the inverse quantum Fourier transform on some qbits of the register, with an in-place radix-2 fast
+     * Fourier transform of the amplitudes.
+     * @param qbitsIdx the indexes of the selected qbits, the first one being the least significant bit
+     * @return the qbit register after the transform
+     * @see #applyQFT(int...)
+     */
+    public QBitRegister applyInverseQFT(int... qbitsIdx) {
+        return this.fourier(qbitsIdx, -1);
+    }
+
+    /**
+     * Apply the quantum Fourier transform or its inverse on some qbits of the register.
+     * @param qbitsIdx the indexes of the selected qbits, the first one being the least significant bit
+     * @param sign 1 for the transform, -1 for its inverse
+     * @return the qbit register after the transform
+     */
+    private QBitRegister fourier(int[] qbitsIdx, int sign) {
+        this.checkSelection(qbitsIdx);
+        this.flushPhases();
+        Profiler.Span span = Profiler.startGate();
+        int[] physicalBits = new int[qbitsIdx.length];
+        for (int j = 0; j < qbitsIdx.length; j++)
+            physicalBits[j] = this.physical(qbitsIdx[j]);
+        new FourierTransform(physicalBits, this.size(), sign).apply(this.re, this.im);
+        if (span != null)
+            span.endGate(sign > 0 ? "QFT" : "IQFT", qbitsIdx.clone(), (long) this.re.length * (qbitsIdx.length + 1));
+        return this;
+    }
+
+    /**
+     * Apply an oracle flipping the sign of the coordinates of the basic states it marks, in a single sweep.
+     * For large registers, the predicate is called in parallel from several threads.
+     * @param marked the predicate telling if a basic state is marked
+     * @return the qbit register after the oracle
+     */
+    public QBitRegister applyOracle(IntPredicate marked) {
+        if (marked == null)
+            throw new NullPointerException("The oracle predicate cannot be null.");
+
+        double[] re = this.realParts();
+        double[] im = this.imaginaryParts();
+        Profiler.Span span = Profiler.startGate();
+        int blockLength = Math.min(Tuning.blockSize(), re.length);
+        this.blocks(blockLength).forEach(b -> {
+            for (int i = b * blockLength; i < (b + 1) * blockLength; i++) {
+                if (marked.test(i)) {
+                    re[i] = -re[i];
+                    im[i] = -im[i];
+                }
+            }
+        });
+        if (span != null)
+            span.endGate("ORACLE", this.qbits(), re.length);
+        return this;
+    }
+
+    /**
+     * Apply a phase oracle multiplying the coordinate of each basic state x by exp(i phase(x)), in a single
+     * sweep. For large registers, the function is called in parallel from several threads.
+     * @param phase the function giving the phase of each basic state, in radians
+     * @return the qbit register after the phase oracle
+     */
+    public QBitRegister applyPhase(IntToDoubleFunction phase) {
+        if (phase == null)
+            throw new NullPointerException("The phase function cannot be null.");
+
+        double[] re = this.realParts();
+        double[] im = this.imaginaryParts();
+        Profiler.Span span = Profiler.startGate();
+        int blockLength = Math.min(Tuning.blockSize(), re.length);
+        this.blocks(blockLength).forEach(b -> {
+            for (int i = b * blockLength; i < (b + 1) * blockLength; i++) {
+                double theta = phase.applyAsDouble(i);
+                if (theta == 0) continue;
+                double cos = Math.cos(theta), sin = Math.sin(theta);
+                double tmp = re[i];
+                re[i] = cos * tmp - sin * im[i];
+                im[i] = cos * im[i] + sin * tmp;
+            }
+        });
+        if (span != null)
+            span.endGate("PHASE_ORACLE", this.qbits(), re.length);
+        return this;
+    }
+
+    /**
+     * Apply the Grover diffusion operator 2|s><s| - I on the whole register, |s> being the uniform
+     * superposition: each coordinate a becomes 2m - a, m being the mean of the coordinates.
+     * @return the qbit register after the diffusion
+     */
+    public QBitRegister applyDiffusion() {
+        return this.groverIteration(i -> false);
+    }
+
+    /**
+     * Apply a Grover iteration, i.e. an oracle followed by the diffusion operator, in two sweeps of the state:
+     * the first one computes the mean of the coordinates after the oracle and the second one applies both the
+     * oracle and the diffusion. For large registers, the predicate is called in parallel from several threads.
+     * @param marked the predicate telling if a basic state is marked by the oracle
+     * @return the qbit register after the Grover iteration
+     */
+    public QBitRegister groverIteration(IntPredicate marked) {
+        if (marked == null)
+            throw new NullPointerException("The oracle predicate cannot be null.");
+
+        double[] re = this.realParts();
+        double[] im = this.imaginaryParts();
+        Profiler.Span span = Profiler.startGate();
+        int blockLength = Math.min(Tuning.blockSize(), re.length);
+        Complex sum = sumBlocks(this.blocks(blockLength), re.length / blockLength, b -> {
+            double sumRe = 0, sumIm = 0;
+            for (int i = b * blockLength; i < (b + 1) * blockLength; i++) {
+                if (marked.test(i)) {
+                    sumRe -= re[i];
+                    sumIm -= im[i];
+                } else {
+                    sumRe += re[i];
+                    sumIm += im[i];
+                }
+            }
+            return new Complex(sumRe, sumIm);
+        });
+        double twiceMeanRe = 2 * sum.getRe() / re.length;
+        double twiceMeanIm = 2 * sum.getIm() / re.length;
+        this.blocks(blockLength).forEach(b -> {
+            for (int i = b * blockLength; i < (b + 1) * blockLength; i++) {
+                if (marked.test(i)) {
+                    re[i] += twiceMeanRe;
+                    im[i] += twiceMeanIm;
+                } else {
+                    re[i] = twiceMeanRe - re[i];
+                    im[i] = twiceMeanIm - im[i];
+                }
+            }
+        });
+        if (span != null)
+            span.endGate("GROVER", this.qbits(), 2L * re.length);
+        return this;
+    }
+
+    /**
+     * Apply a reversible classical function on some qbits of the register, i.e. move the coordinate of each basic
+     * state where the selected qbits have the value x to the basic state where they have the value f(x), the
+     * other qbits being unchanged. The amplitudes are permuted in place by following the cycles of the function.
+     * The function must be a bijection of the values of the selected qbits, which is verified when the
+     * assertions are enabled.
+     * @param f the function giving the new value of the selected qbits from their old value
+     * @param qbitsIdx the indexes of the selected qbits, the first one being the least significant bit of x
+     * @return the qbit register after the permutation
+     */
+    public QBitRegister applyPermutation(IntUnaryOperator f, int... qbitsIdx) {
+        if (f == null)
+            throw new NullPointerException("The permutation function cannot be null.");
+
+        this.checkSelection(qbitsIdx);
+        int k = qbitsIdx.length;
+        int[] image = new int[1 << k];
+        for (int x = 0; x < image.length; x++) {
+            image[x] = f.applyAsInt(x);
+            if (image[x] < 0 || image[x] >= image.length)
+                throw new IllegalArgumentException("The permutation function must map the values of the selected qbits to values of the selected qbits.");
+        }
+        assert isBijection(image) : "The permutation function must be a bijection.";
+
+        // the cycles of length at least 2 are stored one after the other, as offsets of the selected qbits
+        int[] offsets = new int[1 << k];
+        for (int x = 0; x < offsets.length; x++)
+            for (int j = 0; j < k; j++)
+                if ((x & (1 << j)) != 0)
+                    offsets[x] |= 1 << this.physical(qbitsIdx[j]);
+        int[] cycles = new int[image.length];
+        int[] starts = new int[image.length / 2 + 1];
+        int count = 0;
+        int length = 0;
+        boolean[] visited = new boolean[image.length];
+        for (int x = 0; x < image.length; x++) {
+            if (visited[x] || image[x] == x) continue;
+            starts[count++] = length;
+            for (int y = x; !visited[y]; y = image[y]) {
+                visited[y] = true;
+                cycles[length++] = offsets[y];
+            }
+        }
+        starts[count] = length;
+        if (count == 0)
+            return this;
+
+        this.flushPhases();
+        Profiler.Span span = Profiler.startGate();
+        int selected = offsets[offsets.length - 1];
+        int bases = this.re.length >>> k;
+        int cycleCount = count;
+        // the independent rotations are shared by the threads by block of basic states of the other qbits, or
+        // by cycle when the other qbits are too few
+        if (bases >= cycleCount) {
+            int blockLength = Math.min(Tuning.blockSize(), bases);
+            IntStream blocks = IntStream.range(0, bases / blockLength);
+            if (Tuning.isParallel(this.re.length))
+                blocks = blocks.parallel();
+            blocks.forEach(b -> {
+                int base = deposit(b * blockLength, ~selected);
+                for (int i = 0; i < blockLength; i++) {
+                    for (int c = 0; c < cycleCount; c++)
+                        this.rotate(base, cycles, starts[c], starts[c + 1]);
+                    base = ((base | selected) + 1) & ~selected;
+                }
+            });
+        } else {
+            IntStream range = IntStream.range(0, cycleCount);
+            if (Tuning.isParallel(this.re.length))
+                range = range.parallel();
+            range.forEach(c -> {
+                for (int base = 0, i = 0; i < bases; i++, base = ((base | selected) + 1) & ~selected)
+                    this.rotate(base, cycles, starts[c], starts[c + 1]);
+            });
+        }
+        if (span != null)
+            span.endGate("PERMUTATION", qbitsIdx.clone(), this.re.length);
         return this;
     }
 
+    /**
+     * Move the coordinates along a cycle of a permutation, each one to the next basic state of the cycle.
+     * @param base the index of the amplitude where the selected qbits are 0
+     * @param cycles the offsets of the selected qbits along the cycles
+     * @param from the position of the first offset of the cycle, inclusive
+     * @param to the position of the last offset of the cycle, exclusive
+     */
+    private void rotate(int base, int[] cycles, int from, int to) {
+        int last = base | cycles[to - 1];
+        double tmpRe = this.re[last];
+        double tmpIm = this.im[last];
+        for (int j = to - 1; j > from; j--) {
+            int dst = base | cycles[j];
+            int src = base | cycles[j - 1];
+            this.re[dst] = this.re[src];
+            this.im[dst] = this.im[src];
+        }
+        int first = base | cycles[from];
+        this.re[first] = tmpRe;
+        this.im[first] = tmpIm;
+    }
+
     /**
      * Draw values randomly for the qbits of the register according to their associated probabilities.
      * @return an array of booleans, which are equal to true if the drawn bit was 1, and false otherwise
      */
+    @Override
     public boolean[] randomDraw() {
+        this.flushPhases();
+        Profiler.Span span = Profiler.startMeasurement();
         double accumulator = 0;
         // we draw a value in [0, 1]
         double drawnValue = Math.random();
         int drawnState = -1;
         // for all the complexes of the register's state
-        for (int i = 0; i < this.state.length(); i++) {
+        for (int i = 0; i < this.re.length; i++) {
             // if the drawn state has not been determined yet
             if (drawnState == -1) {
                 // we accumulate the square moduli of the previous complexes
-                accumulator += Math.pow(this.state.getCoordinate(i).modulus(), 2);
+                accumulator += this.re[i] * this.re[i] + this.im[i] * this.im[i];
                 // if the drawn value becomes inferior to the accumulator
                 if (drawnValue <= accumulator) {
                     // we have determined the drawn state
                     drawnState = i;
                     // the new complex at this coordinate is 1
-                    this.state.setCoordinate(i, new Complex(1, 0));
+                    this.re[i] = 1;
+                    this.im[i] = 0;
+                    continue;
                 }
-                // else, the new complex at this coordinate is 0
-                else this.state.setCoordinate(i, new Complex(0, 0));
             }
             // else, the new complex at this coordinate is 0
-            else this.state.setCoordinate(i, new Complex(0, 0));
+            this.re[i] = 0;
+            this.im[i] = 0;
         }
+        if (span != null)
+            span.endMeasurement(this.qbits(), this.re.length);
         // return the binary representation of the drawn state
-        return toBinary(drawnState, this.size());
+        return toBinary(this.logicalIndex(drawnState), this.size());
+    }
+
+    /**
+     * Measure a single qbit of the register and collapse the state according to the result.
+     * @param qbitIdx the index of the qbit in the register
+     * @return true if the measured bit was 1, false otherwise
+     */
+    @Override
+    public boolean measure(int qbitIdx) {
+        if (qbitIdx < 0 || qbitIdx >= this.size())
+            throw new IndexOutOfBoundsException("The qbit index is out of bounds.");
+
+        this.flushPhases();
+        Profiler.Span span = Profiler.startMeasurement();
+        int bit = 1 << this.physical(qbitIdx);
+        double p1 = this.oneProba(bit);
+        boolean bitIs1 = Math.random() < p1;
+        this.project(bit, bitIs1, bitIs1 ? p1 : 1 - p1);
+        if (span != null)
+            span.endMeasurement(new int[]{qbitIdx}, this.re.length);
+        return bitIs1;
+    }
+
+    /**
+     * Give the probability that the measurement of a qbit gives 1, without measuring it.
+     * @param qbitIdx the index of the qbit in the register
+     * @return the probability to measure 1
+     */
+    public double bitProba(int qbitIdx) {
+        if (qbitIdx < 0 || qbitIdx >= this.size())
+            throw new IndexOutOfBoundsException("The qbit index is out of bounds.");
+
+        this.flushPhases();
+        return this.oneProba(1 << this.physical(qbitIdx));
+    }
+
+    /**
+     * Collapse the state as if the measurement of a qbit had given the chosen outcome.
+     * @param qbitIdx the index of the qbit in the register
+     * @param bitIs1 the outcome of the measurement, true for 1 and false for 0
+     * @return the qbit register after the measurement
+     */
+    public QBitRegister collapse(int qbitIdx, boolean bitIs1) {
+        if (qbitIdx < 0 || qbitIdx >= this.size())
+            throw new IndexOutOfBoundsException("The qbit index is out of bounds.");
+
+        this.flushPhases();
+        int bit = 1 << this.physical(qbitIdx);
+        double p1 = this.oneProba(bit);
+        double p = bitIs1 ? p1 : 1 - p1;
+        if (p <= 0)
+            throw new IllegalArgumentException("The outcome of the measurement cannot have a zero probability.");
+
+        this.project(bit, bitIs1, p);
+        return this;
+    }
+
+    /**
+     * Compute the probability that a physical bit of the index of the amplitudes is 1.
+     * @param bit the mask of the physical bit
+     * @return the sum of the square moduli of the coordinates whose index has the bit set
+     */
+    private double oneProba(int bit) {
+        double ret = 0;
+        for (int i = 0; i < this.re.length; i++)
+            if ((i & bit) != 0)
+                ret += this.re[i] * this.re[i] + this.im[i] * this.im[i];
+        return ret;
+    }
+
+    /**
+     * Project the state on the amplitudes whose index has a physical bit with the given value.
+     * @param bit the mask of the physical bit
+     * @param bitIs1 the value of the bit in the kept amplitudes
+     * @param p the probability of the kept amplitudes
+     */
+    private void project(int bit, boolean bitIs1, double p) {
+        // the coordinates of the drawn outcome are renormalized, the other ones become 0
+        double norm = Math.sqrt(p);
+        for (int i = 0; i < this.re.length; i++) {
+            if (((i & bit) != 0) == bitIs1) {
+                this.re[i] /= norm;
+                this.im[i] /= norm;
+            } else {
+                this.re[i] = 0;
+                this.im[i] = 0;
+            }
+        }
     }
 
     /**
      * Create a deep copy of the qbit register, even though it is physically impossible.
      * @return a copy of the qbit register
      */
+    @Override
     public QBitRegister copy() {
-        Complex[] coordinates = new Complex[this.state.length()];
-        for (int i = 0; i < this.state.length(); i++)
-            coordinates[i] = this.state.getCoordinate(i);
-        return new QBitRegister(coordinates);
+        QBitRegister ret = new QBitRegister(this.re.clone(), this.im.clone());
+        ret.layout = this.layout == null ? null : this.layout.clone();
+        if (this.phaseQbits != null) {
+            ret.phaseQbits = this.phaseQbits.clone();
+            ret.phaseRe = this.phaseRe.clone();
+            ret.phaseIm = this.phaseIm.clone();
+        }
+        return ret;
+    }
+
+    /**
+     * Get a read-only view of the real parts of a range of coordinates, without copy.
+     * The view follows the later changes of the state until the next gate which moves the amplitudes.
+     * @param from the first basic state of the range, inclusive
+     * @param to the last basic state of the range, exclusive
+     * @return the real parts of the coordinates of the basic states from "from" to "to", the basic state "from"
+     * being at the position 0 of the buffer
+     */
+    public DoubleBuffer realView(int from, int to) {
+        return view(this.realParts(), from, to);
+    }
+
+    /**
+     * Get a read-only view of the imaginary parts of a range of coordinates, without copy.
+     * The view follows the later changes of the state until the next gate which moves the amplitudes.
+     * @param from the first basic state of the range, inclusive
+     * @param to the last basic state of the range, exclusive
+     * @return the imaginary parts of the coordinates of the basic states from "from" to "to", the basic state
+     * "from" being at the position 0 of the buffer
+     */
+    public DoubleBuffer imaginaryView(int from, int to) {
+        return view(this.imaginaryParts(), from, to);
+    }
+
+    /**
+     * Give all the coordinates of the register to a consumer, without allocating any complex. For large
+     * registers, the consumer is called in parallel from several threads, in no particular order.
+     * @param consumer the consumer of the coordinates
+     */
+    public void forEachAmplitude(IndexedAmplitudeConsumer consumer) {
+        if (consumer == null)
+            throw new NullPointerException("The amplitude consumer cannot be null.");
+
+        double[] re = this.realParts();
+        double[] im = this.imaginaryParts();
+        int blockSize = Math.min(Tuning.blockSize(), re.length);
+        this.blocks(blockSize).forEach(b -> {
+            for (int i = b * blockSize; i < (b + 1) * blockSize; i++)
+                consumer.accept(i, re[i], im[i]);
+        });
+    }
+
+    /**
+     * Compute the inner product <this|other> of the state of the register with the state of another register,
+     * in a single sweep which is parallel for large registers.
+     * @param other the other register, which must have the same size
+     * @return the sum over the basic states of the conjugate of the coordinate in this register times the
+     * coordinate in the other one
+     */
+    public Complex innerProduct(QBitRegister other) {
+        if (other == null)
+            throw new NullPointerException("The other register cannot be null.");
+
+        if (other.re.length != this.re.length)
+            throw new IllegalArgumentException("The registers must have the same size.");
+
+        this.flushPhases();
+        other.flushPhases();
+        int[][] tables = this.indexTables(other);
+        int blockLength = Math.min(Tuning.blockSize(), this.re.length);
+        return sumBlocks(this.blocks(blockLength), this.re.length / blockLength, b -> {
+            double sumRe = 0, sumIm = 0;
+            for (int i = b * blockLength; i < (b + 1) * blockLength; i++) {
+                int j = tables == null ? i : tables[0][i & (tables[0].length - 1)] | tables[1][i / tables[0].length];
+                // conj(a) * b
+                sumRe += this.re[i] * other.re[j] + this.im[i] * other.im[j];
+                sumIm += this.re[i] * other.im[j] - this.im[i] * other.re[j];
+            }
+            return new Complex(sumRe, sumIm);
+        });
+    }
+
+    /**
+     * Compute the fidelity between the state of the register and the state of another register, i.e. the
+     * square modulus of their inner product.
+     * @param other the other register, which must have the same size
+     * @return the fidelity, between 0 and 1 for normalized states
+     */
+    public double fidelity(QBitRegister other) {
+        Complex product = this.innerProduct(other);
+        return product.getRe() * product.getRe() + product.getIm() * product.getIm();
+    }
+
+    /**
+     * Tell if the state of the register is equal to the state of another register, up to a tolerance on the
+     * real and imaginary parts of each coordinate. The comparison runs in parallel for large registers and
+     * stops at the first coordinates which differ.
+     * @param other the other register
+     * @param tolerance the largest accepted difference between the parts of two coordinates
+     * @return true if and only if the registers have the same size and all their coordinates are equal up to the
+     * tolerance
+     */
+    public boolean approxEquals(QBitRegister other, double tolerance) {
+        if (other == null)
+            throw new NullPointerException("The other register cannot be null.");
+
+        if (!(tolerance >= 0))
+            throw new IllegalArgumentException("The tolerance cannot be negative.");
+
+        if (other.re.length != this.re.length)
+            return false;
+
+        this.flushPhases();
+        other.flushPhases();
+        int[][] tables = this.indexTables(other);
+        int blockLength = Math.min(Tuning.blockSize(), this.re.length);
+        return this.blocks(blockLength).allMatch(b -> {
+            for (int i = b * blockLength; i < (b + 1) * blockLength; i++) {
+                int j = tables == null ? i : tables[0][i & (tables[0].length - 1)] | tables[1][i / tables[0].length];
+                if (!(Math.abs(this.re[i] - other.re[j]) <= tolerance && Math.abs(this.im[i] - other.im[j]) <= tolerance))
+                    return false;
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Get the real parts of the coordinates in the logical order, without copy.
+     * The pending diagonal gates are applied and the identity layout of the qbits is restored first if needed.
+     * @return the array of the real parts
+     */
+    double[] realParts() {
+        this.flushPhases();
+        this.restoreLayout();
+        return this.re;
+    }
+
+    /**
+     * Get the imaginary parts of the coordinates in the logical order, without copy.
+     * The pending diagonal gates are applied and the identity layout of the qbits is restored first if needed.
+     * @return the array of the imaginary parts
+     */
+    double[] imaginaryParts() {
+        this.flushPhases();
+        this.restoreLayout();
+        return this.im;
+    }
+
+    /**
+     * Accumulate a diagonal gate into the table of the pending phases. The pending phases are flushed first if
+     * the gate would make them act on too many qbits.
+     * @param qbitsIdx the sorted indexes of the logical qbits of the gate
+     * @param dRe the real parts of the diagonal of the gate matrix
+     * @param dIm the imaginary parts of the diagonal of the gate matrix
+     */
+    private void deferPhases(int[] qbitsIdx, double[] dRe, double[] dIm) {
+        int[] oldQbits = this.phaseQbits == null ? new int[0] : this.phaseQbits;
+        // the new qbits are appended to the phase qbits, so that the old phases are indexed by the lowest bits
+        int[] qbits = Arrays.copyOf(oldQbits, oldQbits.length + qbitsIdx.length);
+        int k = oldQbits.length;
+        for (int q : qbitsIdx) {
+            boolean known = false;
+            for (int j = 0; j < oldQbits.length; j++)
+                known |= oldQbits[j] == q;
+            if (!known)
+                qbits[k++] = q;
+        }
+        if (k > MAX_PHASE_QBITS) {
+            this.flushPhases();
+            this.deferPhases(qbitsIdx, dRe, dIm);
+            return;
+        }
+        qbits = Arrays.copyOf(qbits, k);
+
+        // position of each qbit of the gate among the phase qbits
+        int[] positions = new int[qbitsIdx.length];
+        for (int i = 0; i < qbitsIdx.length; i++)
+            for (int j = 0; j < k; j++)
+                if (qbits[j] == qbitsIdx[i])
+                    positions[i] = j;
+
+        int oldMask = (1 << oldQbits.length) - 1;
+        double[] phaseRe = new double[1 << k];
+        double[] phaseIm = new double[1 << k];
+        for (int t = 0; t < phaseRe.length; t++) {
+            double pRe = this.phaseQbits == null ? 1 : this.phaseRe[t & oldMask];
+            double pIm = this.phaseQbits == null ? 0 : this.phaseIm[t & oldMask];
+            int d = 0;
+            for (int i = 0; i < positions.length; i++)
+                if ((t & (1 << positions[i])) != 0)
+                    d |= 1 << i;
+            phaseRe[t] = pRe * dRe[d] - pIm * dIm[d];
+            phaseIm[t] = pRe * dIm[d] + pIm * dRe[d];
+        }
+        this.phaseQbits = qbits;
+        this.phaseRe = phaseRe;
+        this.phaseIm = phaseIm;
+    }
+
+    /**
+     * Multiply the state by the pending phases in a single sweep.
+     */
+    private void flushPhases() {
+        if (this.phaseQbits == null)
+            return;
+
+        Profiler.Span span = Profiler.startGate();
+        if (this.phaseQbits.length == 1) {
+            KERNELS.applyDiagonal(this.re, this.im, 1 << this.physical(this.phaseQbits[0]),
+                    new double[]{this.phaseRe[0], this.phaseIm[0], this.phaseRe[1], this.phaseIm[1]});
+        } else {
+            this.multiplyPhases();
+        }
+        if (span != null)
+            span.endGate("PHASE", this.phaseQbits.clone(), this.re.length);
+        this.phaseQbits = null;
+        this.phaseRe = null;
+        this.phaseIm = null;
+    }
+
+    /**
+     * Multiply each amplitude by the pending phase of its basic state.
+     */
+    private void multiplyPhases() {
+        // the index in the phase table is gathered from the low and the high bits of the index of the amplitude
+        // with two lookup tables
+        int lowBits = Math.min(PHASE_LOOKUP_BITS, this.size());
+        int[] low = new int[1 << lowBits];
+        int[] high = new int[this.re.length >>> lowBits];
+        for (int j = 0; j < this.phaseQbits.length; j++) {
+            int bit = this.physical(this.phaseQbits[j]);
+            if (bit < lowBits) {
+                for (int x = 0; x < low.length; x++)
+                    if ((x & (1 << bit)) != 0)
+                        low[x] |= 1 << j;
+            } else {
+                for (int x = 0; x < high.length; x++)
+                    if ((x & (1 << (bit - lowBits))) != 0)
+                        high[x] |= 1 << j;
+            }
+        }
+        for (int h = 0; h < high.length; h++) {
+            int start = h << lowBits;
+            int highIdx = high[h];
+            for (int l = 0; l < low.length; l++) {
+                int t = highIdx | low[l];
+                int i = start + l;
+                double pRe = this.phaseRe[t], pIm = this.phaseIm[t];
+                double aRe = this.re[i], aIm = this.im[i];
+                this.re[i] = pRe * aRe - pIm * aIm;
+                this.im[i] = pRe * aIm + pIm * aRe;
+            }
+        }
+    }
+
+    /**
+     * Move the qbits back to the physical bits matching their logical indexes.
+     */
+    void restoreLayout() {
+        if (this.layout == null)
+            return;
+        for (int q = 0; q < this.layout.length; q++) {
+            int r = q;
+            while (this.layout[r] != q)
+                r++;
+            if (r != q)
+                this.swapPhysical(q, r);
+        }
+        this.layout = null;
+    }
+
+    /**
+     * Enable or disable the moves of the hot qbits to the cache-local bits for the next gates.
+     * @param enabled true to move the hot qbits
+     */
+    static void setRemap(boolean enabled) {
+        remap = enabled;
+    }
+
+    /**
+     * Count a gate applied on a logical qbit, if the register is large enough to be remapped.
+     * @param qbitIdx the index of the logical qbit
+     */
+    private void heat(int qbitIdx) {
+        if (!remap || this.re.length <= 1 << LOCAL_QBITS)
+            return;
+        if (this.heat == null)
+            this.heat = new int[this.size()];
+        this.heat[qbitIdx]++;
+    }
+
+    /**
+     * Periodically move the hottest qbit stored in a high physical bit to the physical bit of the coldest
+     * qbit stored in a cache-local bit, if the former is much hotter than the latter.
+     */
+    private void remapIfNeeded() {
+        if (this.heat == null || ++this.gatesSinceRemap < REMAP_PERIOD)
+            return;
+
+        this.gatesSinceRemap = 0;
+        int hot = -1;
+        int cold = -1;
+        for (int q = 0; q < this.heat.length; q++) {
+            if (this.physical(q) >= LOCAL_QBITS) {
+                if (hot == -1 || this.heat[q] > this.heat[hot])
+                    hot = q;
+            } else if (cold == -1 || this.heat[q] < this.heat[cold]) {
+                cold = q;
+            }
+        }
+        if (this.heat[hot] >= MIN_HEAT && this.heat[hot] > 2 * this.heat[cold])
+            this.swapPhysical(hot, cold);
+        // the heat decays so that the layout follows the recent gates
+        for (int q = 0; q < this.heat.length; q++)
+            this.heat[q] /= 2;
+    }
+
+    /**
+     * Swap the physical bits of two logical qbits, moving the amplitudes in a single in-place pass.
+     * @param a the index of the first logical qbit
+     * @param b the index of the second logical qbit
+     */
+    private void swapPhysical(int a, int b) {
+        if (this.layout == null) {
+            this.layout = new int[this.size()];
+            for (int q = 0; q < this.layout.length; q++)
+                this.layout[q] = q;
+        }
+        int bitA = 1 << this.layout[a];
+        int bitB = 1 << this.layout[b];
+        for (int i = 0; i < this.re.length; i++) {
+            if ((i & bitA) == 0 || (i & bitB) != 0) continue;
+            int j = i ^ bitA ^ bitB;
+            double tmp = this.re[i];
+            this.re[i] = this.re[j];
+            this.re[j] = tmp;
+            tmp = this.im[i];
+            this.im[i] = this.im[j];
+            this.im[j] = tmp;
+        }
+        int tmp = this.layout[a];
+        this.layout[a] = this.layout[b];
+        this.layout[b] = tmp;
+    }
+
+    /**
+     * Check a list of selected qbits, which may be given in any order.
+     * @param qbitsIdx the indexes of the selected qbits
+     */
+    private void checkSelection(int[] qbitsIdx) {
+        if (qbitsIdx == null)
+            throw new NullPointerException("The list of qbits indexes cannot be null.");
+
+        if (qbitsIdx.length == 0)
+            throw new IllegalArgumentException("There must be at least 1 selected qubit.");
+
+        for (int i = 0; i < qbitsIdx.length; i++)
+            if (qbitsIdx[i] < 0 || qbitsIdx[i] >= this.size())
+                throw new IndexOutOfBoundsException("One of the qbit indexes is out of bounds.");
+            else for (int j = 0; j < i; j++)
+                if (qbitsIdx[i] == qbitsIdx[j])
+                    throw new IllegalArgumentException("The list of qbit indexes cannot contain duplicates.");
+    }
+
+    /**
+     * Get the stream of the indexes of the blocks of amplitudes of a sweep of the state, which is parallel for
+     * large registers.
+     * @param blockLength the number of amplitudes of a block, which divides the number of amplitudes
+     * @return the stream of the block indexes
+     */
+    private IntStream blocks(int blockLength) {
+        IntStream ret = IntStream.range(0, this.re.length / blockLength);
+        return Tuning.isParallel(this.re.length) ? ret.parallel() : ret;
+    }
+
+    /**
+     * Get the indexes of all the qbits of the register.
+     * @return the array of the qbit indexes, in increasing order
+     */
+    private int[] qbits() {
+        int[] ret = new int[this.size()];
+        for (int i = 0; i < ret.length; i++)
+            ret[i] = i;
+        return ret;
+    }
+
+    /**
+     * Get the physical bit of a logical qbit.
+     * @param qbitIdx the index of the logical qbit
+     * @return the index of the physical bit
+     */
+    private int physical(int qbitIdx) {
+        return this.layout == null ? qbitIdx : this.layout[qbitIdx];
+    }
+
+    /**
+     * Get the index of the amplitude of a basic state.
+     * @param basicState the logical index of the basic state
+     * @return the physical index of the amplitude
+     */
+    private int physicalIndex(int basicState) {
+        if (this.layout == null)
+            return basicState;
+        int ret = 0;
+        for (int q = 0; q < this.layout.length; q++)
+            if ((basicState & (1 << q)) != 0)
+                ret |= 1 << this.layout[q];
+        return ret;
+    }
+
+    /**
+     * Build the lookup tables mapping the index of an amplitude of the register to the index of the amplitude of
+     * the same basic state in another register of the same size, whose layout may differ.
+     * @param other the other register
+     * @return null if the registers have the same layout, otherwise the table mapping the lowest bits of the
+     * indexes, whose length is a power of 2, and the table mapping the other bits
+     */
+    private int[][] indexTables(QBitRegister other) {
+        if (Arrays.equals(this.layout, other.layout))
+            return null;
+
+        int n = this.size();
+        int[] bitMap = new int[n];
+        for (int q = 0; q < n; q++)
+            bitMap[this.layout == null ? q : this.layout[q]] = other.layout == null ? q : other.layout[q];
+        int lowBits = Math.min(INDEX_LOOKUP_BITS, n);
+        int[][] ret = {new int[1 << lowBits], new int[1 << (n - lowBits)]};
+        for (int t = 0; t < 2; t++) {
+            int from = t == 0 ? 0 : lowBits;
+            for (int x = 1; x < ret[t].length; x++) {
+                // the mapping of x is the one of x without its lowest set bit, plus the mapping of that bit
+                int bit = Integer.numberOfTrailingZeros(x);
+                ret[t][x] = ret[t][x & (x - 1)] | 1 << bitMap[from + bit];
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Get the basic state of the amplitude at a given index.
+     * @param index the physical index of the amplitude
+     * @return the logical index of the basic state
+     */
+    private int logicalIndex(int index) {
+        if (this.layout == null)
+            return index;
+        int ret = 0;
+        for (int q = 0; q < this.layout.length; q++)
+            if ((index & (1 << this.layout[q])) != 0)
+                ret |= 1 << q;
+        return ret;
     }
 
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof QBitRegister)) return false;
-        QBitRegister register = (QBitRegister) o;
-        return this.state.equals(register.state);
+        return this.approxEquals((QBitRegister) o, .000000001);
     }
 
     @Override
     public String toString() {
+        this.flushPhases();
+        ComplexVector state = new ComplexVector(this.re.length);
+        for (int i = 0; i < this.re.length; i++)
+            state.setCoordinate(this.logicalIndex(i), new Complex(this.re[i], this.im[i]));
         return state.toString();
     }
 
+    /**
+     * Add up the complex sums of blocks of amplitudes, which may be computed in parallel. The sums of the blocks
+     * are stored apart and added in the order of the blocks, so that the result is the same whatever the threads.
+     * @param blocks the stream of the block indexes, from 0 to the number of blocks
+     * @param count the number of blocks
+     * @param blockSum the function computing the sum of a block from its index
+     * @return the sum of all the blocks
+     */
+    static Complex sumBlocks(IntStream blocks, int count, IntFunction<Complex> blockSum) {
+        Complex[] sums = new Complex[count];
+        blocks.forEach(b -> sums[b] = blockSum.apply(b));
+        MutableComplex ret = new MutableComplex();
+        for (Complex sum : sums)
+            ret.plus(sum);
+        return ret.toComplex();
+    }
+
+    /**
+     * Get a read-only view of a range of an array.
+     * @param values the array
+     * @param from the first index of the range, inclusive
+     * @param to the last index of the range, exclusive
+     * @return the view of the range
+     */
+    private static DoubleBuffer view(double[] values, int from, int to) {
+        if (from < 0 || to > values.length || from > to)
+            throw new IndexOutOfBoundsException("The range of basic states is out of bounds.");
+
+        return DoubleBuffer.wrap(values, from, to - from).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Tell if a table of values is a bijection of its indexes.
+     * @param image the value of each index, between 0 and the length of the table
+     * @return true if and only if each index is the value of exactly one index
+     */
+    private static boolean isBijection(int[] image) {
+        boolean[] reached = new boolean[image.length];
+        for (int y : image) {
+            if (reached[y])
+                return false;
+            reached[y] = true;
+        }
+        return true;
+    }
+
+    /**
+     * Scatter the bits of a number to the positions of the bits set in a mask.
+     * @param number the number whose lowest bits are scattered
+     * @param mask the mask of the positions of the scattered bits
+     * @return the scattered bits
+     */
+    private static int deposit(int number, int mask) {
+        int ret = 0;
+        for (int bit = 1; mask != 0 && number != 0; bit <<= 1) {
+            int lowest = mask & -mask;
+            if ((number & bit) != 0)
+                ret |= lowest;
+            mask ^= lowest;
+            number &= ~bit;
+        }
+        return ret;
+    }
+
     /**
      * Convert a number to its binary representation.
      * @param number the number to convert
@@ -0,0 +1,380 @@
+package fr.ensibs.quansim;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A batch of independent qbit registers of the same size, on which the same gates are applied, e.g. the
+ * thousands of copies of a small register drawn one after the other to estimate probabilities.
+ *
+ * The states are stored in a structure of arrays: the coordinates of a basic state in all the registers of the
+ * batch are consecutive, at the index basicState * batchSize + instance. A gate thus combines the same rows of
+ * all the registers in one loop over consecutive coordinates, which the JIT compiler can vectorize, and no
+ * object is allocated per register. The measurements are drawn independently for each register.
+ */
+public class QBitRegisterBatch {
+
+    /**
+     * the number of qbits of each register
+     */
+    private final int size;
+
+    /**
+     * the number of registers of the batch
+     */
+    private final int batchSize;
+
+    /**
+     * the real parts of the states, the registers of the batch being interleaved
+     */
+    private final double[] re;
+
+    /**
+     * the imaginary parts of the states, the registers of the batch being interleaved
+     */
+    private final double[] im;
+
+    /**
+     * Constructor of a batch of registers whose qbits are all 0.
+     * @param n the number of qbits of each register
+     * @param batchSize the number of registers of the batch
+     */
+    public QBitRegisterBatch(int n, int batchSize) {
+        if (n <= 0)
+            throw new IllegalArgumentException("The number of qbits in the register must be positive.");
+
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("The number of registers of the batch must be positive.");
+
+        if (n > 30 || (long) batchSize << n > 1 << 30)
+            throw new IllegalArgumentException("The batch cannot hold more than 2^30 coordinates.");
+
+        this.size = n;
+        this.batchSize = batchSize;
+        this.re = new double[batchSize << n];
+        this.im = new double[batchSize << n];
+        Arrays.fill(this.re, 0, batchSize, 1);
+    }
+
+    /**
+     * Constructor of a batch of copies of a qbit register.
+     * @param register the copied qbit register
+     * @param batchSize the number of registers of the batch
+     */
+    public QBitRegisterBatch(QBitRegister register, int batchSize) {
+        this(register.size(), batchSize);
+        double[] re = register.realParts();
+        double[] im = register.imaginaryParts();
+        for (int i = 0; i < re.length; i++) {
+            Arrays.fill(this.re, i * batchSize, (i + 1) * batchSize, re[i]);
+            Arrays.fill(this.im, i * batchSize, (i + 1) * batchSize, im[i]);
+        }
+    }
+
+    /**
+     * Copy constructor.
+     * @param batch the batch to copy
+     */
+    private QBitRegisterBatch(QBitRegisterBatch batch) {
+        this.size = batch.size;
+        this.batchSize = batch.batchSize;
+        this.re = batch.re.clone();
+        this.im = batch.im.clone();
+    }
+
+    /**
+     * Get the number of qbits of each register of the batch.
+     * @return the size of the registers
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Get the number of registers of the batch.
+     * @return the batch size
+     */
+    public int batchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * Give the probability to draw the given basic state in a register of the batch.
+     * @param instance the index of the register in the batch
+     * @param basicState the decimal representation of the basic state (e.g. 3 = b011 in a 3 qbits register)
+     * @return the corresponding probability
+     */
+    public double proba(int instance, int basicState) {
+        if (instance < 0 || instance >= this.batchSize)
+            throw new IndexOutOfBoundsException("The register index is out of bounds.");
+
+        if (basicState < 0 || basicState >= 1 << this.size)
+            throw new IndexOutOfBoundsException("The basic state is out of bounds.");
+
+        int i = basicState * this.batchSize + instance;
+        return this.re[i] * this.re[i] + this.im[i] * this.im[i];
+    }
+
+    /**
+     * Apply a quantic gate on one or several qbits of all the registers of the batch, with the conventions of
+     * {@link QBitRegister#apply(ComplexMatrix, int...)}.
+     * @param qg the quantic gate matrix
+     * @param qbitsIdx the indexes of the qbits in the registers, which are sorted by the method
+     * @return the batch after the quantic gate
+     */
+    public QBitRegisterBatch apply(ComplexMatrix qg, int... qbitsIdx) {
+        if (qg == null)
+            throw new NullPointerException("The quantum gate matrix cannot be null.");
+
+        if (qg.width() != qg.height())
+            throw new IllegalArgumentException("The quantum gate matrix must be square.");
+
+        if (qbitsIdx == null)
+            throw new NullPointerException("The list of qbits indexes cannot be null.");
+
+        if (qbitsIdx.length == 0)
+            throw new IllegalArgumentException("There must be at least 1 selected qubit.");
+
+        if (qbitsIdx.length >= 31 || 1 << qbitsIdx.length != qg.width())
+            throw new IllegalArgumentException("The given quantic gate is incompatible with the number of qubits.");
+
+        Arrays.sort(qbitsIdx);
+        for (int i = 0; i < qbitsIdx.length; i++)
+            if (qbitsIdx[i] < 0 || qbitsIdx[i] >= this.size)
+                throw new IndexOutOfBoundsException("One of the qbit indexes is out of bounds.");
+            else if (i > 0 && qbitsIdx[i - 1] == qbitsIdx[i])
+                throw new IllegalArgumentException("The list of qbit indexes cannot contain duplicates.");
+
+        int dim = qg.width();
+        double[] gRe = new double[dim * dim];
+        double[] gIm = new double[dim * dim];
+        for (int y = 0; y < dim; y++) {
+            for (int x = 0; x < dim; x++) {
+                gRe[y * dim + x] = qg.getRe(x, y);
+                gIm[y * dim + x] = qg.getIm(x, y);
+            }
+        }
+
+        Profiler.Span span = Profiler.startGate();
+        if (dim == 2)
+            this.apply(gRe[0], gIm[0], gRe[1], gIm[1], gRe[2], gIm[2], gRe[3], gIm[3], 1 << qbitsIdx[0], 0);
+        else if (dim != 4 || !(this.applyControlled(gRe, gIm, qbitsIdx, 1) || this.applyControlled(gRe, gIm, qbitsIdx, 0)))
+            this.apply(gRe, gIm, qbitsIdx);
+        if (span != null)
+            span.endGate(qg, qbitsIdx, this.re.length);
+        return this;
+    }
+
+    /**
+     * Apply a 2 qbits gate as a controlled 2x2 gate if it has this form.
+     * @param gRe the real parts of the 4x4 gate matrix, row by row
+     * @param gIm the imaginary parts of the 4x4 gate matrix, row by row
+     * @param qbitsIdx the 2 sorted indexes of the qbits of the gate
+     * @param control the position of the control qbit among the qbits of the gate
+     * @return true if the gate has been applied, false if it is not a controlled gate with this control qbit
+     */
+    private boolean applyControlled(double[] gRe, double[] gIm, int[] qbitsIdx, int control) {
+        // the gate must be the identity on the basic states where the control qbit is 0
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                if ((x & (1 << control)) != 0 && (y & (1 << control)) != 0) continue;
+                if (gRe[4 * y + x] != (x == y ? 1 : 0) || gIm[4 * y + x] != 0)
+                    return false;
+            }
+        }
+        int a0 = 1 << control;
+        int a1 = a0 | (1 << (1 - control));
+        this.apply(gRe[4 * a0 + a0], gIm[4 * a0 + a0], gRe[4 * a0 + a1], gIm[4 * a0 + a1],
+                gRe[4 * a1 + a0], gIm[4 * a1 + a0], gRe[4 * a1 + a1], gIm[4 * a1 + a1],
+                1 << qbitsIdx[1 - control], 1 << qbitsIdx[control]);
+        return true;
+    }
+
+    /**
+     * Apply a 2x2 gate on a qbit of all the registers, on the basic states where a control qbit is 1.
+     * @param aRe the real part of the upper left cell of the gate matrix
+     * @param aIm the imaginary part of the upper left cell of the gate matrix
+     * @param bRe the real part of the upper right cell of the gate matrix
+     * @param bIm the imaginary part of the upper right cell of the gate matrix
+     * @param cRe the real part of the lower left cell of the gate matrix
+     * @param cIm the imaginary part of the lower left cell of the gate matrix
+     * @param dRe the real part of the lower right cell of the gate matrix
+     * @param dIm the imaginary part of the lower right cell of the gate matrix
+     * @param bit the mask of the qbit in the basic states
+     * @param controlMask the mask of the control qbit in the basic states, or 0 if the gate is not controlled
+     */
+    private void apply(double aRe, double aIm, double bRe, double bIm, double cRe, double cIm, double dRe,
+                       double dIm, int bit, int controlMask) {
+        int length = 1 << this.size;
+        int batch = this.batchSize;
+        for (int start = 0; start < length; start += 2 * bit) {
+            for (int i = start; i < start + bit; i++) {
+                if ((i & controlMask) != controlMask) continue;
+                int o0 = i * batch;
+                int o1 = (i | bit) * batch;
+                for (int b = 0; b < batch; b++) {
+                    double re0 = this.re[o0 + b], im0 = this.im[o0 + b];
+                    double re1 = this.re[o1 + b], im1 = this.im[o1 + b];
+                    this.re[o0 + b] = aRe * re0 - aIm * im0 + bRe * re1 - bIm * im1;
+                    this.im[o0 + b] = aRe * im0 + aIm * re0 + bRe * im1 + bIm * re1;
+                    this.re[o1 + b] = cRe * re0 - cIm * im0 + dRe * re1 - dIm * im1;
+                    this.im[o1 + b] = cRe * im0 + cIm * re0 + dRe * im1 + dIm * re1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply a gate on several qbits of all the registers.
+     * @param gRe the real parts of the gate matrix, row by row
+     * @param gIm the imaginary parts of the gate matrix, row by row
+     * @param qbitsIdx the sorted indexes of the qbits of the gate
+     */
+    private void apply(double[] gRe, double[] gIm, int[] qbitsIdx) {
+        int dim = 1 << qbitsIdx.length;
+        int batch = this.batchSize;
+        // offset of each row of a sub-vector from the start of the sub-vector, the j-th bit of the row index
+        // corresponding to the j-th selected qbit
+        int[] offsets = new int[dim];
+        int mask = 0;
+        for (int j = 0; j < qbitsIdx.length; j++)
+            mask |= 1 << qbitsIdx[j];
+        for (int r = 0; r < dim; r++)
+            for (int j = 0; j < qbitsIdx.length; j++)
+                if ((r & (1 << j)) != 0)
+                    offsets[r] |= 1 << qbitsIdx[j];
+
+        // the rows of the sub-vectors of all the registers are copied before being combined
+        double[] vRe = new double[dim * batch];
+        double[] vIm = new double[dim * batch];
+        for (int start = 0; start < 1 << this.size; start++) {
+            if ((start & mask) != 0) continue;
+            for (int r = 0; r < dim; r++) {
+                System.arraycopy(this.re, (start + offsets[r]) * batch, vRe, r * batch, batch);
+                System.arraycopy(this.im, (start + offsets[r]) * batch, vIm, r * batch, batch);
+            }
+            for (int y = 0; y < dim; y++) {
+                int o = (start + offsets[y]) * batch;
+                Arrays.fill(this.re, o, o + batch, 0);
+                Arrays.fill(this.im, o, o + batch, 0);
+                for (int x = 0; x < dim; x++) {
+                    double cRe = gRe[y * dim + x], cIm = gIm[y * dim + x];
+                    if (cRe == 0 && cIm == 0) continue;
+                    int v = x * batch;
+                    for (int b = 0; b < batch; b++) {
+                        this.re[o + b] += cRe * vRe[v + b] - cIm * vIm[v + b];
+                        this.im[o + b] += cRe * vIm[v + b] + cIm * vRe[v + b];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Measure a qbit in each register of the batch independently, and collapse each state according to its
+     * result.
+     * @param qbitIdx the index of the qbit in the registers
+     * @return the results of the measurements, true if the measured bit was 1 and false otherwise, by register
+     */
+    public boolean[] measure(int qbitIdx) {
+        if (qbitIdx < 0 || qbitIdx >= this.size)
+            throw new IndexOutOfBoundsException("The qbit index is out of bounds.");
+
+        Profiler.Span span = Profiler.startMeasurement();
+        int bit = 1 << qbitIdx;
+        int batch = this.batchSize;
+        double[] p1 = new double[batch];
+        for (int i = bit; i < 1 << this.size; i = (i + 1) | bit) {
+            int o = i * batch;
+            for (int b = 0; b < batch; b++)
+                p1[b] += this.re[o + b] * this.re[o + b] + this.im[o + b] * this.im[o + b];
+        }
+
+        // the coordinates of the drawn outcome are renormalized, the other ones become 0
+        boolean[] ret = new boolean[batch];
+        double[] factors0 = new double[batch];
+        double[] factors1 = new double[batch];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int b = 0; b < batch; b++) {
+            ret[b] = random.nextDouble() < p1[b];
+            if (ret[b])
+                factors1[b] = 1 / Math.sqrt(p1[b]);
+            else factors0[b] = 1 / Math.sqrt(1 - p1[b]);
+        }
+        for (int i = 0; i < 1 << this.size; i++) {
+            double[] factors = (i & bit) != 0 ? factors1 : factors0;
+            int o = i * batch;
+            for (int b = 0; b < batch; b++) {
+                this.re[o + b] *= factors[b];
+                this.im[o + b] *= factors[b];
+            }
+        }
+        if (span != null)
+            span.endMeasurement(new int[]{qbitIdx}, this.re.length);
+        return ret;
+    }
+
+    /**
+     * Draw a basic state in each register of the batch independently, and collapse each state on its drawn
+     * basic state.
+     * @return the decimal representations of the drawn basic states, by register
+     */
+    public int[] randomDraw() {
+        Profiler.Span span = Profiler.startMeasurement();
+        int batch = this.batchSize;
+        int length = 1 << this.size;
+        double[] drawnValues = new double[batch];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int b = 0; b < batch; b++)
+            drawnValues[b] = random.nextDouble();
+        // the drawn state of a register is the last one whose accumulated probability is below its drawn value
+        int[] ret = new int[batch];
+        double[] accumulators = new double[batch];
+        for (int i = 0; i < length - 1; i++) {
+            int o = i * batch;
+            for (int b = 0; b < batch; b++) {
+                accumulators[b] += this.re[o + b] * this.re[o + b] + this.im[o + b] * this.im[o + b];
+                if (accumulators[b] < drawnValues[b])
+                    ret[b] = i + 1;
+            }
+        }
+        Arrays.fill(this.re, 0);
+        Arrays.fill(this.im, 0);
+        for (int b = 0; b < batch; b++)
+            this.re[ret[b] * batch + b] = 1;
+        if (span != null) {
+            int[] qbitsIdx = new int[this.size];
+            for (int i = 0; i < qbitsIdx.length; i++)
+                qbitsIdx[i] = i;
+            span.endMeasurement(qbitsIdx, this.re.length);
+        }
+        return ret;
+    }
+
+    /**
+     * Get a copy of a register of the batch.
+     * @param instance the index of the register in the batch
+     * @return a qbit register with the state of the register of the batch
+     */
+    public QBitRegister register(int instance) {
+        if (instance < 0 || instance >= this.batchSize)
+            throw new IndexOutOfBoundsException("The register index is out of bounds.");
+
+        double[] re = new double[1 << this.size];
+        double[] im = new double[1 << this.size];
+        for (int i = 0; i < re.length; i++) {
+            re[i] = this.re[i * this.batchSize + instance];
+            im[i] = this.im[i * this.batchSize + instance];
+        }
+        return new QBitRegister(re, im);
+    }
+
+    /**
+     * Create a deep copy of the batch, even though it is physically impossible.
+     * @return a copy of the batch
+     */
+    public QBitRegisterBatch copy() {
+        return new QBitRegisterBatch(this);
+    }
+
+}
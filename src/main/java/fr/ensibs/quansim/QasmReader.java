@@ -0,0 +1,556 @@
+package fr.ensibs.quansim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static fr.ensibs.quansim.QuantumGates.*;
+
+/**
+ * A streaming reader of OpenQASM 2 programs, handing the operations over to a circuit listener as soon as
+ * they are parsed.
+ *
+ * The supported subset is made of the qreg, creg, barrier and measure statements and of the x, y, z, h, s,
+ * sdg, t, tdg, cx, cz, swap, rx, ry, rz, u1 (or p) and cu1 (or cp) gates, with parameters written as
+ * arithmetic expressions of numbers and pi. Gates and measurements applied on whole registers are broadcast on
+ * their qbits. The program is read in fixed-size
+ * chunks and only one statement is held in memory at a time, whatever the length of the circuit.
+ */
+public class QasmReader implements Closeable {
+
+    /**
+     * size of the chunks in which the program is read
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * the reader of the program
+     */
+    private final Reader reader;
+
+    /**
+     * the chunk of the program being parsed
+     */
+    private final char[] buffer = new char[BUFFER_SIZE];
+
+    /**
+     * the position of the next character to parse in the chunk
+     */
+    private int position;
+
+    /**
+     * the number of characters in the chunk
+     */
+    private int limit;
+
+    /**
+     * the current line in the program
+     */
+    private int line = 1;
+
+    /**
+     * the line at which the current statement starts
+     */
+    private int statementLine;
+
+    /**
+     * the text of the current statement
+     */
+    private final StringBuilder statement = new StringBuilder();
+
+    /**
+     * the quantum registers, associated with their offset and their size in the global register
+     */
+    private final Map<String, int[]> qregs = new LinkedHashMap<>();
+
+    /**
+     * the classical registers, associated with their offset and their size in the global classical register
+     */
+    private final Map<String, int[]> cregs = new LinkedHashMap<>();
+
+    /**
+     * the total number of declared qbits
+     */
+    private int qbits;
+
+    /**
+     * the total number of declared classical bits
+     */
+    private int bits;
+
+    /**
+     * true if the listener has been initialized
+     */
+    private boolean initialized;
+
+    /**
+     * Constructor.
+     * @param reader the reader of the OpenQASM program
+     */
+    public QasmReader(Reader reader) {
+        if (reader == null)
+            throw new NullPointerException("The reader cannot be null.");
+
+        this.reader = reader;
+    }
+
+    /**
+     * Read the whole program and hand its operations over to a listener.
+     * @param listener the listener receiving the operations
+     * @throws IOException if the program cannot be read
+     * @throws IllegalArgumentException if the program is malformed or uses unsupported features
+     */
+    public void read(CircuitListener listener) throws IOException {
+        if (listener == null)
+            throw new NullPointerException("The listener cannot be null.");
+
+        while (this.nextStatement())
+            this.execute(this.statement.toString().trim(), listener);
+        this.initialize(listener);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.reader.close();
+    }
+
+    /**
+     * Read the next statement of the program, without comments nor terminating semicolon.
+     * @return true if a statement has been read, false if the end of the program has been reached
+     * @throws IOException if the program cannot be read
+     */
+    private boolean nextStatement() throws IOException {
+        this.statement.setLength(0);
+        boolean empty = true;
+        int c;
+        while ((c = this.nextChar()) != -1) {
+            if (c == ';')
+                return true;
+            if (c == '/' && this.peekChar() == '/') {
+                while (c != -1 && c != '\n')
+                    c = this.nextChar();
+                this.statement.append(' ');
+                continue;
+            }
+            if (empty && !Character.isWhitespace(c)) {
+                empty = false;
+                this.statementLine = this.line;
+            }
+            this.statement.append((char) c);
+        }
+        if (!empty)
+            throw this.error("Missing semicolon at the end of the program.");
+        return false;
+    }
+
+    /**
+     * Read the next character of the program, refilling the chunk if needed.
+     * @return the character, or -1 at the end of the program
+     * @throws IOException if the program cannot be read
+     */
+    private int nextChar() throws IOException {
+        if (this.peekChar() == -1)
+            return -1;
+        char c = this.buffer[this.position++];
+        if (c == '\n')
+            this.line++;
+        return c;
+    }
+
+    /**
+     * Get the next character of the program without consuming it, refilling the chunk if needed.
+     * @return the character, or -1 at the end of the program
+     * @throws IOException if the program cannot be read
+     */
+    private int peekChar() throws IOException {
+        while (this.position >= this.limit) {
+            this.limit = this.reader.read(this.buffer);
+            this.position = 0;
+            if (this.limit == -1) {
+                this.limit = 0;
+                return -1;
+            }
+        }
+        return this.buffer[this.position];
+    }
+
+    /**
+     * Execute a statement of the program.
+     * @param text the text of the statement
+     * @param listener the listener receiving the operations
+     */
+    private void execute(String text, CircuitListener listener) {
+        if (text.isEmpty())
+            return;
+
+        int end = 0;
+        while (end < text.length() && (Character.isLetterOrDigit(text.charAt(end)) || text.charAt(end) == '_'))
+            end++;
+        String keyword = text.substring(0, end);
+        String rest = text.substring(end).trim();
+
+        switch (keyword) {
+            case "OPENQASM":
+                if (!rest.startsWith("2"))
+                    throw this.error("Only OpenQASM 2 programs are supported.");
+                break;
+            case "include":
+            case "barrier":
+                break;
+            case "qreg":
+                this.declare(rest, this.qregs, true);
+                break;
+            case "creg":
+                this.declare(rest, this.cregs, false);
+                break;
+            case "measure":
+                this.measure(rest, listener);
+                break;
+            case "gate":
+            case "opaque":
+            case "if":
+            case "reset":
+                throw this.error("The '" + keyword + "' statement is not supported.");
+            default:
+                this.gate(keyword, rest, listener);
+        }
+    }
+
+    /**
+     * Declare a quantum or classical register.
+     * @param text the declaration, e.g. "q[3]"
+     * @param registers the quantum or classical registers
+     * @param quantum true for a quantum register, false for a classical register
+     */
+    private void declare(String text, Map<String, int[]> registers, boolean quantum) {
+        if (this.initialized)
+            throw this.error("Registers must be declared before the first operation.");
+
+        int open = text.indexOf('[');
+        int close = text.indexOf(']');
+        if (open <= 0 || close < open)
+            throw this.error("Malformed register declaration.");
+
+        String name = text.substring(0, open).trim();
+        int size = this.parseIndex(text.substring(open + 1, close));
+        if (size <= 0)
+            throw this.error("The size of a register must be positive.");
+        if (registers.containsKey(name))
+            throw this.error("The register '" + name + "' is already declared.");
+
+        if (quantum) {
+            registers.put(name, new int[]{this.qbits, size});
+            this.qbits += size;
+        } else {
+            registers.put(name, new int[]{this.bits, size});
+            this.bits += size;
+        }
+    }
+
+    /**
+     * Execute a measurement statement.
+     * @param text the arguments of the measurement, e.g. "q[0] -> c[0]"
+     * @param listener the listener receiving the operations
+     */
+    private void measure(String text, CircuitListener listener) {
+        int arrow = text.indexOf("->");
+        if (arrow < 0)
+            throw this.error("Malformed measurement.");
+
+        int[] qbitsIdx = this.resolve(text.substring(0, arrow).trim(), this.qregs);
+        int[] bitsIdx = this.resolve(text.substring(arrow + 2).trim(), this.cregs);
+        if (qbitsIdx.length != bitsIdx.length)
+            throw this.error("The measured registers must have the same size.");
+
+        this.initialize(listener);
+        for (int i = 0; i < qbitsIdx.length; i++)
+            listener.measure(qbitsIdx[i], bitsIdx[i]);
+    }
+
+    /**
+     * Execute a gate statement.
+     * @param name the name of the gate
+     * @param text the parameters and arguments of the gate, e.g. "(pi/2) q[0]"
+     * @param listener the listener receiving the operations
+     */
+    private void gate(String name, String text, CircuitListener listener) {
+        double[] params = new double[0];
+        if (text.startsWith("(")) {
+            int close = text.indexOf(')');
+            int depth = 0;
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '(') depth++;
+                else if (text.charAt(i) == ')' && --depth == 0) {
+                    close = i;
+                    break;
+                }
+            }
+            if (close < 0)
+                throw this.error("Malformed gate parameters.");
+            String[] exprs = text.substring(1, close).split(",");
+            params = new double[exprs.length];
+            for (int i = 0; i < exprs.length; i++)
+                params[i] = new Expression(exprs[i]).parse();
+            text = text.substring(close + 1).trim();
+        }
+
+        String[] args = text.split(",");
+        int[][] qbitsIdx = new int[args.length][];
+        int broadcast = 1;
+        for (int i = 0; i < args.length; i++) {
+            qbitsIdx[i] = this.resolve(args[i].trim(), this.qregs);
+            if (qbitsIdx[i].length > 1) {
+                if (broadcast > 1 && broadcast != qbitsIdx[i].length)
+                    throw this.error("The registers of a gate must have the same size.");
+                broadcast = qbitsIdx[i].length;
+            }
+        }
+
+        ComplexMatrix matrix = this.matrix(name, params, args.length);
+        String gateName = name.equalsIgnoreCase("cx") ? "CNOT" : name.toUpperCase();
+        this.initialize(listener);
+        for (int b = 0; b < broadcast; b++) {
+            int[] gateQbits = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+                gateQbits[i] = qbitsIdx[i].length > 1 ? qbitsIdx[i][b] : qbitsIdx[i][0];
+            try {
+                listener.gate(new Gate(gateName, matrix, gateQbits));
+            } catch (IllegalArgumentException e) {
+                throw this.error(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Get the matrix of a gate.
+     * @param name the name of the gate
+     * @param params the parameters of the gate
+     * @param arity the number of qbits given to the gate
+     * @return the matrix of the gate
+     */
+    private ComplexMatrix matrix(String name, double[] params, int arity) {
+        int expectedParams = 0;
+        int expectedArity = 1;
+        ComplexMatrix matrix;
+        switch (name) {
+            case "x": matrix = X; break;
+            case "y": matrix = Y; break;
+            case "z": matrix = Z; break;
+            case "h": matrix = H; break;
+            case "s": matrix = S; break;
+            case "t": matrix = T; break;
+            case "sdg": matrix = PHASE(-Math.PI / 2); break;
+            case "tdg": matrix = PHASE(-Math.PI / 4); break;
+            case "cz": matrix = CZ; expectedArity = 2; break;
+            case "cx":
+            case "CX": matrix = CNOT; expectedArity = 2; break;
+            case "swap": matrix = SWAP; expectedArity = 2; break;
+            case "rx": matrix = params.length == 1 ? RX(params[0]) : null; expectedParams = 1; break;
+            case "ry": matrix = params.length == 1 ? RY(params[0]) : null; expectedParams = 1; break;
+            case "rz": matrix = params.length == 1 ? RZ(params[0]) : null; expectedParams = 1; break;
+            case "u1":
+            case "p": matrix = params.length == 1 ? PHASE(params[0]) : null; expectedParams = 1; break;
+            case "cu1":
+            case "cp": matrix = params.length == 1 ? CPHASE(params[0]) : null; expectedParams = 1; expectedArity = 2; break;
+            default: throw this.error("The gate '" + name + "' is not supported.");
+        }
+        if (params.length != expectedParams)
+            throw this.error("The gate '" + name + "' expects " + expectedParams + " parameter(s).");
+        if (arity != expectedArity)
+            throw this.error("The gate '" + name + "' expects " + expectedArity + " qbit(s).");
+        return matrix;
+    }
+
+    /**
+     * Resolve an argument into global qbit or bit indexes.
+     * @param arg the argument, either a whole register ("q") or one of its elements ("q[1]")
+     * @param registers the quantum or classical registers
+     * @return the global indexes designated by the argument
+     */
+    private int[] resolve(String arg, Map<String, int[]> registers) {
+        int open = arg.indexOf('[');
+        String name = open < 0 ? arg : arg.substring(0, open).trim();
+        int[] register = registers.get(name);
+        if (register == null)
+            throw this.error("The register '" + name + "' is not declared.");
+
+        if (open < 0) {
+            int[] ret = new int[register[1]];
+            for (int i = 0; i < ret.length; i++)
+                ret[i] = register[0] + i;
+            return ret;
+        }
+
+        int close = arg.indexOf(']');
+        if (close < open)
+            throw this.error("Malformed argument '" + arg + "'.");
+        int idx = this.parseIndex(arg.substring(open + 1, close));
+        if (idx < 0 || idx >= register[1])
+            throw this.error("The index " + idx + " is out of the bounds of '" + name + "'.");
+        return new int[]{register[0] + idx};
+    }
+
+    /**
+     * Parse an index or a size.
+     * @param text the text of the index
+     * @return the parsed index
+     */
+    private int parseIndex(String text) {
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            throw this.error("Malformed index '" + text.trim() + "'.");
+        }
+    }
+
+    /**
+     * Initialize the listener with the declared registers, if not done yet.
+     * @param listener the listener receiving the operations
+     */
+    private void initialize(CircuitListener listener) {
+        if (this.initialized)
+            return;
+        if (this.qbits == 0)
+            throw this.error("No quantum register is declared.");
+        listener.init(this.qbits, this.bits);
+        this.initialized = true;
+    }
+
+    /**
+     * Create an exception for an error in the current statement.
+     * @param message the description of the error
+     * @return the exception to throw
+     */
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Line " + this.statementLine + ": " + message);
+    }
+
+    /**
+     * A recursive-descent parser of the arithmetic expressions of gate parameters.
+     */
+    private class Expression {
+
+        /**
+         * the text of the expression
+         */
+        private final String text;
+
+        /**
+         * the position of the next character to parse
+         */
+        private int pos;
+
+        /**
+         * Constructor.
+         * @param text the text of the expression
+         */
+        private Expression(String text) {
+            this.text = text;
+        }
+
+        /**
+         * Parse the whole expression.
+         * @return the value of the expression
+         */
+        private double parse() {
+            double value = this.sum();
+            this.skipSpaces();
+            if (this.pos != this.text.length())
+                throw error("Malformed expression '" + this.text.trim() + "'.");
+            return value;
+        }
+
+        /**
+         * Parse a sum or a difference of products.
+         * @return the value of the sum
+         */
+        private double sum() {
+            double value = this.product();
+            while (true) {
+                if (this.eat('+')) value += this.product();
+                else if (this.eat('-')) value -= this.product();
+                else return value;
+            }
+        }
+
+        /**
+         * Parse a product or a quotient of factors.
+         * @return the value of the product
+         */
+        private double product() {
+            double value = this.factor();
+            while (true) {
+                if (this.eat('*')) value *= this.factor();
+                else if (this.eat('/')) value /= this.factor();
+                else return value;
+            }
+        }
+
+        /**
+         * Parse a signed number, pi or a parenthesized expression.
+         * @return the value of the factor
+         */
+        private double factor() {
+            if (this.eat('-')) return -this.factor();
+            if (this.eat('+')) return this.factor();
+            if (this.eat('(')) {
+                double value = this.sum();
+                if (!this.eat(')'))
+                    throw error("Missing parenthesis in '" + this.text.trim() + "'.");
+                return value;
+            }
+            this.skipSpaces();
+            if (this.text.startsWith("pi", this.pos)) {
+                this.pos += 2;
+                return Math.PI;
+            }
+            int start = this.pos;
+            while (this.pos < this.text.length() && (Character.isDigit(this.text.charAt(this.pos))
+                    || this.text.charAt(this.pos) == '.' || this.isExponent(this.pos)
+                    || (this.pos > start && this.isExponent(this.pos - 1)
+                        && (this.text.charAt(this.pos) == '-' || this.text.charAt(this.pos) == '+'))))
+                this.pos++;
+            try {
+                return Double.parseDouble(this.text.substring(start, this.pos));
+            } catch (NumberFormatException e) {
+                throw error("Malformed expression '" + this.text.trim() + "'.");
+            }
+        }
+
+        /**
+         * Tell if a character of the expression is the exponent marker of a number.
+         * @param index the index of the character
+         * @return true if and only if the character is 'e' or 'E'
+         */
+        private boolean isExponent(int index) {
+            char c = this.text.charAt(index);
+            return c == 'e' || c == 'E';
+        }
+
+        /**
+         * Consume a character if it is the next non-space character of the expression.
+         * @param c the expected character
+         * @return true if the character has been consumed
+         */
+        private boolean eat(char c) {
+            this.skipSpaces();
+            if (this.pos < this.text.length() && this.text.charAt(this.pos) == c) {
+                this.pos++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Skip the spaces at the current position.
+         */
+        private void skipSpaces() {
+            while (this.pos < this.text.length() && Character.isWhitespace(this.text.charAt(this.pos)))
+                this.pos++;
+        }
+
+    }
+
+}
@@ -1,6 +1,28 @@
 package fr.ensibs.quansim;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.DoubleBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static fr.ensibs.quansim.QuantumGates.*;
 
@@ -35,9 +57,59 @@ public class QuansimTest {
         System.out.println();
         this.testIdentitiesEmpiric();
         System.out.println();
+        this.testIdentitiesExact();
+        System.out.println();
         this.testRegister();
         System.out.println();
         this.testEntanglement();
+        System.out.println();
+        this.testSharding();
+        System.out.println();
+        this.testOptimizer();
+        System.out.println();
+        this.testFactorization();
+        System.out.println();
+        this.testFourier();
+        System.out.println();
+        this.testGrover();
+        System.out.println();
+        this.testPermutation();
+        System.out.println();
+        this.testBranching();
+        System.out.println();
+        this.testService();
+        System.out.println();
+        this.testBatch();
+        System.out.println();
+        this.testTuning();
+        System.out.println();
+        this.testInPlaceArithmetic();
+        System.out.println();
+        this.testComparison();
+        System.out.println();
+        this.testGradient();
+        System.out.println();
+        this.testRemapping();
+        System.out.println();
+        this.testLargeRegister();
+        System.out.println();
+        this.testCheckpoint();
+        System.out.println();
+        this.testQasm();
+        System.out.println();
+        this.testProfiler();
+        System.out.println();
+        this.testAmplitudeViews();
+        System.out.println();
+        this.testExport();
+        System.out.println();
+        this.testFloatRegister();
+        System.out.println();
+        this.testServiceLimits();
+        System.out.println();
+        this.testDiagonalBatching();
+        System.out.println();
+        this.testKernels();
     }
 
     /**
@@ -259,6 +331,38 @@ public class QuansimTest {
         else System.out.println("failure");
     }
 
+    /**
+     * Test the quantum gates' identities on large random registers by comparing the exact resulting states.
+     */
+    private void testIdentitiesExact() {
+        System.out.println("EXACT TEST OF QUANTUM GATE IDENTITIES");
+        Random random = new Random();
+        List<IdentityVerifier.Case> cases = new ArrayList<>();
+        for (int n = 10; n <= 20; n += 2) {
+            QBitRegister initial = IdentityVerifier.randomRegister(n, random);
+            int q = random.nextInt(n);
+            int p = (q + 1 + random.nextInt(n - 1)) % n;
+            Gate x = new Gate("X", X, q), y = new Gate("Y", Y, q), z = new Gate("Z", Z, q), h = new Gate("H", H, q);
+            Gate cnot = new Gate("CNOT", CNOT, q, p);
+            cases.add(new IdentityVerifier.Case("X^2 = I on " + n + " qbits", initial, new Gate[]{x, x}, new Gate[0]));
+            cases.add(new IdentityVerifier.Case("Y^2 = I on " + n + " qbits", initial, new Gate[]{y, y}, new Gate[0]));
+            cases.add(new IdentityVerifier.Case("Z^2 = I on " + n + " qbits", initial, new Gate[]{z, z}, new Gate[0]));
+            cases.add(new IdentityVerifier.Case("H^2 = I on " + n + " qbits", initial, new Gate[]{h, h}, new Gate[0]));
+            cases.add(new IdentityVerifier.Case("HXH = Z on " + n + " qbits", initial, new Gate[]{h, x, h}, new Gate[]{z}));
+            cases.add(new IdentityVerifier.Case("HZH = X on " + n + " qbits", initial, new Gate[]{h, z, h}, new Gate[]{x}));
+            cases.add(new IdentityVerifier.Case("CNOT^2 = I on " + n + " qbits", initial, new Gate[]{cnot, cnot}, new Gate[0]));
+        }
+        boolean failure = false;
+        for (IdentityVerifier.Result result : new IdentityVerifier().verifyAll(cases))
+            if (!result.passed()) {
+                System.out.println(result);
+                failure = true;
+            }
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
     /**
      * Test of entanglement of 2 qubits.
      */
@@ -278,6 +382,920 @@ public class QuansimTest {
         else System.out.println("failure");
     }
 
+    /**
+     * Test of a register sharded across local worker processes, against a register held in memory.
+     */
+    private void testSharding() {
+        System.out.println("TEST OF SHARDED REGISTERS");
+        boolean failure = false;
+        try (ShardedQBitRegister sharded = new ShardedQBitRegister(5, 2)) {
+            QBitRegister model = new QBitRegister(5);
+            // the gates cross the shard qbits 3 and 4
+            Gate[] gates = {new Gate("H", H, 4), new Gate("CNOT", CNOT, 4, 0), new Gate("H", H, 1),
+                    new Gate("CNOT", CNOT, 1, 3), new Gate("SWAP", SWAP, 3, 4), new Gate("Y", Y, 3)};
+            for (Gate gate : gates) {
+                gate.applyTo(sharded);
+                gate.applyTo(model);
+            }
+            for (int i = 0; i < 1 << 5; i++)
+                if (Math.abs(sharded.proba(i) - model.proba(i)) > 1e-9) failure = true;
+            boolean[] draws = sharded.randomDraw();
+            // after the swap, qbit 3 is the negation of qbit 0 and qbit 4 is equal to qbit 1
+            if (draws[1] == draws[4] || draws[0] != draws[3]) failure = true;
+        } catch (IOException e) {
+            failure = true;
+        }
+        // the shards of a larger register exchange their amplitudes in several chunks
+        Random random = new Random();
+        try (ShardedQBitRegister sharded = new ShardedQBitRegister(16, 1)) {
+            QBitRegister model = new QBitRegister(16);
+            List<Gate> gates = new ArrayList<>();
+            for (int q = 0; q < 16; q++)
+                gates.add(new Gate("RY", RY(random.nextDouble() * Math.PI), q));
+            gates.add(new Gate("CNOT", CNOT, 15, 0));
+            gates.add(new Gate("RX", RX(random.nextDouble() * Math.PI), 15));
+            gates.add(new Gate("CNOT", CNOT, 7, 15));
+            for (Gate gate : gates) {
+                gate.applyTo(sharded);
+                gate.applyTo(model);
+            }
+            for (int i = 0; i < 200; i++) {
+                int state = random.nextInt(1 << 16);
+                if (Math.abs(sharded.proba(state) - model.proba(state)) > 1e-12) failure = true;
+            }
+        } catch (IOException e) {
+            failure = true;
+        }
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test of the circuit optimizer on the gate identities.
+     */
+    private void testOptimizer() {
+        System.out.println("TEST OF CIRCUIT OPTIMIZATION");
+        Circuit circuit = new Circuit(3, 0);
+        // X X = I through a gate on another qbit, H X H = Z, then Z Z = I, and CNOT CNOT = I
+        circuit.gate(new Gate("X", X, 0));
+        circuit.gate(new Gate("H", H, 1));
+        circuit.gate(new Gate("X", X, 0));
+        circuit.gate(new Gate("Z", Z, 2));
+        circuit.gate(new Gate("H", H, 2));
+        circuit.gate(new Gate("X", X, 2));
+        circuit.gate(new Gate("H", H, 2));
+        circuit.gate(new Gate("CNOT", CNOT, 1, 0));
+        circuit.gate(new Gate("CNOT", CNOT, 1, 0));
+        CircuitOptimizer optimizer = new CircuitOptimizer();
+        Circuit optimized = optimizer.optimize(circuit);
+
+        RegisterExecutor original = new RegisterExecutor();
+        circuit.replay(original);
+        RegisterExecutor result = new RegisterExecutor();
+        optimized.replay(result);
+        if (optimizer.removedGates() == 8 && optimized.gateCount() == 1
+                && original.getRegister().equals(result.getRegister()))
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test of a wide factorized register made of entangled pairs of qbits.
+     */
+    private void testFactorization() {
+        System.out.println("TEST OF FACTORIZED REGISTERS");
+        int n = 1000;
+        FactorizedQBitRegister register = new FactorizedQBitRegister(n);
+        for (int q = 0; q < n; q += 2)
+            register.apply(H, q + 1).apply(CNOT, q, q + 1);
+        boolean failure = register.clusterCount() != n / 2 || register.largestCluster() != 2;
+        boolean[] draws = register.randomDraw();
+        for (int q = 0; q < n; q += 2)
+            if (draws[q] != draws[q + 1]) failure = true;
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test of the quantum Fourier transform against its circuit of H, controlled phase and SWAP gates.
+     */
+    private void testFourier() {
+        System.out.println("TEST OF THE QUANTUM FOURIER TRANSFORM");
+        int n = 10;
+        QBitRegister initial = IdentityVerifier.randomRegister(n, new Random());
+        QBitRegister circuit = initial.copy();
+        for (int j = n - 1; j >= 0; j--) {
+            circuit.apply(H, j);
+            for (int l = j - 1; l >= 0; l--)
+                circuit.apply(CPHASE(Math.PI / (1 << (j - l))), l, j);
+        }
+        for (int j = 0; j < n / 2; j++)
+            circuit.apply(SWAP, j, n - 1 - j);
+        int[] qbits = new int[n];
+        for (int j = 0; j < n; j++)
+            qbits[j] = j;
+        QBitRegister fourier = initial.copy().applyQFT(qbits);
+        boolean failure = Math.abs(IdentityVerifier.fidelity(circuit, fourier) - 1) > 1e-9;
+        // the inverse transform on a permutation of the qbits restores the initial state
+        QBitRegister permuted = initial.copy().applyQFT(7, 2, 9, 0);
+        QBitRegister roundTrip = permuted.copy().applyInverseQFT(7, 2, 9, 0);
+        failure |= Math.abs(IdentityVerifier.fidelity(initial, roundTrip) - 1) > 1e-9;
+        // with smaller blocks than the register, the stages on the highest qbits are grouped in tiles and the
+        // stages coming after them on the lowest qbits are done pair by pair
+        int blockSize = Tuning.blockSize();
+        try {
+            for (int size : new int[]{256, 64}) {
+                Tuning.setBlockSize(size);
+                fourier = initial.copy().applyQFT(qbits);
+                failure |= Math.abs(IdentityVerifier.fidelity(circuit, fourier) - 1) > 1e-9;
+                failure |= !initial.copy().applyQFT(7, 2, 9, 0).approxEquals(permuted, 1e-12);
+                roundTrip = permuted.copy().applyInverseQFT(7, 2, 9, 0);
+                failure |= Math.abs(IdentityVerifier.fidelity(initial, roundTrip) - 1) > 1e-9;
+            }
+        } finally {
+            Tuning.setBlockSize(blockSize);
+        }
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test of a Grover search with a function-defined oracle, against the diffusion built from H gates.
+     */
+    private void testGrover() {
+        System.out.println("TEST OF GROVER SEARCH");
+        int n = 8;
+        int target = new Random().nextInt(1 << n);
+        QBitRegister register = new QBitRegister(n);
+        for (int q = 0; q < n; q++)
+            register.apply(H, q);
+        QBitRegister gates = register.copy();
+        int iterations = (int) (Math.PI / 4 * Math.sqrt(1 << n));
+        for (int k = 0; k < iterations; k++) {
+            register.groverIteration(i -> i == target);
+            // the diffusion is H on each qbit, a phase -1 on all the basic states but |0>, then H on each qbit
+            gates.applyOracle(i -> i == target);
+            for (int q = 0; q < n; q++)
+                gates.apply(H, q);
+            gates.applyPhase(i -> i == 0 ? 0 : Math.PI);
+            for (int q = 0; q < n; q++)
+                gates.apply(H, q);
+        }
+        boolean failure = Math.abs(IdentityVerifier.fidelity(register, gates) - 1) > 1e-9
+                || register.proba(target) < 0.99;
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test of a modular adder applied as a permutation of the amplitudes.
+     */
+    private void testPermutation() {
+        System.out.println("TEST OF PERMUTATIONS");
+        int n = 6;
+        Random random = new Random();
+        QBitRegister initial = IdentityVerifier.randomRegister(n, random);
+        int a = random.nextInt(8);
+        // the qbits 1, 3 and 5 are incremented by a modulo 8, then decremented by a modulo 8
+        QBitRegister added = initial.copy().applyPermutation(x -> (x + a) % 8, 1, 3, 5);
+        boolean failure = false;
+        for (int i = 0; i < 1 << n; i++) {
+            int x = (i >> 1 & 1) | (i >> 2 & 2) | (i >> 3 & 4);
+            int y = (x + a) % 8;
+            int j = (i & 0b010101) | (y & 1) << 1 | (y & 2) << 2 | (y & 4) << 3;
+            if (Math.abs(added.proba(j) - initial.proba(i)) > 1e-9) failure = true;
+        }
+        added.applyPermutation(x -> (x + 8 - a) % 8, 1, 3, 5);
+        failure |= !added.equals(initial);
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test of the shot-branching execution of a circuit whose gates depend on mid-circuit measurements.
+     */
+    private void testBranching() {
+        System.out.println("TEST OF SHOT BRANCHING");
+        // the qbit 2 copies the measured qbit 0, the qbit 1 is measured independently
+        Circuit circuit = new Circuit(3, 3);
+        circuit.gate(new Gate("H", H, 0));
+        circuit.measure(0, 0);
+        circuit.gate(new Gate("H", H, 1));
+        circuit.measure(1, 1);
+        circuit.gate(new Gate("CNOT", CNOT, 0, 2));
+        circuit.measure(2, 2);
+        int shots = 100 * ITERATIONS;
+        BranchingExecutor.Result result = new BranchingExecutor().run(circuit, shots);
+        boolean failure = result.branches() > 4;
+        int total = 0;
+        for (Map.Entry<String, Integer> entry : result.counts().entrySet()) {
+            String bits = entry.getKey();
+            if (bits.charAt(0) != bits.charAt(2) || Math.abs(entry.getValue() - shots / 4) > shots / 40)
+                failure = true;
+            total += entry.getValue();
+        }
+        if (!failure && total == shots && result.counts().size() == 4)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test of the simulation service through its local HTTP endpoint, with an entangled pair of qbits.
+     */
+    private void testService() {
+        System.out.println("TEST OF THE SIMULATION SERVICE");
+        String program = "OPENQASM 2.0;\nqreg q[2];\ncreg c[2];\nh q[0];\ncx q[0],q[1];\nmeasure q -> c;\n";
+        boolean failure;
+        try (SimulationService service = new SimulationService()) {
+            InetSocketAddress address = service.startHttp(0);
+            URL url = new URL("http://" + address.getHostString() + ":" + address.getPort() + "/simulate?shots=" + ITERATIONS);
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(program.getBytes(StandardCharsets.UTF_8));
+            }
+            StringBuilder reply = new StringBuilder();
+            try (Reader in = new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)) {
+                for (int c = in.read(); c != -1; c = in.read())
+                    reply.append((char) c);
+            }
+            // the qbits are always measured equal
+            String counts = reply.toString();
+            failure = connection.getResponseCode() != 200 || counts.contains("\"01\"") || counts.contains("\"10\"")
+                    || !counts.contains("\"00\"") || !counts.contains("\"11\"");
+        } catch (IOException e) {
+            failure = true;
+        }
+        // a circuit too large for the arrays of a register is rejected, whatever the memory budget
+        try (SimulationService service = new SimulationService(1, 1, Long.MAX_VALUE)) {
+            service.submit(new Circuit(31, 0), 1);
+            failure = true;
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test of entanglement of 2 qubits on a batch of registers.
+     */
+    private void testBatch() {
+        System.out.println("TEST OF ENTANGLEMENT ON A BATCH OF REGISTERS");
+        QBitRegisterBatch batch = new QBitRegisterBatch(2, ITERATIONS).apply(H, 1).apply(CNOT, 0, 1);
+        boolean failure = false;
+        int ones = 0;
+        for (int state : batch.randomDraw()) {
+            if (state != 0 && state != 3) failure = true;
+            if (state == 3) ones++;
+        }
+        // the two outcomes are drawn about as often
+        if (Math.abs(ones - ITERATIONS / 2) > ITERATIONS / 10) failure = true;
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test the calibration of the tuning parameters and their saving to a profile.
+     */
+    private void testTuning() {
+        System.out.println("TEST OF THE CALIBRATION OF THE TUNING PARAMETERS");
+        int threshold = Tuning.parallelThreshold();
+        int blockSize = Tuning.blockSize();
+        boolean failure = false;
+        try {
+            Path profile = Files.createTempFile("quansim", ".properties");
+            try {
+                Tuning.calibrate();
+                int calibratedThreshold = Tuning.parallelThreshold();
+                int calibratedBlockSize = Tuning.blockSize();
+                Tuning.saveProfile(profile);
+                Tuning.setParallelThreshold(threshold);
+                Tuning.setBlockSize(blockSize);
+                Tuning.loadProfile(profile);
+                if (Tuning.parallelThreshold() != calibratedThreshold || Tuning.blockSize() != calibratedBlockSize)
+                    failure = true;
+            } finally {
+                Files.delete(profile);
+            }
+        } catch (IOException e) {
+            failure = true;
+        } finally {
+            Tuning.setParallelThreshold(threshold);
+            Tuning.setBlockSize(blockSize);
+        }
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test the arithmetic writing into reused matrices, on the identities H = (X+Z)/√2 and H² = I.
+     */
+    private void testInPlaceArithmetic() {
+        System.out.println("TEST OF THE IN-PLACE ARITHMETIC OF MATRICES");
+        ComplexMatrix sum = new ComplexMatrix(2, 2);
+        ComplexMatrix square = new ComplexMatrix(2, 2);
+        ComplexMatrix identity = new ComplexMatrix(new Complex[][]{
+                {new Complex(1, 0), new Complex(0, 0)},
+                {new Complex(0, 0), new Complex(1, 0)}
+        });
+        MutableComplex trace = new MutableComplex();
+        boolean failure = false;
+        for (int i = 0; i < ITERATIONS; i++) {
+            X.plusInto(Z, sum).scaleInPlace(1 / Math.sqrt(2));
+            if (!sum.equals(H)) failure = true;
+            sum.timesInto(sum, square);
+            // H² + H² = 2I
+            sum.timesAddInto(sum, square);
+            if (!square.equals(identity.times(2))) failure = true;
+            trace.set(0, 0);
+            for (int d = 0; d < 2; d++)
+                trace.plus(square.getRe(d, d), square.getIm(d, d));
+            if (Math.abs(trace.getRe() - 4) > 1e-9 || Math.abs(trace.getIm()) > 1e-9) failure = true;
+        }
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test the inner product, the fidelity and the approximate equality of registers.
+     */
+    private void testComparison() {
+        System.out.println("TEST OF THE COMPARISON OF REGISTERS");
+        Random random = new Random();
+        QBitRegister model = IdentityVerifier.randomRegister(16, random);
+        boolean failure = false;
+        for (int i = 0; i < 10; i++) {
+            int q = random.nextInt(16);
+            // HH = I, whereas X changes a random state
+            QBitRegister same = model.copy().apply(H, q).apply(H, q);
+            QBitRegister other = model.copy().apply(X, q);
+            if (!same.approxEquals(model, 1e-9) || Math.abs(same.fidelity(model) - 1) > 1e-9) failure = true;
+            if (other.approxEquals(model, 1e-3) || other.fidelity(model) > 0.5) failure = true;
+            if (Math.abs(model.innerProduct(model).getRe() - 1) > 1e-9) failure = true;
+        }
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test the adjoint gradient of a parameterized circuit against the parameter-shift rule.
+     */
+    private void testGradient() {
+        System.out.println("TEST OF THE ADJOINT GRADIENT OF A PARAMETERIZED CIRCUIT");
+        Random random = new Random();
+        int n = 6;
+        ParameterizedCircuit circuit = new ParameterizedCircuit(n);
+        int p = 0;
+        for (int layer = 0; layer < 3; layer++) {
+            for (int q = 0; q < n; q++)
+                circuit.ry(q, p++).rz(q, p++).rx(q, p++);
+            for (int q = 0; q + 1 < n; q++)
+                circuit.gate(new Gate("CNOT", CNOT, q, q + 1));
+            circuit.gate(new Gate("T", T, 0));
+        }
+        double[] parameters = new double[p];
+        for (int i = 0; i < p; i++)
+            parameters[i] = random.nextDouble() * 2 * Math.PI;
+        String observable = "XYZIZX";
+        double[] gradient = circuit.gradient(parameters, observable);
+        boolean failure = false;
+        for (int i = 0; i < p; i++) {
+            // the derivative of a rotation angle is half the difference of the shifts by +-pi/2
+            double[] plus = parameters.clone();
+            plus[i] += Math.PI / 2;
+            double[] minus = parameters.clone();
+            minus[i] -= Math.PI / 2;
+            double shift = (circuit.expectation(plus, observable) - circuit.expectation(minus, observable)) / 2;
+            if (Math.abs(shift - gradient[i]) > 1e-9) failure = true;
+        }
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test that moving the hot qbits to the cache-local bits does not change the results, on a register larger
+     * than the local bits whose highest qbits get most of the gates.
+     */
+    private void testRemapping() {
+        System.out.println("TEST OF THE REMAPPING OF THE HOT QBITS");
+        int n = QBitRegister.LOCAL_QBITS + 2;
+        Random random = new Random();
+        QBitRegister initial = IdentityVerifier.randomRegister(n, random);
+        List<Gate> gates = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            int high = n - 1 - random.nextInt(2);
+            switch (random.nextInt(4)) {
+                case 0:
+                    gates.add(new Gate("H", H, high));
+                    break;
+                case 1:
+                    gates.add(new Gate("RY", RY(random.nextDouble()), high));
+                    break;
+                case 2:
+                    gates.add(new Gate("CNOT", CNOT, high, random.nextInt(n - 2)));
+                    break;
+                default:
+                    gates.add(new Gate("T", T, random.nextInt(n)));
+                    break;
+            }
+        }
+        QBitRegister remapped = initial.copy();
+        QBitRegister model = initial.copy();
+        try {
+            QBitRegister.setRemap(true);
+            for (Gate gate : gates)
+                gate.applyTo(remapped);
+            QBitRegister.setRemap(false);
+            for (Gate gate : gates)
+                gate.applyTo(model);
+        } finally {
+            QBitRegister.setRemap(Boolean.getBoolean("quansim.remap"));
+        }
+        boolean failure = !remapped.approxEquals(model, 1e-9);
+        for (int i = 0; i < 100; i++) {
+            int state = random.nextInt(1 << n);
+            if (Math.abs(remapped.proba(state) - model.proba(state)) > 1e-12) failure = true;
+        }
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test a large register against a qbit register, on 24 qbits so that the register has 4 chunks and the gates
+     * on the qbits 22 and 23 pair the amplitudes of two chunks.
+     */
+    private void testLargeRegister() {
+        System.out.println("TEST OF LARGE REGISTERS");
+        Random random = new Random();
+        int n = 24;
+        QBitRegister model = IdentityVerifier.randomRegister(n, random);
+        LargeQBitRegister large = new LargeQBitRegister(model);
+        // the 3-qbit Fourier matrix is applied through the generic path
+        ComplexMatrix fourier = new ComplexMatrix(8, 8);
+        for (int y = 0; y < 8; y++)
+            for (int x = 0; x < 8; x++)
+                fourier.setCell(x, y, Math.cos(2 * Math.PI * x * y / 8) / Math.sqrt(8),
+                        Math.sin(2 * Math.PI * x * y / 8) / Math.sqrt(8));
+        Gate[] gates = {new Gate("H", H, 3), new Gate("H", H, 23), new Gate("RY", RY(random.nextDouble()), 22),
+                new Gate("T", T, 22), new Gate("CNOT", CNOT, 22, 1), new Gate("CNOT", CNOT, 2, 23),
+                new Gate("CNOT", CNOT, 23, 22), new Gate("SWAP", SWAP, 5, 22), new Gate("U", fourier, 0, 22, 23)};
+        boolean failure = false;
+        for (Gate gate : gates) {
+            gate.applyTo(large);
+            gate.applyTo(model);
+        }
+        if (!this.sameProbabilities(large, model, random)) failure = true;
+
+        large.groverIteration(i -> i % 1000 == 7);
+        model.groverIteration(i -> i % 1000 == 7);
+        if (!this.sameProbabilities(large, model, random)) failure = true;
+
+        for (int q : new int[]{23, 5}) {
+            model.collapse(q, large.measure(q));
+            if (!this.sameProbabilities(large, model, random)) failure = true;
+        }
+
+        long state = large.randomDrawState();
+        if (Math.abs(large.proba(state) - 1) > 1e-9 || model.proba((int) state) == 0) failure = true;
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test the saving of a register to a checkpoint, its restoration and the detection of corrupted amplitudes.
+     */
+    private void testCheckpoint() {
+        System.out.println("TEST OF CHECKPOINTS");
+        QBitRegister register = IdentityVerifier.randomRegister(10, new Random());
+        boolean failure = false;
+        try {
+            Path checkpoint = Files.createTempFile("quansim", ".ckpt");
+            try {
+                Checkpoint.save(register, checkpoint, true);
+                if (!Checkpoint.restore(checkpoint).approxEquals(register, 0))
+                    failure = true;
+
+                // a flipped bit in the first amplitude must be detected by the checksum
+                byte[] bytes = Files.readAllBytes(checkpoint);
+                bytes[32] ^= 1;
+                Files.write(checkpoint, bytes);
+                try {
+                    Checkpoint.restore(checkpoint);
+                    failure = true;
+                } catch (IOException e) {
+                    // expected
+                }
+            } finally {
+                Files.delete(checkpoint);
+            }
+        } catch (IOException e) {
+            failure = true;
+        }
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test the parsing of an OpenQASM program, including numbers written with exponents.
+     */
+    private void testQasm() {
+        System.out.println("TEST OF THE PARSING OF OPENQASM PROGRAMS");
+        String program = "OPENQASM 2.0;\n"
+                + "include \"qelib1.inc\";\n"
+                + "qreg q[3];\n"
+                + "creg c[3];\n"
+                + "h q[0]; // superposition\n"
+                + "rz(1e+3) q[1];\n"
+                + "rx(-pi/2*2.5E-1) q[2];\n"
+                + "cx q[0],q[1];\n"
+                + "u1(1E+1 - 2e1/2) q;\n"
+                + "measure q -> c;\n";
+        Circuit circuit = new Circuit();
+        boolean failure = false;
+        try (QasmReader reader = new QasmReader(new StringReader(program))) {
+            reader.read(circuit);
+            List<Circuit.Operation> operations = circuit.operations();
+            if (circuit.qbits() != 3 || circuit.bits() != 3 || circuit.gateCount() != 7 || operations.size() != 10)
+                failure = true;
+            else if (!operations.get(1).gate().matrix().equals(RZ(1000))
+                    || !operations.get(2).gate().matrix().equals(RX(-Math.PI / 8))
+                    || !operations.get(4).gate().matrix().equals(PHASE(0))
+                    || !operations.get(9).isMeasurement() || operations.get(9).qbit() != 2)
+                failure = true;
+        } catch (IOException | IllegalArgumentException e) {
+            failure = true;
+        }
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test the counters gathered by the profiler, including the names of the gates applied through named gates.
+     */
+    private void testProfiler() {
+        System.out.println("TEST OF THE PROFILER");
+        boolean enabled = Profiler.isEnabled();
+        QBitRegister register = new QBitRegister(4);
+        boolean failure = false;
+        Profiler.reset();
+        Profiler.enable();
+        try {
+            register.apply(H, 0);
+            register.apply(H, 2);
+            new Gate("RX", RX(.3), 1).applyTo(register);
+            register.apply(CNOT, 0, 3);
+            register.measure(3);
+            Profile profile = Profiler.profile();
+            if (profile.count("H") != 2 || profile.amplitudes("H") != 2 * 16 || profile.count("RX") != 1
+                    || profile.count("CNOT") != 1 || profile.count("measure") != 1 || profile.kinds().size() != 4)
+                failure = true;
+
+            // the operations are not counted any more once profiling is disabled
+            Profiler.disable();
+            register.apply(H, 1);
+            if (Profiler.profile().count("H") != 2)
+                failure = true;
+        } finally {
+            Profiler.reset();
+            if (enabled)
+                Profiler.enable();
+            else Profiler.disable();
+        }
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test the views on the amplitudes of a register and their traversal against the probabilities of the states.
+     */
+    private void testAmplitudeViews() {
+        System.out.println("TEST OF THE VIEWS ON THE AMPLITUDES");
+        // the register spans several blocks, so that the traversal is split
+        QBitRegister register = IdentityVerifier.randomRegister(14, new Random());
+        // the phase of T is deferred, so the views must see it applied
+        register.apply(T, 3);
+        register.apply(H, 7);
+        int length = 1 << register.size();
+        boolean failure = false;
+
+        DoubleBuffer re = register.realView(0, length);
+        DoubleBuffer im = register.imaginaryView(0, length);
+        for (int i = 0; i < length; i++)
+            if (Math.abs(re.get(i) * re.get(i) + im.get(i) * im.get(i) - register.proba(i)) > 1e-12)
+                failure = true;
+        DoubleBuffer range = register.realView(100, 200);
+        if (range.remaining() != 100 || range.get(0) != re.get(100) || !range.isReadOnly())
+            failure = true;
+
+        double[] probabilities = new double[length];
+        register.forEachAmplitude((state, r, i) -> probabilities[state] = r * r + i * i);
+        for (int i = 0; i < length; i++)
+            if (Math.abs(probabilities[i] - register.proba(i)) > 1e-12)
+                failure = true;
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test the export of the most probable amplitudes of a register and of the ones reaching a threshold.
+     */
+    private void testExport() {
+        System.out.println("TEST OF THE EXPORT OF THE AMPLITUDES");
+        QBitRegister register = IdentityVerifier.randomRegister(10, new Random());
+        int length = 1 << register.size();
+        Integer[] states = new Integer[length];
+        for (int i = 0; i < length; i++)
+            states[i] = i;
+        Arrays.sort(states, (s1, s2) -> Double.compare(register.proba(s2), register.proba(s1)));
+        boolean failure = false;
+        try {
+            // only the 3 most probable amplitudes reach the threshold, although 5 are requested
+            StateExporter exporter = new StateExporter(StateExporter.Format.CSV);
+            exporter.setTopK(5);
+            exporter.setThreshold(register.proba(states[2]));
+            List<Integer> exported = this.exportedStates(exporter, register);
+            if (!exported.equals(Arrays.asList(states[0], states[1], states[2])))
+                failure = true;
+
+            exporter.setTopK(0);
+            exporter.setThreshold(1.0 / length);
+            exported = this.exportedStates(exporter, register);
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < length; i++)
+                if (register.proba(i) >= 1.0 / length)
+                    expected.add(i);
+            if (!exported.equals(expected))
+                failure = true;
+        } catch (IOException e) {
+            failure = true;
+        }
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test the single precision registers against the double precision ones.
+     */
+    private void testFloatRegister() {
+        System.out.println("TEST OF SINGLE PRECISION REGISTERS");
+        Random random = new Random();
+        QBitRegister model = IdentityVerifier.randomRegister(10, random);
+        FloatQBitRegister register = new FloatQBitRegister(model);
+        Gate[] gates = {new Gate("H", H, 0), new Gate("RY", RY(random.nextDouble()), 9), new Gate("T", T, 4),
+                new Gate("CNOT", CNOT, 9, 2), new Gate("SWAP", SWAP, 1, 8), new Gate("CZ", CZ, 3, 6)};
+        for (int i = 0; i < 50; i++) {
+            Gate gate = gates[random.nextInt(gates.length)];
+            gate.applyTo(register);
+            gate.applyTo(model);
+        }
+        boolean failure = !register.toDoublePrecision().approxEquals(model, 1e-5);
+        FloatQBitRegister copy = register.copy();
+        if (!copy.equals(register) || copy.hashCode() != register.hashCode())
+            failure = true;
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test the backpressure and the memory budget of the simulation service, with a single slow job at a time.
+     */
+    private void testServiceLimits() {
+        System.out.println("TEST OF THE LIMITS OF THE SIMULATION SERVICE");
+        // a job lasting about a second, and a fast one of the same size
+        Circuit slow = new Circuit(18, 0);
+        for (int i = 0; i < 1200; i++)
+            slow.gate(new Gate("H", H, i % 18));
+        Circuit fast = new Circuit(18, 0);
+        fast.gate(new Gate("H", H, 0));
+        long memory = SimulationService.requiredMemory(slow, 1);
+        boolean failure = false;
+        try {
+            // the slow job runs and the fast one fills the queue, so that the next jobs are rejected
+            try (SimulationService service = new SimulationService(1, 1, memory)) {
+                CompletableFuture<BranchingExecutor.Result> running = service.submit(slow, 1);
+                CompletableFuture<BranchingExecutor.Result> queued = service.submit(fast, 1);
+                CompletableFuture<BranchingExecutor.Result> rejected = service.submit(fast, 1);
+                failure |= !this.completesWith(rejected, RejectedExecutionException.class);
+
+                InetSocketAddress address = service.startHttp(0);
+                URL url = new URL("http://" + address.getHostString() + ":" + address.getPort() + "/simulate?shots=1");
+                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write("OPENQASM 2.0;\nqreg q[1];\nh q[0];\n".getBytes(StandardCharsets.UTF_8));
+                }
+                failure |= connection.getResponseCode() != 503 || connection.getHeaderField("Retry-After") == null;
+
+                // a job which could never fit in the budget is rejected without waiting
+                Circuit large = new Circuit(19, 0);
+                large.gate(new Gate("H", H, 0));
+                failure |= !this.completesWith(service.submit(large, 1), IllegalArgumentException.class);
+
+                running.get(60, TimeUnit.SECONDS);
+                queued.get(60, TimeUnit.SECONDS);
+            }
+
+            // with two workers, the second job waits for the memory of the first one
+            try (SimulationService service = new SimulationService(2, 1, memory)) {
+                CompletableFuture<BranchingExecutor.Result> first = service.submit(slow, 1);
+                CompletableFuture<BranchingExecutor.Result> second = service.submit(fast, 1);
+                Thread.sleep(200);
+                failure |= first.isDone() || second.isDone() || service.getUsedMemory() != memory;
+                first.get(60, TimeUnit.SECONDS);
+                second.get(60, TimeUnit.SECONDS);
+                failure |= service.getUsedMemory() > memory;
+            }
+        } catch (IOException | InterruptedException | ExecutionException | TimeoutException e) {
+            failure = true;
+        }
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test the batching of consecutive diagonal gates against their application amplitude by amplitude.
+     */
+    private void testDiagonalBatching() {
+        System.out.println("TEST OF THE BATCHING OF DIAGONAL GATES");
+        Random random = new Random();
+        int n = 14;
+        int length = 1 << n;
+        QBitRegister register = IdentityVerifier.randomRegister(n, random);
+        double[] re = new double[length];
+        double[] im = new double[length];
+        register.forEachAmplitude((state, r, i) -> {
+            re[state] = r;
+            im[state] = i;
+        });
+        boolean failure = false;
+        // the chain touches all the qbits, so the table of phases is flushed once it spans more than 10 qbits
+        for (int g = 0; g < 200; g++) {
+            ComplexMatrix matrix;
+            int[] qbits;
+            int q1 = random.nextInt(n), q2 = (q1 + 1 + random.nextInt(n - 1)) % n;
+            switch (random.nextInt(4)) {
+                case 0: matrix = T; qbits = new int[]{q1}; break;
+                case 1: matrix = RZ(2 * Math.PI * random.nextDouble()); qbits = new int[]{q1}; break;
+                case 2: matrix = CZ; qbits = new int[]{Math.min(q1, q2), Math.max(q1, q2)}; break;
+                default: matrix = CPHASE(2 * Math.PI * random.nextDouble()); qbits = new int[]{Math.min(q1, q2), Math.max(q1, q2)}; break;
+            }
+            register.apply(matrix, qbits.clone());
+            // the reference multiplies each amplitude by the diagonal cell of the bits of its selected qbits
+            for (int i = 0; i < length; i++) {
+                int cell = 0;
+                for (int j = 0; j < qbits.length; j++)
+                    if ((i & (1 << qbits[j])) != 0)
+                        cell |= 1 << j;
+                double dRe = matrix.getRe(cell, cell), dIm = matrix.getIm(cell, cell);
+                double tmp = re[i];
+                re[i] = dRe * tmp - dIm * im[i];
+                im[i] = dRe * im[i] + dIm * tmp;
+            }
+            if (g % 7 == 0) {
+                int state = random.nextInt(length);
+                failure |= Math.abs(register.proba(state) - (re[state] * re[state] + im[state] * im[state])) > 1e-12;
+            }
+        }
+        Complex[] coordinates = new Complex[length];
+        for (int i = 0; i < length; i++)
+            coordinates[i] = new Complex(re[i], im[i]);
+        failure |= !register.approxEquals(new QBitRegister(coordinates), 1e-12);
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Test the vectorized gate kernels against the scalar ones, when they are available in the running JVM.
+     */
+    private void testKernels() {
+        System.out.println("TEST OF THE VECTORIZED GATE KERNELS");
+        GateKernels vector;
+        try {
+            Class<?> c = Class.forName("fr.ensibs.quansim.VectorGateKernels");
+            vector = (GateKernels) c.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            System.out.println("skipped: the vector kernels are not available");
+            return;
+        }
+        GateKernels scalar = new ScalarGateKernels();
+        Random random = new Random();
+        int n = 10;
+        boolean failure = false;
+        for (int q = 0; q < n; q++) {
+            double[] g = new double[8];
+            for (int i = 0; i < g.length; i++)
+                g[i] = random.nextGaussian();
+            double[] d = Arrays.copyOf(g, 4);
+            // controls on random other qbits, including the lowest ones addressing the lanes
+            int controlMask = random.nextInt(1 << n) & ~(1 << q);
+            double[][] expected = this.randomAmplitudes(n, random);
+            double[][] actual = {expected[0].clone(), expected[1].clone()};
+            scalar.apply(expected[0], expected[1], 1 << q, g);
+            vector.apply(actual[0], actual[1], 1 << q, g);
+            scalar.applyControlled(expected[0], expected[1], controlMask, 1 << q, g);
+            vector.applyControlled(actual[0], actual[1], controlMask, 1 << q, g);
+            scalar.applyDiagonal(expected[0], expected[1], 1 << q, d);
+            vector.applyDiagonal(actual[0], actual[1], 1 << q, d);
+            for (int i = 0; i < expected[0].length; i++)
+                if (Math.abs(expected[0][i] - actual[0][i]) > 1e-12 || Math.abs(expected[1][i] - actual[1][i]) > 1e-12)
+                    failure = true;
+        }
+        if (!failure)
+            System.out.println("success");
+        else System.out.println("failure");
+    }
+
+    /**
+     * Tell if a large register and a qbit register give the same probabilities to a sample of basic states.
+     * @param large the large register
+     * @param model the qbit register
+     * @param random the random generator drawing the basic states
+     * @return true if and only if all the sampled probabilities are equal up to a tolerance
+     */
+    private boolean sameProbabilities(LargeQBitRegister large, QBitRegister model, Random random) {
+        for (int i = 0; i < 1000; i++) {
+            int state = random.nextInt(1 << model.size());
+            if (Math.abs(large.proba(state) - model.proba(state)) > 1e-13)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Export the amplitudes of a register as CSV and read back the exported basic states.
+     * @param exporter the exporter, whose format is CSV
+     * @param register the qbit register
+     * @return the exported basic states, in the order in which they are written
+     * @throws IOException if the amplitudes cannot be exported
+     */
+    private List<Integer> exportedStates(StateExporter exporter, QBitRegister register) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long count = exporter.export(register, out);
+        String[] lines = new String(out.toByteArray(), StandardCharsets.US_ASCII).split("\n");
+        List<Integer> ret = new ArrayList<>();
+        for (int i = 1; i < lines.length; i++)
+            ret.add(Integer.parseInt(lines[i].substring(0, lines[i].indexOf(','))));
+        if (ret.size() != count)
+            throw new IOException("The number of exported amplitudes does not match the written lines.");
+        return ret;
+    }
+
+    /**
+     * Tell if a future completes exceptionally with a given kind of exception.
+     * @param future the future
+     * @param type the expected class of the exception
+     * @return true if and only if the future fails with an exception of the given class
+     */
+    private boolean completesWith(CompletableFuture<?> future, Class<? extends Throwable> type) {
+        try {
+            future.get(60, TimeUnit.SECONDS);
+            return false;
+        } catch (ExecutionException e) {
+            return type.isInstance(e.getCause());
+        } catch (InterruptedException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Generate random amplitudes, which are not normalized.
+     * @param n the number of qbits
+     * @param random the random generator
+     * @return the real and the imaginary parts of the amplitudes
+     */
+    private double[][] randomAmplitudes(int n, Random random) {
+        double[][] ret = new double[2][1 << n];
+        for (int i = 0; i < 1 << n; i++) {
+            ret[0][i] = random.nextGaussian();
+            ret[1][i] = random.nextGaussian();
+        }
+        return ret;
+    }
+
     /**
      * Generate a qbit with a random state.
      * @return a random qbit
@@ -57,6 +57,112 @@ public class QuantumGates {
             {new Complex(0, 0), new Complex(0, 0), new Complex(0, 0), new Complex(1, 0)}
     });
 
+    /**
+     * S quantum game matrix
+     */
+    public static final ComplexMatrix S = new ComplexMatrix(new Complex[][]{
+            {new Complex(1, 0), new Complex(0, 0)},
+            {new Complex(0, 0), new Complex(0, 1)}
+    });
+
+    /**
+     * T quantum game matrix
+     */
+    public static final ComplexMatrix T = new ComplexMatrix(new Complex[][]{
+            {new Complex(1, 0), new Complex(0, 0)},
+            {new Complex(0, 0), new Complex(1 / Math.sqrt(2), 1 / Math.sqrt(2))}
+    });
+
+    /**
+     * CZ quantum game matrix
+     */
+    public static final ComplexMatrix CZ = new ComplexMatrix(new Complex[][]{
+            {new Complex(1, 0), new Complex(0, 0), new Complex(0, 0), new Complex(0, 0)},
+            {new Complex(0, 0), new Complex(1, 0), new Complex(0, 0), new Complex(0, 0)},
+            {new Complex(0, 0), new Complex(0, 0), new Complex(1, 0), new Complex(0, 0)},
+            {new Complex(0, 0), new Complex(0, 0), new Complex(0, 0), new Complex(-1, 0)}
+    });
+
+    /**
+     * Get the matrix of the rotation around the X axis of the Bloch sphere.
+     * @param theta the angle of the rotation
+     * @return the RX(theta) quantum gate matrix
+     */
+    public static ComplexMatrix RX(double theta) {
+        return new ComplexMatrix(new Complex[][]{
+                {new Complex(Math.cos(theta / 2), 0), new Complex(0, -Math.sin(theta / 2))},
+                {new Complex(0, -Math.sin(theta / 2)), new Complex(Math.cos(theta / 2), 0)}
+        });
+    }
+
+    /**
+     * Get the matrix of the rotation around the Y axis of the Bloch sphere.
+     * @param theta the angle of the rotation
+     * @return the RY(theta) quantum gate matrix
+     */
+    public static ComplexMatrix RY(double theta) {
+        return new ComplexMatrix(new Complex[][]{
+                {new Complex(Math.cos(theta / 2), 0), new Complex(-Math.sin(theta / 2), 0)},
+                {new Complex(Math.sin(theta / 2), 0), new Complex(Math.cos(theta / 2), 0)}
+        });
+    }
+
+    /**
+     * Get the matrix of the rotation around the Z axis of the Bloch sphere.
+     * @param theta the angle of the rotation
+     * @return the RZ(theta) quantum gate matrix
+     */
+    public static ComplexMatrix RZ(double theta) {
+        return new ComplexMatrix(new Complex[][]{
+                {new Complex(Math.cos(theta / 2), -Math.sin(theta / 2)), new Complex(0, 0)},
+                {new Complex(0, 0), new Complex(Math.cos(theta / 2), Math.sin(theta / 2))}
+        });
+    }
+
+    /**
+     * Get the matrix of the phase shift of the state |1>.
+     * @param theta the angle of the phase shift
+     * @return the PHASE(theta) quantum gate matrix
+     */
+    public static ComplexMatrix PHASE(double theta) {
+        return new ComplexMatrix(new Complex[][]{
+                {new Complex(1, 0), new Complex(0, 0)},
+                {new Complex(0, 0), new Complex(Math.cos(theta), Math.sin(theta))}
+        });
+    }
+
+    /**
+     * Get the matrix of the controlled phase shift of the state |11>.
+     * @param theta the angle of the phase shift
+     * @return the CPHASE(theta) quantum gate matrix
+     */
+    public static ComplexMatrix CPHASE(double theta) {
+        return new ComplexMatrix(new Complex[][]{
+                {new Complex(1, 0), new Complex(0, 0), new Complex(0, 0), new Complex(0, 0)},
+                {new Complex(0, 0), new Complex(1, 0), new Complex(0, 0), new Complex(0, 0)},
+                {new Complex(0, 0), new Complex(0, 0), new Complex(1, 0), new Complex(0, 0)},
+                {new Complex(0, 0), new Complex(0, 0), new Complex(0, 0), new Complex(Math.cos(theta), Math.sin(theta))}
+        });
+    }
+
+    /**
+     * Get the name of a quantum gate matrix of this class.
+     * @param qg the quantum gate matrix
+     * @return the name of the matrix, or "U" followed by the number of qbits for any other matrix
+     */
+    static String nameOf(ComplexMatrix qg) {
+        if (qg == X) return "X";
+        if (qg == Y) return "Y";
+        if (qg == Z) return "Z";
+        if (qg == H) return "H";
+        if (qg == CNOT) return "CNOT";
+        if (qg == SWAP) return "SWAP";
+        if (qg == S) return "S";
+        if (qg == T) return "T";
+        if (qg == CZ) return "CZ";
+        return "U" + Integer.numberOfTrailingZeros(qg.width());
+    }
+
     /**
      * Private constructor to assert noninstanciability.
      */
@@ -0,0 +1,48 @@
+package fr.ensibs.quansim;
+
+/**
+ * The operations common to all the implementations of a register of qbits.
+ */
+public interface QuantumRegister {
+
+    /**
+     * Get the number of qbits in the register.
+     * @return the size of the register
+     */
+    int size();
+
+    /**
+     * Give the probability to draw the given basic state.
+     * @param basicState the decimal representation of the basic state (e.g. 3 = b011 in a 3 qbits register)
+     * @return the corresponding probability
+     */
+    double proba(int basicState);
+
+    /**
+     * Apply a nxn quantic gate on one or several qbits of the register.
+     * @param qg the quantic gate matrix
+     * @param qbitsIdx the indexes of the qbits in the register
+     * @return the qbit register after the quantic gate
+     */
+    QuantumRegister apply(ComplexMatrix qg, int... qbitsIdx);
+
+    /**
+     * Measure a single qbit of the register and collapse the state according to the result.
+     * @param qbitIdx the index of the qbit in the register
+     * @return true if the measured bit was 1, false otherwise
+     */
+    boolean measure(int qbitIdx);
+
+    /**
+     * Draw values randomly for the qbits of the register according to their associated probabilities.
+     * @return an array of booleans, which are equal to true if the drawn bit was 1, and false otherwise
+     */
+    boolean[] randomDraw();
+
+    /**
+     * Create a deep copy of the qbit register, even though it is physically impossible.
+     * @return a copy of the qbit register
+     */
+    QuantumRegister copy();
+
+}
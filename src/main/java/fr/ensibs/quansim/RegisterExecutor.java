@@ -0,0 +1,56 @@
+package fr.ensibs.quansim;
+
+/**
+ * A circuit listener executing the operations it receives on a qbit register.
+ */
+public class RegisterExecutor implements CircuitListener {
+
+    /**
+     * the qbit register on which the circuit is executed
+     */
+    private QBitRegister register;
+
+    /**
+     * the classical bits receiving the results of the measurements
+     */
+    private boolean[] bits;
+
+    @Override
+    public void init(int qbits, int bits) {
+        this.register = new QBitRegister(qbits);
+        this.bits = new boolean[bits];
+    }
+
+    @Override
+    public void gate(Gate gate) {
+        if (this.register == null)
+            throw new IllegalStateException("The executor has not been initialized.");
+
+        gate.applyTo(this.register);
+    }
+
+    @Override
+    public void measure(int qbitIdx, int bitIdx) {
+        if (this.register == null)
+            throw new IllegalStateException("The executor has not been initialized.");
+
+        this.bits[bitIdx] = this.register.measure(qbitIdx);
+    }
+
+    /**
+     * Get the qbit register on which the circuit is executed.
+     * @return the qbit register, or null if the executor has not been initialized
+     */
+    public QBitRegister getRegister() {
+        return this.register;
+    }
+
+    /**
+     * Get the classical bits receiving the results of the measurements.
+     * @return the classical bits, or null if the executor has not been initialized
+     */
+    public boolean[] getBits() {
+        return this.bits;
+    }
+
+}
@@ -0,0 +1,48 @@
+package fr.ensibs.quansim;
+
+/**
+ * The gate kernels written as plain loops, which run on any JVM.
+ */
+class ScalarGateKernels implements GateKernels {
+
+    @Override
+    public void apply(double[] re, double[] im, int offset, double[] g) {
+        this.applyControlled(re, im, 0, offset, g);
+    }
+
+    @Override
+    public void applyControlled(double[] re, double[] im, int controlMask, int offset, double[] g) {
+        double g00re = g[0], g00im = g[1], g01re = g[2], g01im = g[3];
+        double g10re = g[4], g10im = g[5], g11re = g[6], g11im = g[7];
+        for (int startIdx = 0; startIdx < re.length; startIdx += 2 * offset) {
+            for (int i = startIdx; i < startIdx + offset; i++) {
+                if ((i & controlMask) != controlMask) continue;
+                int j = i + offset;
+                double aRe = re[i], aIm = im[i];
+                double bRe = re[j], bIm = im[j];
+                re[i] = g00re * aRe - g00im * aIm + g01re * bRe - g01im * bIm;
+                im[i] = g00re * aIm + g00im * aRe + g01re * bIm + g01im * bRe;
+                re[j] = g10re * aRe - g10im * aIm + g11re * bRe - g11im * bIm;
+                im[j] = g10re * aIm + g10im * aRe + g11re * bIm + g11im * bRe;
+            }
+        }
+    }
+
+    @Override
+    public void applyDiagonal(double[] re, double[] im, int offset, double[] d) {
+        double d0re = d[0], d0im = d[1], d1re = d[2], d1im = d[3];
+        for (int startIdx = 0; startIdx < re.length; startIdx += 2 * offset) {
+            for (int i = startIdx; i < startIdx + offset; i++) {
+                double cRe = re[i], cIm = im[i];
+                re[i] = d0re * cRe - d0im * cIm;
+                im[i] = d0re * cIm + d0im * cRe;
+            }
+            for (int i = startIdx + offset; i < startIdx + 2 * offset; i++) {
+                double cRe = re[i], cIm = im[i];
+                re[i] = d1re * cRe - d1im * cIm;
+                im[i] = d1re * cIm + d1im * cRe;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,438 @@
+package fr.ensibs.quansim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A worker process owning one shard of the state of a sharded qbit register.
+ *
+ * The worker connects to the coordinator given on its command line and executes its commands on the
+ * amplitudes it owns. When a gate involves a shard qbit, the worker exchanges half of its amplitudes directly
+ * with the worker owning the paired shard, through a socket between them.
+ */
+public class ShardWorker {
+
+    /**
+     * command applying a gate on local qbits
+     */
+    static final byte APPLY = 1;
+
+    /**
+     * command swapping a local qbit with a shard qbit
+     */
+    static final byte EXCHANGE = 2;
+
+    /**
+     * command returning the squared norm of the shard
+     */
+    static final byte NORM = 3;
+
+    /**
+     * command returning the probability of a basic state of the shard
+     */
+    static final byte PROBA = 4;
+
+    /**
+     * command returning the probability of the shard's basic states where a local qbit is 1
+     */
+    static final byte BIT_PROBA = 5;
+
+    /**
+     * command keeping the basic states where a local qbit has a given value, scaled by a factor
+     */
+    static final byte COLLAPSE = 6;
+
+    /**
+     * command scaling all the amplitudes of the shard by a factor
+     */
+    static final byte SCALE = 7;
+
+    /**
+     * command drawing a basic state of the shard and collapsing the shard on it
+     */
+    static final byte DRAW = 8;
+
+    /**
+     * command sending the amplitudes of the shard to the coordinator
+     */
+    static final byte GET_STATE = 9;
+
+    /**
+     * command replacing the amplitudes of the shard by the ones sent by the coordinator
+     */
+    static final byte SET_STATE = 10;
+
+    /**
+     * command terminating the worker
+     */
+    static final byte SHUTDOWN = 11;
+
+    /**
+     * number of doubles converted at once when streaming amplitudes
+     */
+    private static final int CHUNK = 8192;
+
+    /**
+     * the index of the shard owned by the worker
+     */
+    private final int id;
+
+    /**
+     * the number of local qbits, i.e. of qbits addressing the amplitudes of the shard
+     */
+    private final int localQbits;
+
+    /**
+     * the addresses at which the other workers accept the connections of their peers
+     */
+    private final InetSocketAddress[] peerAddresses;
+
+    /**
+     * the socket accepting the connections of the peers
+     */
+    private final ServerSocket peerServer;
+
+    /**
+     * the connections to the peers, by worker index
+     */
+    private final Map<Integer, Socket> peers = new HashMap<>();
+
+    /**
+     * the amplitudes of the shard, held as a register of the local qbits
+     */
+    private QBitRegister shard;
+
+    /**
+     * Constructor.
+     * @param id the index of the shard owned by the worker
+     * @param localQbits the number of local qbits
+     * @param peerAddresses the addresses of all the workers
+     * @param peerServer the socket accepting the connections of the peers
+     */
+    private ShardWorker(int id, int localQbits, InetSocketAddress[] peerAddresses, ServerSocket peerServer) {
+        this.id = id;
+        this.localQbits = localQbits;
+        this.peerAddresses = peerAddresses;
+        this.peerServer = peerServer;
+        double[] re = new double[1 << localQbits];
+        double[] im = new double[1 << localQbits];
+        if (id == 0)
+            re[0] = 1;
+        this.shard = new QBitRegister(re, im);
+    }
+
+    /**
+     * Entry point of a worker process.
+     * @param args the command-line arguments: the host and the port of the coordinator
+     * @throws IOException if the communication with the coordinator or the peers fails
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: ShardWorker <coordinator host> <coordinator port>");
+            System.exit(1);
+        }
+
+        // the peers are accepted on the address through which the coordinator is reached, e.g. the loopback
+        // address for local workers, rather than on every interface
+        try (Socket socket = new Socket(args[0], Integer.parseInt(args[1]));
+             ServerSocket peerServer = new ServerSocket(0, 50, socket.getLocalAddress())) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(peerServer.getLocalPort());
+            out.flush();
+
+            int id = in.readInt();
+            int localQbits = in.readInt();
+            InetSocketAddress[] peerAddresses = new InetSocketAddress[in.readInt()];
+            for (int i = 0; i < peerAddresses.length; i++)
+                peerAddresses[i] = new InetSocketAddress(in.readUTF(), in.readInt());
+
+            new ShardWorker(id, localQbits, peerAddresses, peerServer).run(in, out);
+        }
+    }
+
+    /**
+     * Execute the commands of the coordinator until the shutdown command.
+     * @param in the stream of the commands
+     * @param out the stream of the replies
+     * @throws IOException if the communication with the coordinator or the peers fails
+     */
+    private void run(DataInputStream in, DataOutputStream out) throws IOException {
+        try {
+            while (true) {
+                byte command = in.readByte();
+                switch (command) {
+                    case APPLY:
+                        this.apply(in);
+                        break;
+                    case EXCHANGE:
+                        this.exchange(in.readInt(), in.readInt());
+                        break;
+                    case NORM:
+                        out.writeDouble(this.probability(-1));
+                        break;
+                    case PROBA:
+                        out.writeDouble(this.shard.proba(in.readInt()));
+                        break;
+                    case BIT_PROBA:
+                        out.writeDouble(this.probability(in.readInt()));
+                        break;
+                    case COLLAPSE:
+                        this.collapse(in.readInt(), in.readBoolean(), in.readDouble());
+                        break;
+                    case SCALE:
+                        this.collapse(-1, true, in.readDouble());
+                        break;
+                    case DRAW:
+                        out.writeInt(this.draw(in.readDouble()));
+                        break;
+                    case GET_STATE:
+                        writeDoubles(out, this.shard.realParts(), 0, 1 << this.localQbits);
+                        writeDoubles(out, this.shard.imaginaryParts(), 0, 1 << this.localQbits);
+                        break;
+                    case SET_STATE:
+                        double[] re = new double[1 << this.localQbits];
+                        double[] im = new double[1 << this.localQbits];
+                        readDoubles(in, re, 0, re.length);
+                        readDoubles(in, im, 0, im.length);
+                        this.shard = new QBitRegister(re, im);
+                        break;
+                    case SHUTDOWN:
+                        return;
+                    default:
+                        throw new IOException("Unknown command " + command + ".");
+                }
+                // every command is acknowledged once it is done
+                out.writeByte(command);
+                out.flush();
+            }
+        } finally {
+            for (Socket peer : this.peers.values())
+                peer.close();
+        }
+    }
+
+    /**
+     * Apply a gate on local qbits.
+     * @param in the stream giving the qbits in the order of the gate matrix, then the gate matrix
+     * @throws IOException if the gate cannot be read
+     */
+    private void apply(DataInputStream in) throws IOException {
+        int[] qbitsIdx = new int[in.readInt()];
+        for (int i = 0; i < qbitsIdx.length; i++)
+            qbitsIdx[i] = in.readInt();
+        int dim = 1 << qbitsIdx.length;
+        ComplexMatrix matrix = new ComplexMatrix(dim, dim);
+        for (int y = 0; y < dim; y++)
+            for (int x = 0; x < dim; x++)
+                matrix.setCell(x, y, new Complex(in.readDouble(), in.readDouble()));
+        new Gate("U", matrix, qbitsIdx).applyTo(this.shard);
+    }
+
+    /**
+     * Swap a local qbit with a shard qbit, by exchanging half of the amplitudes with the peer owning the
+     * shard which differs by the shard qbit.
+     * @param localQbit the index of the local qbit
+     * @param shardBit the index of the shard qbit among the shard qbits
+     * @throws IOException if the communication with the peer fails
+     */
+    private void exchange(int localQbit, int shardBit) throws IOException {
+        int peerId = this.id ^ (1 << shardBit);
+        boolean ownBit = (this.id & (1 << shardBit)) != 0;
+        double[] re = this.shard.realParts();
+        double[] im = this.shard.imaginaryParts();
+        // the exchanged amplitudes are the ones whose local qbit differs from the shard qbit, the k-th one being
+        // at the index k with this bit inserted
+        int half = re.length / 2;
+        int low = (1 << localQbit) - 1;
+        int flipped = ownBit ? 0 : 1 << localQbit;
+
+        Socket peer = this.peer(peerId);
+        DataOutputStream peerOut = new DataOutputStream(new BufferedOutputStream(peer.getOutputStream()));
+        DataInputStream peerIn = new DataInputStream(new BufferedInputStream(peer.getInputStream()));
+        IOException[] failure = new IOException[1];
+        // the amplitudes are streamed chunk by chunk, each chunk being sent while the ones of the peer are
+        // received, and a received chunk only replaces the amplitudes of a chunk once they have been copied to
+        // be sent
+        Semaphore copied = new Semaphore(0);
+        Thread sender = new Thread(() -> {
+            double[] outgoing = new double[2 * CHUNK];
+            try {
+                for (int from = 0; from < half; from += CHUNK) {
+                    int count = Math.min(CHUNK, half - from);
+                    for (int k = 0; k < count; k++) {
+                        int i = (((from + k) & ~low) << 1) | ((from + k) & low) | flipped;
+                        outgoing[k] = re[i];
+                        outgoing[count + k] = im[i];
+                    }
+                    copied.release();
+                    writeDoubles(peerOut, outgoing, 0, 2 * count);
+                }
+                peerOut.flush();
+            } catch (IOException e) {
+                failure[0] = e;
+                copied.release(half / CHUNK + 1);
+            }
+        });
+        sender.start();
+        double[] incoming = new double[2 * CHUNK];
+        try {
+            for (int from = 0; from < half; from += CHUNK) {
+                int count = Math.min(CHUNK, half - from);
+                readDoubles(peerIn, incoming, 0, 2 * count);
+                copied.acquire();
+                for (int k = 0; k < count; k++) {
+                    int i = (((from + k) & ~low) << 1) | ((from + k) & low) | flipped;
+                    re[i] = incoming[k];
+                    im[i] = incoming[count + k];
+                }
+            }
+            sender.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("The exchange has been interrupted.", e);
+        }
+        if (failure[0] != null)
+            throw failure[0];
+    }
+
+    /**
+     * Get the connection to a peer, opening it if needed. The worker with the lowest index connects to the
+     * other one.
+     * @param peerId the index of the peer
+     * @return the socket connected to the peer
+     * @throws IOException if the connection cannot be opened
+     */
+    private Socket peer(int peerId) throws IOException {
+        Socket peer = this.peers.get(peerId);
+        if (peer != null)
+            return peer;
+
+        if (this.id < peerId) {
+            peer = new Socket(this.peerAddresses[peerId].getAddress(), this.peerAddresses[peerId].getPort());
+            new DataOutputStream(peer.getOutputStream()).writeInt(this.id);
+            this.peers.put(peerId, peer);
+            return peer;
+        }
+        while (!this.peers.containsKey(peerId)) {
+            Socket accepted = this.peerServer.accept();
+            int acceptedId = new DataInputStream(accepted.getInputStream()).readInt();
+            // a connection is only accepted from the address of the worker it claims to be
+            if (acceptedId >= 0 && acceptedId < this.id && !this.peers.containsKey(acceptedId)
+                    && accepted.getInetAddress().equals(this.peerAddresses[acceptedId].getAddress()))
+                this.peers.put(acceptedId, accepted);
+            else accepted.close();
+        }
+        return this.peers.get(peerId);
+    }
+
+    /**
+     * Get the probability of the basic states of the shard where a local qbit is 1.
+     * @param localQbit the index of the local qbit, or -1 for all the basic states of the shard
+     * @return the sum of the square moduli of the selected amplitudes
+     */
+    private double probability(int localQbit) {
+        double[] re = this.shard.realParts();
+        double[] im = this.shard.imaginaryParts();
+        int bit = localQbit < 0 ? 0 : 1 << localQbit;
+        double ret = 0;
+        for (int i = 0; i < re.length; i++)
+            if ((i & bit) == bit)
+                ret += re[i] * re[i] + im[i] * im[i];
+        return ret;
+    }
+
+    /**
+     * Keep the basic states where a local qbit has the given value, scaled by a factor, and zero the others.
+     * @param localQbit the index of the local qbit, or -1 to keep all the basic states
+     * @param value the value of the local qbit in the kept basic states
+     * @param factor the factor by which the kept amplitudes are multiplied
+     */
+    private void collapse(int localQbit, boolean value, double factor) {
+        double[] re = this.shard.realParts();
+        double[] im = this.shard.imaginaryParts();
+        int bit = localQbit < 0 ? 0 : 1 << localQbit;
+        for (int i = 0; i < re.length; i++) {
+            if (localQbit < 0 || ((i & bit) != 0) == value) {
+                re[i] *= factor;
+                im[i] *= factor;
+            } else {
+                re[i] = 0;
+                im[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Draw a basic state of the shard and collapse the shard on it.
+     * @param drawnValue a value drawn uniformly between 0 and the squared norm of the shard
+     * @return the index of the drawn basic state in the shard
+     */
+    private int draw(double drawnValue) {
+        double[] re = this.shard.realParts();
+        double[] im = this.shard.imaginaryParts();
+        int drawnState = re.length - 1;
+        double accumulator = 0;
+        for (int i = 0; i < re.length; i++) {
+            accumulator += re[i] * re[i] + im[i] * im[i];
+            if (drawnValue <= accumulator) {
+                drawnState = i;
+                break;
+            }
+        }
+        Arrays.fill(re, 0);
+        Arrays.fill(im, 0);
+        re[drawnState] = 1;
+        return drawnState;
+    }
+
+    /**
+     * Write doubles to a stream, converting them chunk by chunk.
+     * @param out the stream to write to
+     * @param values the array of the doubles
+     * @param offset the index of the first double to write
+     * @param length the number of doubles to write
+     * @throws IOException if the stream cannot be written
+     */
+    static void writeDoubles(DataOutputStream out, double[] values, int offset, int length) throws IOException {
+        byte[] bytes = new byte[CHUNK * Double.BYTES];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        for (int i = 0; i < length; i += CHUNK) {
+            int count = Math.min(CHUNK, length - i);
+            buffer.clear();
+            buffer.asDoubleBuffer().put(values, offset + i, count);
+            out.write(bytes, 0, count * Double.BYTES);
+        }
+    }
+
+    /**
+     * Read doubles from a stream, converting them chunk by chunk.
+     * @param in the stream to read from
+     * @param values the array receiving the doubles
+     * @param offset the index of the first double to read
+     * @param length the number of doubles to read
+     * @throws IOException if the stream cannot be read
+     */
+    static void readDoubles(DataInputStream in, double[] values, int offset, int length) throws IOException {
+        byte[] bytes = new byte[CHUNK * Double.BYTES];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        for (int i = 0; i < length; i += CHUNK) {
+            int count = Math.min(CHUNK, length - i);
+            in.readFully(bytes, 0, count * Double.BYTES);
+            buffer.clear();
+            buffer.asDoubleBuffer().get(values, offset + i, count);
+        }
+    }
+
+}
@@ -0,0 +1,536 @@
+package fr.ensibs.quansim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * A qbit register whose state is sharded across several worker processes, on one machine or across nodes.
+ *
+ * The s highest qbits of a n qbits register are the shard qbits: they select the worker owning an amplitude,
+ * and each of the 2^s workers owns the 2^(n-s) amplitudes addressed by the n-s lowest qbits, which are its
+ * local qbits. A gate on local qbits is applied by every worker on its own amplitudes. A gate on a shard qbit
+ * first swaps it with a local qbit unused by the gate, which makes each pair of workers whose shards differ by
+ * this qbit exchange half of their amplitudes directly through a socket, then applies the gate locally and
+ * swaps the qbits back. The probabilities and the measurements are aggregated by the register, which acts as
+ * the coordinator of the workers.
+ *
+ * The workers are {@link ShardWorker} processes, launched on the local machine by the register, or started on
+ * other nodes with the host and the port of a server socket given to the register. The register must be
+ * closed to terminate the workers.
+ */
+public class ShardedQBitRegister implements QuantumRegister, Closeable {
+
+    /**
+     * the number of qbits
+     */
+    private final int size;
+
+    /**
+     * the number of shard qbits
+     */
+    private final int shardQbits;
+
+    /**
+     * the processes of the workers, empty if the workers have been started by another mean
+     */
+    private final List<Process> processes = new ArrayList<>();
+
+    /**
+     * the connections to the workers, by shard index
+     */
+    private final Socket[] sockets;
+
+    /**
+     * the streams of the replies of the workers, by shard index
+     */
+    private final DataInputStream[] ins;
+
+    /**
+     * the streams of the commands to the workers, by shard index
+     */
+    private final DataOutputStream[] outs;
+
+    /**
+     * Constructor launching the workers as local processes.
+     * The JVM options of the workers, e.g. their maximum heap size, can be given by the
+     * "quansim.shard.jvmOptions" system property.
+     * @param n the number of qbits
+     * @param shardQbits the number of shard qbits, 2^shardQbits workers being launched
+     * @throws IOException if the workers cannot be launched or connected
+     */
+    public ShardedQBitRegister(int n, int shardQbits) throws IOException {
+        this(n, shardQbits, null);
+    }
+
+    /**
+     * Constructor waiting for the connection of workers started by another mean, e.g. on other nodes with
+     * the command "java fr.ensibs.quansim.ShardWorker &lt;host&gt; &lt;port&gt;".
+     * @param n the number of qbits
+     * @param shardQbits the number of shard qbits, 2^shardQbits workers being expected
+     * @param server the server socket to which the workers connect, closed once they are all connected, or
+     *               null to launch the workers as local processes
+     * @throws IOException if the workers cannot be connected
+     */
+    public ShardedQBitRegister(int n, int shardQbits, ServerSocket server) throws IOException {
+        if (shardQbits < 1 || shardQbits > 16)
+            throw new IllegalArgumentException("The number of shard qbits must be between 1 and 16.");
+
+        if (n - shardQbits < 1 || n - shardQbits > 30)
+            throw new IllegalArgumentException("The number of local qbits must be between 1 and 30.");
+
+        this.size = n;
+        this.shardQbits = shardQbits;
+        int workers = 1 << shardQbits;
+        this.sockets = new Socket[workers];
+        this.ins = new DataInputStream[workers];
+        this.outs = new DataOutputStream[workers];
+
+        try (ServerSocket coordinator = server != null ? server : new ServerSocket(0, workers,
+                InetAddress.getLoopbackAddress())) {
+            if (server == null)
+                this.launchWorkers(coordinator.getLocalPort());
+
+            String[] hosts = new String[workers];
+            int[] ports = new int[workers];
+            for (int w = 0; w < workers; w++) {
+                this.sockets[w] = coordinator.accept();
+                this.ins[w] = new DataInputStream(new BufferedInputStream(this.sockets[w].getInputStream()));
+                this.outs[w] = new DataOutputStream(new BufferedOutputStream(this.sockets[w].getOutputStream()));
+                hosts[w] = this.sockets[w].getInetAddress().getHostAddress();
+                ports[w] = this.ins[w].readInt();
+            }
+            for (int w = 0; w < workers; w++) {
+                this.outs[w].writeInt(w);
+                this.outs[w].writeInt(n - shardQbits);
+                this.outs[w].writeInt(workers);
+                for (int p = 0; p < workers; p++) {
+                    this.outs[w].writeUTF(hosts[p]);
+                    this.outs[w].writeInt(ports[p]);
+                }
+                this.outs[w].flush();
+            }
+        } catch (IOException e) {
+            this.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Launch the workers as local processes.
+     * @param port the port to which the workers connect
+     * @throws IOException if a process cannot be launched
+     */
+    private void launchWorkers(int port) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        String options = System.getProperty("quansim.shard.jvmOptions", "").trim();
+        if (!options.isEmpty())
+            command.addAll(Arrays.asList(options.split("\\s+")));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ShardWorker.class.getName());
+        command.add(InetAddress.getLoopbackAddress().getHostAddress());
+        command.add(Integer.toString(port));
+
+        for (int w = 0; w < this.sockets.length; w++) {
+            ProcessBuilder builder = new ProcessBuilder(command);
+            builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+            builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            this.processes.add(builder.start());
+        }
+    }
+
+    /**
+     * Get the number of qbits in the register.
+     * @return the size of the register
+     */
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Get the number of shard qbits, i.e. of highest qbits selecting the worker owning an amplitude.
+     * @return the number of shard qbits
+     */
+    public int shardQbits() {
+        return this.shardQbits;
+    }
+
+    /**
+     * Get the number of basic states of the register.
+     * @return 2 to the power of the size of the register
+     */
+    public long length() {
+        return 1L << this.size;
+    }
+
+    /**
+     * Give the probability to draw the given basic state.
+     * @param basicState the decimal representation of the basic state (e.g. 3 = b011 in a 3 qbits register)
+     * @return the corresponding probability
+     */
+    @Override
+    public double proba(int basicState) {
+        return this.proba((long) basicState);
+    }
+
+    /**
+     * Give the probability to draw the given basic state.
+     * @param basicState the decimal representation of the basic state (e.g. 3 = b011 in a 3 qbits register)
+     * @return the corresponding probability
+     */
+    public double proba(long basicState) {
+        if (basicState < 0 || basicState >= this.length())
+            throw new IndexOutOfBoundsException("The basic state is out of bounds.");
+
+        int localQbits = this.size - this.shardQbits;
+        int worker = (int) (basicState >>> localQbits);
+        try {
+            this.outs[worker].writeByte(ShardWorker.PROBA);
+            this.outs[worker].writeInt((int) (basicState & ((1L << localQbits) - 1)));
+            this.outs[worker].flush();
+            double ret = this.ins[worker].readDouble();
+            this.await(worker, ShardWorker.PROBA);
+            return ret;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Apply a nxn quantic gate on one or several qbits of the register.
+     * @param qg the quantic gate matrix
+     * @param qbitsIdx the indexes of the qbits in the register
+     * @return the qbit register after the quantic gate
+     */
+    @Override
+    public ShardedQBitRegister apply(ComplexMatrix qg, int... qbitsIdx) {
+        if (qg == null)
+            throw new NullPointerException("The quantum gate matrix cannot be null.");
+
+        if (qbitsIdx == null)
+            throw new NullPointerException("The list of qbits indexes cannot be null.");
+
+        if (qbitsIdx.length == 0)
+            throw new IllegalArgumentException("There must be at least 1 selected qubit.");
+
+        if (!qg.isSquare() || qbitsIdx.length >= 31 || qg.width() != 1 << qbitsIdx.length)
+            throw new IllegalArgumentException("The given quantic gate is incompatible with the number of qubits.");
+
+        int localQbits = this.size - this.shardQbits;
+        if (qbitsIdx.length > localQbits)
+            throw new IllegalArgumentException("The gate cannot act on more qbits than the local qbits of a shard.");
+
+        int[] sorted = qbitsIdx.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < sorted.length; i++) {
+            if (sorted[i] < 0 || sorted[i] >= this.size)
+                throw new IndexOutOfBoundsException("The qbit index is out of bounds.");
+            if (i > 0 && sorted[i] == sorted[i - 1])
+                throw new IllegalArgumentException("The list of qbit indexes cannot contain duplicates.");
+        }
+
+        // the qbits of the gate in the order of its matrix, the first one being the most significant bit, with
+        // each shard qbit replaced by a free local qbit
+        int k = sorted.length;
+        int[] gateQbits = new int[k];
+        int[] swapped = new int[k];
+        int swaps = 0;
+        int free = 0;
+        for (int p = 0; p < k; p++) {
+            int q = sorted[k - 1 - p];
+            if (q < localQbits) {
+                gateQbits[p] = q;
+                continue;
+            }
+            while (Arrays.binarySearch(sorted, free) >= 0)
+                free++;
+            gateQbits[p] = free;
+            swapped[swaps++] = q;
+            free++;
+        }
+
+        Profiler.Span span = Profiler.startGate();
+        try {
+            int next = 0;
+            for (int p = 0; p < k; p++)
+                if (gateQbits[p] != sorted[k - 1 - p])
+                    this.exchange(gateQbits[p], swapped[next++] - localQbits);
+
+            for (DataOutputStream out : this.outs) {
+                out.writeByte(ShardWorker.APPLY);
+                out.writeInt(k);
+                for (int q : gateQbits)
+                    out.writeInt(q);
+                for (int y = 0; y < qg.height(); y++)
+                    for (int x = 0; x < qg.width(); x++) {
+                        out.writeDouble(qg.getRe(x, y));
+                        out.writeDouble(qg.getIm(x, y));
+                    }
+                out.flush();
+            }
+            this.awaitAll(ShardWorker.APPLY);
+
+            next = 0;
+            for (int p = 0; p < k; p++)
+                if (gateQbits[p] != sorted[k - 1 - p])
+                    this.exchange(gateQbits[p], swapped[next++] - localQbits);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (span != null)
+            span.endGate(qg, qbitsIdx, this.length());
+        return this;
+    }
+
+    /**
+     * Swap a local qbit with a shard qbit, each pair of workers whose shards differ by the shard qbit
+     * exchanging half of their amplitudes.
+     * @param localQbit the index of the local qbit
+     * @param shardBit the index of the shard qbit among the shard qbits
+     * @throws IOException if the communication with the workers fails
+     */
+    private void exchange(int localQbit, int shardBit) throws IOException {
+        for (DataOutputStream out : this.outs) {
+            out.writeByte(ShardWorker.EXCHANGE);
+            out.writeInt(localQbit);
+            out.writeInt(shardBit);
+            out.flush();
+        }
+        this.awaitAll(ShardWorker.EXCHANGE);
+    }
+
+    /**
+     * Measure a single qbit of the register and collapse the state according to the result.
+     * @param qbitIdx the index of the qbit in the register
+     * @return true if the measured bit was 1, false otherwise
+     */
+    @Override
+    public boolean measure(int qbitIdx) {
+        if (qbitIdx < 0 || qbitIdx >= this.size)
+            throw new IndexOutOfBoundsException("The qbit index is out of bounds.");
+
+        Profiler.Span span = Profiler.startMeasurement();
+        int localQbits = this.size - this.shardQbits;
+        try {
+            boolean bitIs1;
+            if (qbitIdx < localQbits) {
+                double p1 = 0;
+                for (double p : this.gather(ShardWorker.BIT_PROBA, qbitIdx))
+                    p1 += p;
+                bitIs1 = Math.random() < p1;
+                // the coordinates of the drawn outcome are renormalized, the other ones become 0
+                double factor = 1 / Math.sqrt(bitIs1 ? p1 : 1 - p1);
+                for (DataOutputStream out : this.outs) {
+                    out.writeByte(ShardWorker.COLLAPSE);
+                    out.writeInt(qbitIdx);
+                    out.writeBoolean(bitIs1);
+                    out.writeDouble(factor);
+                    out.flush();
+                }
+                this.awaitAll(ShardWorker.COLLAPSE);
+            } else {
+                int bit = 1 << (qbitIdx - localQbits);
+                double[] norms = this.gather(ShardWorker.NORM, -1);
+                double p1 = 0;
+                for (int w = 0; w < norms.length; w++)
+                    if ((w & bit) != 0)
+                        p1 += norms[w];
+                bitIs1 = Math.random() < p1;
+                double factor = 1 / Math.sqrt(bitIs1 ? p1 : 1 - p1);
+                this.scale(w -> ((w & bit) != 0) == bitIs1 ? factor : 0);
+            }
+            if (span != null)
+                span.endMeasurement(new int[]{qbitIdx}, this.length());
+            return bitIs1;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Draw values randomly for the qbits of the register according to their associated probabilities.
+     * @return an array of booleans, which are equal to true if the drawn bit was 1, and false otherwise
+     */
+    @Override
+    public boolean[] randomDraw() {
+        long drawnState = this.randomDrawState();
+        boolean[] ret = new boolean[this.size];
+        for (int i = 0; i < this.size; i++)
+            ret[this.size - 1 - i] = (drawnState & (1L << i)) != 0;
+        return ret;
+    }
+
+    /**
+     * Draw a basic state randomly according to the probabilities and collapse the register on it.
+     * @return the decimal representation of the drawn basic state
+     */
+    public long randomDrawState() {
+        Profiler.Span span = Profiler.startMeasurement();
+        try {
+            // the shard of the drawn state is drawn first, then the state in this shard
+            double[] norms = this.gather(ShardWorker.NORM, -1);
+            double drawnValue = Math.random();
+            int worker = norms.length - 1;
+            double accumulator = 0;
+            for (int w = 0; w < norms.length; w++) {
+                if (drawnValue <= accumulator + norms[w]) {
+                    worker = w;
+                    break;
+                }
+                accumulator += norms[w];
+            }
+            int drawn = worker;
+            this.scale(w -> w == drawn ? 1 : 0);
+
+            this.outs[worker].writeByte(ShardWorker.DRAW);
+            this.outs[worker].writeDouble(drawnValue - accumulator);
+            this.outs[worker].flush();
+            int localState = this.ins[worker].readInt();
+            this.await(worker, ShardWorker.DRAW);
+
+            if (span != null) {
+                int[] qbitsIdx = new int[this.size];
+                for (int i = 0; i < qbitsIdx.length; i++)
+                    qbitsIdx[i] = i;
+                span.endMeasurement(qbitsIdx, this.length());
+            }
+            return ((long) worker << (this.size - this.shardQbits)) | localState;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Create a deep copy of the qbit register, launching new local workers which receive the amplitudes of the
+     * current ones through the register.
+     * @return a copy of the qbit register
+     */
+    @Override
+    public ShardedQBitRegister copy() {
+        try {
+            ShardedQBitRegister ret = new ShardedQBitRegister(this.size, this.shardQbits);
+            int length = 1 << (this.size - this.shardQbits);
+            double[] re = new double[length];
+            double[] im = new double[length];
+            for (int w = 0; w < this.outs.length; w++) {
+                this.outs[w].writeByte(ShardWorker.GET_STATE);
+                this.outs[w].flush();
+                ShardWorker.readDoubles(this.ins[w], re, 0, length);
+                ShardWorker.readDoubles(this.ins[w], im, 0, length);
+                this.await(w, ShardWorker.GET_STATE);
+
+                ret.outs[w].writeByte(ShardWorker.SET_STATE);
+                ShardWorker.writeDoubles(ret.outs[w], re, 0, length);
+                ShardWorker.writeDoubles(ret.outs[w], im, 0, length);
+                ret.outs[w].flush();
+                ret.await(w, ShardWorker.SET_STATE);
+            }
+            return ret;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Terminate the workers.
+     * @throws IOException if the connection to a worker cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        for (int w = 0; w < this.sockets.length; w++) {
+            if (this.sockets[w] == null)
+                continue;
+            try {
+                this.outs[w].writeByte(ShardWorker.SHUTDOWN);
+                this.outs[w].flush();
+            } catch (IOException e) {
+                // the worker is already gone
+            }
+            this.sockets[w].close();
+            this.sockets[w] = null;
+        }
+        for (Process process : this.processes) {
+            try {
+                process.waitFor();
+            } catch (InterruptedException e) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+            }
+        }
+        this.processes.clear();
+    }
+
+    /**
+     * Send a command to all the workers and gather the double each of them replies.
+     * @param command the command
+     * @param argument the argument of the command, or -1 if the command has no argument
+     * @return the replies of the workers, by shard index
+     * @throws IOException if the communication with the workers fails
+     */
+    private double[] gather(byte command, int argument) throws IOException {
+        for (DataOutputStream out : this.outs) {
+            out.writeByte(command);
+            if (argument >= 0)
+                out.writeInt(argument);
+            out.flush();
+        }
+        double[] ret = new double[this.outs.length];
+        for (int w = 0; w < ret.length; w++) {
+            ret[w] = this.ins[w].readDouble();
+            this.await(w, command);
+        }
+        return ret;
+    }
+
+    /**
+     * Scale the amplitudes of each worker by a factor.
+     * @param factors the function giving the factor of each worker from its shard index
+     * @throws IOException if the communication with the workers fails
+     */
+    private void scale(IntToDoubleFunction factors) throws IOException {
+        for (int w = 0; w < this.outs.length; w++) {
+            this.outs[w].writeByte(ShardWorker.SCALE);
+            this.outs[w].writeDouble(factors.applyAsDouble(w));
+            this.outs[w].flush();
+        }
+        this.awaitAll(ShardWorker.SCALE);
+    }
+
+    /**
+     * Wait for all the workers to acknowledge a command.
+     * @param command the command
+     * @throws IOException if the communication with the workers fails
+     */
+    private void awaitAll(byte command) throws IOException {
+        for (int w = 0; w < this.ins.length; w++)
+            this.await(w, command);
+    }
+
+    /**
+     * Wait for a worker to acknowledge a command.
+     * @param worker the shard index of the worker
+     * @param command the command
+     * @throws IOException if the communication with the worker fails
+     */
+    private void await(int worker, byte command) throws IOException {
+        byte ack = this.ins[worker].readByte();
+        if (ack != command)
+            throw new IOException("Unexpected reply " + ack + " of worker " + worker + " to command " + command + ".");
+    }
+
+}
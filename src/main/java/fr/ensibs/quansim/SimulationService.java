@@ -0,0 +1,432 @@
+package fr.ensibs.quansim;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A local service running the circuit jobs submitted concurrently by several callers, e.g. the handlers of a
+ * server, on a shared pool of workers.
+ *
+ * The jobs wait in a bounded queue: when it is full, a submitted job is rejected at once so that the callers
+ * slow down instead of piling up work. Before a job starts, the memory needed by its states is estimated from
+ * its number of qbits and reserved in a memory budget, and the job waits until enough memory is released by
+ * the other jobs; a job which could never fit in the budget is rejected. The arrays of the initial states are
+ * pooled and reused by the next jobs of the same size, the pooled arrays being counted in the budget and
+ * released when a job needs their memory. The shots of a job are run by a {@link BranchingExecutor}.
+ *
+ * The service can also be exposed on a local HTTP endpoint, which runs the OpenQASM 2 program posted to
+ * "/simulate?shots=N" and replies with the counts of the values of its classical bits in JSON.
+ */
+public class SimulationService implements Closeable {
+
+    /**
+     * default number of jobs waiting in the queue
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    /**
+     * default number of shots of the jobs posted to the HTTP endpoint
+     */
+    public static final int DEFAULT_SHOTS = 1024;
+
+    /**
+     * number of bytes of an amplitude
+     */
+    private static final int AMPLITUDE_BYTES = 2 * Double.BYTES;
+
+    /**
+     * the workers running the jobs, fed by the bounded queue
+     */
+    private final ThreadPoolExecutor workers;
+
+    /**
+     * the executor running the shots of the jobs
+     */
+    private final BranchingExecutor executor = new BranchingExecutor();
+
+    /**
+     * the number of bytes which can be used by the states of the jobs and by the pooled arrays
+     */
+    private final long memoryBudget;
+
+    /**
+     * the number of bytes reserved by the running jobs
+     */
+    private long reservedMemory;
+
+    /**
+     * the number of bytes of the pooled arrays
+     */
+    private long pooledMemory;
+
+    /**
+     * the pooled arrays of the real and imaginary parts of the states, by number of qbits
+     */
+    private final Map<Integer, ArrayDeque<double[]>> pool = new HashMap<>();
+
+    /**
+     * the HTTP server of the endpoint, or null if it has not been started
+     */
+    private HttpServer server;
+
+    /**
+     * Constructor with a worker per processor, the default queue capacity and half of the maximum heap size as
+     * memory budget.
+     */
+    public SimulationService() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY,
+                Runtime.getRuntime().maxMemory() / 2);
+    }
+
+    /**
+     * Constructor.
+     * @param workers the number of jobs run at the same time
+     * @param queueCapacity the number of jobs waiting in the queue
+     * @param memoryBudget the number of bytes which can be used by the states of the jobs
+     */
+    public SimulationService(int workers, int queueCapacity, long memoryBudget) {
+        if (workers <= 0)
+            throw new IllegalArgumentException("The number of workers must be positive.");
+
+        if (queueCapacity <= 0)
+            throw new IllegalArgumentException("The capacity of the queue must be positive.");
+
+        if (memoryBudget <= 0)
+            throw new IllegalArgumentException("The memory budget must be positive.");
+
+        this.workers = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread thread = new Thread(r, "quansim-job");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Submit a job running the shots of a circuit.
+     * @param circuit the circuit, which must not be modified until the job is done
+     * @param shots the number of shots
+     * @return the future result of the job, completed exceptionally with a RejectedExecutionException if the
+     * queue is full or the service is closed, and with an IllegalArgumentException if the job needs more memory
+     * than the budget
+     */
+    public CompletableFuture<BranchingExecutor.Result> submit(Circuit circuit, int shots) {
+        if (circuit == null)
+            throw new NullPointerException("The circuit cannot be null.");
+
+        if (circuit.qbits() <= 0)
+            throw new IllegalArgumentException("The circuit has not been initialized.");
+
+        if (circuit.qbits() > 30)
+            throw new IllegalArgumentException("The circuit cannot have more than 30 qbits.");
+
+        if (shots <= 0)
+            throw new IllegalArgumentException("The number of shots must be positive.");
+
+        CompletableFuture<BranchingExecutor.Result> ret = new CompletableFuture<>();
+        long memory = requiredMemory(circuit, shots);
+        if (memory > this.memoryBudget) {
+            ret.completeExceptionally(new IllegalArgumentException("The job needs " + memory
+                    + " bytes, more than the memory budget of the service."));
+            return ret;
+        }
+        try {
+            this.workers.execute(() -> {
+                try {
+                    ret.complete(this.run(circuit, shots, memory));
+                } catch (Throwable e) {
+                    ret.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            ret.completeExceptionally(e);
+        }
+        return ret;
+    }
+
+    /**
+     * Get the number of jobs waiting in the queue.
+     * @return the number of queued jobs
+     */
+    public int getQueuedJobs() {
+        return this.workers.getQueue().size();
+    }
+
+    /**
+     * Get the number of bytes reserved by the running jobs and by the pooled arrays.
+     * @return the used part of the memory budget
+     */
+    public synchronized long getUsedMemory() {
+        return this.reservedMemory + this.pooledMemory;
+    }
+
+    /**
+     * Get the number of bytes which can be used by the states of the jobs and by the pooled arrays.
+     * @return the memory budget
+     */
+    public long getMemoryBudget() {
+        return this.memoryBudget;
+    }
+
+    /**
+     * Estimate the number of bytes needed by the states of a job. The branches of the shots hold their own
+     * copies of the state: the branches of a large register are run one after the other, so that at most one
+     * copy is alive per measurement, whereas the branches of a small register may all be alive at once.
+     * @param circuit the circuit
+     * @param shots the number of shots
+     * @return the estimated number of bytes
+     */
+    public static long requiredMemory(Circuit circuit, int shots) {
+        int measurements = 0;
+        for (Circuit.Operation operation : circuit.operations())
+            if (operation.isMeasurement())
+                measurements++;
+        int n = circuit.qbits();
+        if (n > 40)
+            return Long.MAX_VALUE;
+        long copies = n > 30 || Tuning.isParallel(1 << n) ? 1 + Math.min(measurements, shots - 1)
+                : Math.min(shots, 1L << Math.min(measurements, 62));
+        long bytes = (long) AMPLITUDE_BYTES << n;
+        return copies > Long.MAX_VALUE / bytes ? Long.MAX_VALUE : copies * bytes;
+    }
+
+    /**
+     * Start the HTTP endpoint on the loopback address.
+     * @param port the port of the endpoint, or 0 for any free port
+     * @return the address of the endpoint
+     * @throws IOException if the server cannot be started
+     */
+    public synchronized InetSocketAddress startHttp(int port) throws IOException {
+        if (this.server != null)
+            throw new IllegalStateException("The HTTP endpoint has already been started.");
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.createContext("/simulate", this::handle);
+        this.server.start();
+        return this.server.getAddress();
+    }
+
+    /**
+     * Stop the HTTP endpoint if it has been started, then reject the new jobs and let the queued ones finish.
+     */
+    @Override
+    public synchronized void close() {
+        if (this.server != null) {
+            this.server.stop(0);
+            this.server = null;
+        }
+        this.workers.shutdown();
+    }
+
+    /**
+     * Run a job once its memory is reserved, with a pooled initial state.
+     * @param circuit the circuit
+     * @param shots the number of shots
+     * @param memory the number of bytes needed by the job
+     * @return the result of the job
+     * @throws InterruptedException if the worker is interrupted while waiting for memory
+     */
+    private BranchingExecutor.Result run(Circuit circuit, int shots, long memory) throws InterruptedException {
+        this.reserve(memory);
+        double[][] state = null;
+        try {
+            state = this.take(circuit.qbits());
+            return this.executor.run(circuit, new QBitRegister(state[0], state[1]), shots);
+        } finally {
+            this.release(memory, circuit.qbits(), state);
+        }
+    }
+
+    /**
+     * Reserve memory for a job, releasing the pooled arrays or waiting for the other jobs if needed.
+     * @param memory the number of bytes
+     * @throws InterruptedException if the worker is interrupted while waiting
+     */
+    private synchronized void reserve(long memory) throws InterruptedException {
+        while (this.reservedMemory + this.pooledMemory + memory > this.memoryBudget) {
+            if (this.pooledMemory > 0) {
+                this.pool.clear();
+                this.pooledMemory = 0;
+            } else {
+                this.wait();
+            }
+        }
+        this.reservedMemory += memory;
+    }
+
+    /**
+     * Take the arrays of an initial state from the pool, or allocate them if there is none.
+     * @param n the number of qbits
+     * @return the real and the imaginary parts of the state whose qbits are all 0
+     */
+    private double[][] take(int n) {
+        double[][] ret = null;
+        synchronized (this) {
+            ArrayDeque<double[]> arrays = this.pool.get(n);
+            if (arrays != null && !arrays.isEmpty()) {
+                ret = new double[][]{arrays.pop(), arrays.pop()};
+                this.pooledMemory -= (long) AMPLITUDE_BYTES << n;
+            }
+        }
+        if (ret == null) {
+            ret = new double[][]{new double[1 << n], new double[1 << n]};
+        } else {
+            Arrays.fill(ret[0], 0);
+            Arrays.fill(ret[1], 0);
+        }
+        ret[0][0] = 1;
+        return ret;
+    }
+
+    /**
+     * Release the memory of a job and put the arrays of its initial state back in the pool.
+     * @param memory the number of bytes reserved by the job
+     * @param n the number of qbits
+     * @param state the arrays of the initial state, or null if they were not allocated
+     */
+    private synchronized void release(long memory, int n, double[][] state) {
+        this.reservedMemory -= memory;
+        long bytes = (long) AMPLITUDE_BYTES << n;
+        if (state != null && this.reservedMemory + this.pooledMemory + bytes <= this.memoryBudget) {
+            ArrayDeque<double[]> arrays = this.pool.computeIfAbsent(n, k -> new ArrayDeque<>());
+            arrays.push(state[0]);
+            arrays.push(state[1]);
+            this.pooledMemory += bytes;
+        }
+        this.notifyAll();
+    }
+
+    /**
+     * Handle a request of the HTTP endpoint, replying when the job is done without blocking the server.
+     * @param exchange the HTTP exchange
+     * @throws IOException if the reply cannot be sent
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            reply(exchange, 405, "{\"error\":\"The program must be posted.\"}");
+            return;
+        }
+
+        CompletableFuture<BranchingExecutor.Result> result;
+        try {
+            int shots = shots(exchange.getRequestURI().getRawQuery());
+            Circuit circuit = new Circuit();
+            try (QasmReader reader = new QasmReader(new InputStreamReader(exchange.getRequestBody(),
+                    StandardCharsets.UTF_8))) {
+                reader.read(circuit);
+            }
+            result = this.submit(circuit, shots);
+        } catch (IllegalArgumentException e) {
+            reply(exchange, 400, error(e));
+            return;
+        }
+        result.whenComplete((r, e) -> {
+            try {
+                if (e == null) {
+                    reply(exchange, 200, json(r));
+                } else {
+                    Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                    if (cause instanceof RejectedExecutionException)
+                        exchange.getResponseHeaders().set("Retry-After", "1");
+                    int status = cause instanceof RejectedExecutionException ? 503
+                            : cause instanceof IllegalArgumentException ? 400 : 500;
+                    reply(exchange, status, error(cause));
+                }
+            } catch (IOException ignored) {
+                // the client has left
+            }
+        });
+    }
+
+    /**
+     * Get the number of shots from the query of a request.
+     * @param query the raw query, or null if there is none
+     * @return the number of shots
+     */
+    private static int shots(String query) {
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (!parameter.startsWith("shots="))
+                    continue;
+                try {
+                    return Integer.parseInt(parameter.substring("shots=".length()));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("The number of shots must be an integer.");
+                }
+            }
+        }
+        return DEFAULT_SHOTS;
+    }
+
+    /**
+     * Write the result of a job in JSON.
+     * @param result the result of the job
+     * @return the JSON object of the counts and of the number of branches
+     */
+    private static String json(BranchingExecutor.Result result) {
+        StringBuilder builder = new StringBuilder("{\"counts\":{");
+        for (Map.Entry<String, Integer> entry : result.counts().entrySet()) {
+            if (builder.charAt(builder.length() - 1) != '{')
+                builder.append(',');
+            builder.append('"').append(entry.getKey()).append("\":").append(entry.getValue());
+        }
+        return builder.append("},\"branches\":").append(result.branches()).append('}').toString();
+    }
+
+    /**
+     * Write an error in JSON.
+     * @param e the error
+     * @return the JSON object of the message of the error
+     */
+    private static String error(Throwable e) {
+        String message = String.valueOf(e.getMessage()).replace("\\", "\\\\").replace("\"", "\\\"");
+        return "{\"error\":\"" + message + "\"}";
+    }
+
+    /**
+     * Send a JSON reply and close the exchange.
+     * @param exchange the HTTP exchange
+     * @param status the HTTP status
+     * @param body the JSON body
+     * @throws IOException if the reply cannot be sent
+     */
+    private static void reply(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Start a service with its HTTP endpoint, e.g. "java fr.ensibs.quansim.SimulationService 8080".
+     * @param args the port of the endpoint, 8080 by default
+     * @throws IOException if the server cannot be started
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        InetSocketAddress address = new SimulationService().startHttp(port);
+        System.out.println("Listening on http://" + address.getHostString() + ":" + address.getPort() + "/simulate");
+    }
+
+}
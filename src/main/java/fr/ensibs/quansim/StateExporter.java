@@ -0,0 +1,313 @@
+package fr.ensibs.quansim;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An exporter streaming the amplitudes of a qbit register to an output stream or a channel through a bounded
+ * buffer, without building the whole dump in memory.
+ *
+ * The CSV format writes a header line, then one "basicState,re,im,probability" line per amplitude. The binary
+ * format writes one little-endian record per amplitude: the basic state as an int, then the real and the
+ * imaginary parts as doubles. The exported amplitudes can be restricted to the ones whose probability reaches
+ * a threshold and to the k most probable ones, which are then written by decreasing probability; the other
+ * amplitudes are written by increasing basic state.
+ */
+public class StateExporter {
+
+    /**
+     * The formats of the exported amplitudes.
+     */
+    public enum Format {
+
+        /**
+         * text lines of comma-separated values
+         */
+        CSV,
+
+        /**
+         * little-endian binary records
+         */
+        BINARY
+
+    }
+
+    /**
+     * default size of the buffer in bytes
+     */
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * size of a binary record in bytes
+     */
+    private static final int RECORD_SIZE = Integer.BYTES + 2 * Double.BYTES;
+
+    /**
+     * the format of the exported amplitudes
+     */
+    private final Format format;
+
+    /**
+     * the number of most probable amplitudes to export, or 0 to export all of them
+     */
+    private int topK;
+
+    /**
+     * the minimal probability of the exported amplitudes
+     */
+    private double threshold;
+
+    /**
+     * the size of the buffer in bytes
+     */
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    /**
+     * Constructor.
+     * @param format the format of the exported amplitudes
+     */
+    public StateExporter(Format format) {
+        if (format == null)
+            throw new NullPointerException("The export format cannot be null.");
+
+        this.format = format;
+    }
+
+    /**
+     * Get the format of the exported amplitudes.
+     * @return the export format
+     */
+    public Format getFormat() {
+        return this.format;
+    }
+
+    /**
+     * Set the number of most probable amplitudes to export.
+     * @param topK the number of amplitudes, or 0 to export all of them
+     */
+    public void setTopK(int topK) {
+        if (topK < 0)
+            throw new IllegalArgumentException("The number of exported amplitudes cannot be negative.");
+
+        this.topK = topK;
+    }
+
+    /**
+     * Get the number of most probable amplitudes to export.
+     * @return the number of amplitudes, or 0 if all of them are exported
+     */
+    public int getTopK() {
+        return this.topK;
+    }
+
+    /**
+     * Set the minimal probability of the exported amplitudes.
+     * @param threshold the minimal probability, between 0 and 1
+     */
+    public void setThreshold(double threshold) {
+        if (threshold < 0 || threshold > 1)
+            throw new IllegalArgumentException("The probability threshold must be between 0 and 1.");
+
+        this.threshold = threshold;
+    }
+
+    /**
+     * Get the minimal probability of the exported amplitudes.
+     * @return the minimal probability
+     */
+    public double getThreshold() {
+        return this.threshold;
+    }
+
+    /**
+     * Set the size of the buffer through which the amplitudes are written.
+     * @param bufferSize the size of the buffer in bytes
+     */
+    public void setBufferSize(int bufferSize) {
+        if (bufferSize < 1024)
+            throw new IllegalArgumentException("The buffer size must be at least 1024 bytes.");
+
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Get the size of the buffer through which the amplitudes are written.
+     * @return the size of the buffer in bytes
+     */
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    /**
+     * Export the amplitudes of a qbit register to an output stream, which is left open.
+     * @param register the qbit register
+     * @param out the output stream
+     * @return the number of exported amplitudes
+     * @throws IOException if the stream cannot be written
+     */
+    public long export(QBitRegister register, OutputStream out) throws IOException {
+        if (out == null)
+            throw new NullPointerException("The output stream cannot be null.");
+
+        return this.export(register, Channels.newChannel(out));
+    }
+
+    /**
+     * Export the amplitudes of a qbit register to a channel, which is left open.
+     * @param register the qbit register
+     * @param channel the channel
+     * @return the number of exported amplitudes
+     * @throws IOException if the channel cannot be written
+     */
+    public long export(QBitRegister register, WritableByteChannel channel) throws IOException {
+        if (register == null)
+            throw new NullPointerException("The qbit register cannot be null.");
+
+        if (channel == null)
+            throw new NullPointerException("The channel cannot be null.");
+
+        double[] re = register.realParts();
+        double[] im = register.imaginaryParts();
+        ByteBuffer buffer = ByteBuffer.allocate(this.bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        StringBuilder line = new StringBuilder(96);
+        if (this.format == Format.CSV)
+            this.write("basicState,re,im,probability\n", buffer, channel);
+
+        long ret = 0;
+        if (this.topK > 0) {
+            for (int i : this.mostProbable(re, im)) {
+                this.write(i, re[i], im[i], buffer, line, channel);
+                ret++;
+            }
+        } else {
+            for (int i = 0; i < re.length; i++) {
+                if (re[i] * re[i] + im[i] * im[i] < this.threshold)
+                    continue;
+                this.write(i, re[i], im[i], buffer, line, channel);
+                ret++;
+            }
+        }
+        drain(buffer, channel);
+        return ret;
+    }
+
+    /**
+     * Find the k most probable amplitudes reaching the threshold, with a min-heap of their basic states.
+     * @param re the real parts of the amplitudes
+     * @param im the imaginary parts of the amplitudes
+     * @return the basic states of the amplitudes, by decreasing probability
+     */
+    private int[] mostProbable(double[] re, double[] im) {
+        int[] heap = new int[Math.min(this.topK, re.length)];
+        double[] probas = new double[heap.length];
+        int count = 0;
+        for (int i = 0; i < re.length; i++) {
+            double p = re[i] * re[i] + im[i] * im[i];
+            if (p < this.threshold || (count == heap.length && p <= probas[0]))
+                continue;
+            if (count < heap.length) {
+                // sift the new amplitude up from the end of the heap
+                int k = count++;
+                while (k > 0 && probas[(k - 1) / 2] > p) {
+                    heap[k] = heap[(k - 1) / 2];
+                    probas[k] = probas[(k - 1) / 2];
+                    k = (k - 1) / 2;
+                }
+                heap[k] = i;
+                probas[k] = p;
+            } else {
+                siftDown(heap, probas, count, i, p);
+            }
+        }
+
+        // the heap is emptied from its least probable amplitude, which is written at the end
+        int[] ret = new int[count];
+        for (int size = count; size > 0; size--) {
+            ret[size - 1] = heap[0];
+            siftDown(heap, probas, size - 1, heap[size - 1], probas[size - 1]);
+        }
+        return ret;
+    }
+
+    /**
+     * Replace the root of a min-heap by an amplitude and sift it down.
+     * @param heap the basic states of the heap
+     * @param probas the probabilities of the basic states of the heap
+     * @param size the number of amplitudes in the heap
+     * @param basicState the basic state of the new amplitude
+     * @param p the probability of the new amplitude
+     */
+    private static void siftDown(int[] heap, double[] probas, int size, int basicState, double p) {
+        int k = 0;
+        while (2 * k + 1 < size) {
+            int child = 2 * k + 1;
+            if (child + 1 < size && probas[child + 1] < probas[child])
+                child++;
+            if (probas[child] >= p)
+                break;
+            heap[k] = heap[child];
+            probas[k] = probas[child];
+            k = child;
+        }
+        if (size > 0) {
+            heap[k] = basicState;
+            probas[k] = p;
+        }
+    }
+
+    /**
+     * Write an amplitude in the buffer, draining the buffer to the channel when it is full.
+     * @param basicState the basic state of the amplitude
+     * @param re the real part of the amplitude
+     * @param im the imaginary part of the amplitude
+     * @param buffer the buffer
+     * @param line the builder reused to format the CSV lines
+     * @param channel the channel
+     * @throws IOException if the channel cannot be written
+     */
+    private void write(int basicState, double re, double im, ByteBuffer buffer, StringBuilder line,
+                       WritableByteChannel channel) throws IOException {
+        if (this.format == Format.BINARY) {
+            if (buffer.remaining() < RECORD_SIZE)
+                drain(buffer, channel);
+            buffer.putInt(basicState).putDouble(re).putDouble(im);
+        } else {
+            line.setLength(0);
+            line.append(basicState).append(',').append(re).append(',').append(im).append(',')
+                    .append(re * re + im * im).append('\n');
+            this.write(line, buffer, channel);
+        }
+    }
+
+    /**
+     * Write ASCII text in the buffer, draining the buffer to the channel when it is full.
+     * @param text the text
+     * @param buffer the buffer
+     * @param channel the channel
+     * @throws IOException if the channel cannot be written
+     */
+    private void write(CharSequence text, ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        if (buffer.remaining() < text.length())
+            drain(buffer, channel);
+        for (int i = 0; i < text.length(); i++)
+            buffer.put((byte) text.charAt(i));
+    }
+
+    /**
+     * Write the content of the buffer to the channel and clear it.
+     * @param buffer the buffer
+     * @param channel the channel
+     * @throws IOException if the channel cannot be written
+     */
+    private static void drain(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+}
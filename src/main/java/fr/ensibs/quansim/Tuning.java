@@ -0,0 +1,245 @@
+package fr.ensibs.quansim;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * The tuning parameters of the parallel loops over the amplitudes of the registers.
+ *
+ * The parameters can be given by the "quansim.parallelThreshold" and "quansim.blockSize" system properties, or
+ * set at runtime. They can also be measured on the running host by a calibration, and saved to a profile file
+ * which is loaded on the next runs: when the class is loaded, the profile given by the "quansim.tuningProfile"
+ * system property, or the default profile, is calibrated and saved if the "quansim.calibrate" system property is
+ * true, and loaded otherwise if it exists. The system properties take precedence over the profile.
+ */
+public final class Tuning {
+
+    /**
+     * the minimal number of amplitudes of a register for its loops to run in parallel
+     */
+    private static volatile int parallelThreshold = Integer.getInteger("quansim.parallelThreshold", 1 << 16);
+
+    /**
+     * the number of consecutive amplitudes processed by a task of a parallel loop
+     */
+    private static volatile int blockSize = Integer.getInteger("quansim.blockSize", 1 << 12);
+
+    /**
+     * the name of the parallel threshold, in the system properties and in the profiles
+     */
+    private static final String PARALLEL_THRESHOLD = "quansim.parallelThreshold";
+
+    /**
+     * the name of the block size, in the system properties and in the profiles
+     */
+    private static final String BLOCK_SIZE = "quansim.blockSize";
+
+    /**
+     * the smallest number of amplitudes of the registers timed by the calibration
+     */
+    private static final int MIN_CALIBRATION_LENGTH = 1 << 10;
+
+    /**
+     * the largest number of amplitudes of the registers timed by the calibration
+     */
+    private static final int MAX_CALIBRATION_LENGTH = 1 << 20;
+
+    /**
+     * the number of amplitudes swept by a timed run of the calibration, whatever the size of the register
+     */
+    private static final int CALIBRATION_WORK = 1 << 22;
+
+    /**
+     * the number of timed runs of each setting of the calibration, the fastest one being kept
+     */
+    private static final int CALIBRATION_RUNS = 5;
+
+    static {
+        String profile = System.getProperty("quansim.tuningProfile");
+        Path path = profile != null ? Paths.get(profile) : defaultProfile();
+        try {
+            if (Boolean.getBoolean("quansim.calibrate")) {
+                calibrate();
+                saveProfile(path);
+            } else if (Files.isRegularFile(path)) {
+                loadProfile(path);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // an unreadable profile is ignored and the current parameters are kept
+        }
+    }
+
+    /**
+     * Get the minimal number of amplitudes of a register for its loops to run in parallel.
+     * @return the parallel threshold
+     */
+    public static int parallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Set the minimal number of amplitudes of a register for its loops to run in parallel.
+     * @param threshold the parallel threshold
+     */
+    public static void setParallelThreshold(int threshold) {
+        if (threshold <= 0)
+            throw new IllegalArgumentException("The parallel threshold must be positive.");
+
+        parallelThreshold = threshold;
+    }
+
+    /**
+     * Get the number of consecutive amplitudes processed by a task of a parallel loop.
+     * @return the block size
+     */
+    public static int blockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Set the number of consecutive amplitudes processed by a task of a parallel loop.
+     * @param size the block size, which must be a power of 2
+     */
+    public static void setBlockSize(int size) {
+        if (size <= 0 || (size & (size - 1)) != 0)
+            throw new IllegalArgumentException("The block size must be a positive power of 2.");
+
+        blockSize = size;
+    }
+
+    /**
+     * Tell if a loop over the given number of amplitudes should run in parallel.
+     * @param length the number of amplitudes
+     * @return true if and only if the length reaches the parallel threshold
+     */
+    static boolean isParallel(int length) {
+        return length >= parallelThreshold;
+    }
+
+    /**
+     * Get the default profile file, "tuning.properties" in the ".quansim" directory of the user.
+     * @return the path of the default profile
+     */
+    public static Path defaultProfile() {
+        return Paths.get(System.getProperty("user.home"), ".quansim", "tuning.properties");
+    }
+
+    /**
+     * Load the parameters saved in a profile file, except the ones given by the system properties.
+     * @param path the path of the profile
+     * @throws IOException if the profile cannot be read
+     */
+    public static void loadProfile(Path path) throws IOException {
+        if (path == null)
+            throw new NullPointerException("The profile path cannot be null.");
+
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.ISO_8859_1)) {
+            properties.load(reader);
+        }
+        try {
+            String threshold = properties.getProperty(PARALLEL_THRESHOLD);
+            if (threshold != null && System.getProperty(PARALLEL_THRESHOLD) == null)
+                setParallelThreshold(Integer.parseInt(threshold.trim()));
+            String size = properties.getProperty(BLOCK_SIZE);
+            if (size != null && System.getProperty(BLOCK_SIZE) == null)
+                setBlockSize(Integer.parseInt(size.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The profile contains a parameter which is not an integer.", e);
+        }
+    }
+
+    /**
+     * Save the current parameters to a profile file, creating its directory if needed.
+     * @param path the path of the profile
+     * @throws IOException if the profile cannot be written
+     */
+    public static void saveProfile(Path path) throws IOException {
+        if (path == null)
+            throw new NullPointerException("The profile path cannot be null.");
+
+        Properties properties = new Properties();
+        properties.setProperty(PARALLEL_THRESHOLD, Integer.toString(parallelThreshold));
+        properties.setProperty(BLOCK_SIZE, Integer.toString(blockSize));
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.ISO_8859_1)) {
+            properties.store(writer, "quansim tuning profile");
+        }
+    }
+
+    /**
+     * Measure the best parameters on the running host and set them. The block size is the one for which a
+     * parallel sweep of the largest timed register is the fastest, then the parallel threshold is the smallest
+     * timed number of amplitudes from which the parallel sweeps are faster than the serial ones. The sweeps
+     * timed are Grover diffusions, whose two passes over the amplitudes are representative of the parallel
+     * loops of the registers. The calibration takes about a second, during which the registers used by other
+     * threads may run with other parameters.
+     */
+    public static void calibrate() {
+        int previousThreshold = parallelThreshold;
+        int previousSize = blockSize;
+        int threshold = MIN_CALIBRATION_LENGTH;
+        int size = previousSize;
+        try {
+            double best = Double.POSITIVE_INFINITY;
+            for (int candidate = 1 << 10; candidate <= 1 << 16; candidate <<= 1) {
+                double time = time(MAX_CALIBRATION_LENGTH, candidate, true);
+                if (time < best) {
+                    best = time;
+                    size = candidate;
+                }
+            }
+
+            // the threshold is above every length at which the serial sweep is at least as fast
+            for (int length = MIN_CALIBRATION_LENGTH; length <= MAX_CALIBRATION_LENGTH; length <<= 1)
+                if (time(length, size, true) >= time(length, size, false))
+                    threshold = length << 1;
+        } finally {
+            parallelThreshold = previousThreshold;
+            blockSize = previousSize;
+        }
+        blockSize = size;
+        parallelThreshold = threshold;
+    }
+
+    /**
+     * Time the Grover diffusions of a register with given parameters.
+     * @param length the number of amplitudes of the register
+     * @param size the block size
+     * @param parallel true if the diffusions run in parallel
+     * @return the fastest time of a timed run, in nanoseconds
+     */
+    private static double time(int length, int size, boolean parallel) {
+        blockSize = size;
+        parallelThreshold = parallel ? 1 : Integer.MAX_VALUE;
+        QBitRegister register = new QBitRegister(Integer.numberOfTrailingZeros(length));
+        int diffusions = Math.max(1, CALIBRATION_WORK / length);
+        double ret = Double.POSITIVE_INFINITY;
+        // the first run only warms the code up
+        for (int run = 0; run <= CALIBRATION_RUNS; run++) {
+            long start = System.nanoTime();
+            for (int d = 0; d < diffusions; d++)
+                register.applyDiffusion();
+            long time = System.nanoTime() - start;
+            if (run > 0)
+                ret = Math.min(ret, time);
+        }
+        return ret;
+    }
+
+    /**
+     * Private constructor to assert noninstanciability.
+     */
+    private Tuning() {
+        throw new AssertionError();
+    }
+
+}
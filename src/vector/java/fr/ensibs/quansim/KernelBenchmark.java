@@ -0,0 +1,55 @@
+package fr.ensibs.quansim;
+
+import jdk.incubator.vector.DoubleVector;
+
+/**
+ * Benchmark comparing the vectorized gate kernels with the scalar ones.
+ *
+ * Run it with "java --add-modules jdk.incubator.vector -cp target/classes fr.ensibs.quansim.KernelBenchmark [n]".
+ */
+public class KernelBenchmark {
+
+    /**
+     * number of times each kernel is applied on every qbit
+     */
+    private static final int ROUNDS = 5;
+
+    /**
+     * Entry point of the benchmark.
+     * @param args the command-line arguments: the number of qbits of the benchmarked register (22 by default)
+     */
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 22;
+        double[] re = new double[1 << n];
+        double[] im = new double[1 << n];
+        re[0] = 1;
+        double s = 1 / Math.sqrt(2);
+        double[] h = {s, 0, s, 0, s, 0, -s, 0};
+        double[] t = {1, 0, Math.cos(Math.PI / 4), Math.sin(Math.PI / 4)};
+        GateKernels[] kernels = {new ScalarGateKernels(), new VectorGateKernels()};
+
+        System.out.println(n + " qbits, " + DoubleVector.SPECIES_PREFERRED.length() + " lanes");
+        for (int round = 0; round < 2; round++) {
+            for (GateKernels k : kernels) {
+                long t0 = System.nanoTime();
+                for (int r = 0; r < ROUNDS; r++)
+                    for (int q = 0; q < n; q++)
+                        k.apply(re, im, 1 << q, h);
+                long t1 = System.nanoTime();
+                for (int r = 0; r < ROUNDS; r++)
+                    for (int q = 1; q < n; q++)
+                        k.applyControlled(re, im, 1 << q, 1 << (q - 1), h);
+                long t2 = System.nanoTime();
+                for (int r = 0; r < ROUNDS; r++)
+                    for (int q = 0; q < n; q++)
+                        k.applyDiagonal(re, im, 1 << q, t);
+                long t3 = System.nanoTime();
+                if (round == 1)
+                    System.out.printf("%-20s single %8.2f ms  controlled %8.2f ms  diagonal %8.2f ms%n",
+                            k.getClass().getSimpleName(), (t1 - t0) / 1e6 / ROUNDS, (t2 - t1) / 1e6 / ROUNDS,
+                            (t3 - t2) / 1e6 / ROUNDS);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+package fr.ensibs.quansim;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The gate kernels written with the Java Vector API, which process several amplitude pairs per instruction.
+ *
+ * A block of consecutive amplitudes is processed at once when all its amplitudes share the same value of the
+ * target and control qbits, i.e. when these qbits are not among the lowest bits addressing the lanes of a
+ * vector. The gates on these lowest qbits are applied by the scalar kernels.
+ */
+class VectorGateKernels implements GateKernels {
+
+    /**
+     * the preferred shape of the vectors on the running hardware
+     */
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    /**
+     * the number of amplitudes in a vector
+     */
+    private static final int LANES = SPECIES.length();
+
+    /**
+     * the kernels used for the gates on the lowest qbits
+     */
+    private final GateKernels scalar = new ScalarGateKernels();
+
+    @Override
+    public void apply(double[] re, double[] im, int offset, double[] g) {
+        this.applyControlled(re, im, 0, offset, g);
+    }
+
+    @Override
+    public void applyControlled(double[] re, double[] im, int controlMask, int offset, double[] g) {
+        if (offset < LANES || (controlMask & (LANES - 1)) != 0 || re.length < 2 * LANES) {
+            this.scalar.applyControlled(re, im, controlMask, offset, g);
+            return;
+        }
+
+        DoubleVector g00re = DoubleVector.broadcast(SPECIES, g[0]), g00im = DoubleVector.broadcast(SPECIES, g[1]);
+        DoubleVector g01re = DoubleVector.broadcast(SPECIES, g[2]), g01im = DoubleVector.broadcast(SPECIES, g[3]);
+        DoubleVector g10re = DoubleVector.broadcast(SPECIES, g[4]), g10im = DoubleVector.broadcast(SPECIES, g[5]);
+        DoubleVector g11re = DoubleVector.broadcast(SPECIES, g[6]), g11im = DoubleVector.broadcast(SPECIES, g[7]);
+        for (int startIdx = 0; startIdx < re.length; startIdx += 2 * offset) {
+            for (int i = startIdx; i < startIdx + offset; i += LANES) {
+                if ((i & controlMask) != controlMask) continue;
+                int j = i + offset;
+                DoubleVector aRe = DoubleVector.fromArray(SPECIES, re, i);
+                DoubleVector aIm = DoubleVector.fromArray(SPECIES, im, i);
+                DoubleVector bRe = DoubleVector.fromArray(SPECIES, re, j);
+                DoubleVector bIm = DoubleVector.fromArray(SPECIES, im, j);
+                g00re.fma(aRe, g01re.fma(bRe, g00im.mul(aIm).add(g01im.mul(bIm)).neg())).intoArray(re, i);
+                g00re.fma(aIm, g00im.fma(aRe, g01re.fma(bIm, g01im.mul(bRe)))).intoArray(im, i);
+                g10re.fma(aRe, g11re.fma(bRe, g10im.mul(aIm).add(g11im.mul(bIm)).neg())).intoArray(re, j);
+                g10re.fma(aIm, g10im.fma(aRe, g11re.fma(bIm, g11im.mul(bRe)))).intoArray(im, j);
+            }
+        }
+    }
+
+    @Override
+    public void applyDiagonal(double[] re, double[] im, int offset, double[] d) {
+        if (offset < LANES) {
+            this.scalar.applyDiagonal(re, im, offset, d);
+            return;
+        }
+
+        for (int startIdx = 0; startIdx < re.length; startIdx += 2 * offset) {
+            this.multiply(re, im, startIdx, startIdx + offset, d[0], d[1]);
+            this.multiply(re, im, startIdx + offset, startIdx + 2 * offset, d[2], d[3]);
+        }
+    }
+
+    /**
+     * Multiply a range of amplitudes by a complex number.
+     * @param re the real parts of the amplitudes
+     * @param im the imaginary parts of the amplitudes
+     * @param from the first index of the range, a multiple of the number of lanes
+     * @param to the index following the range, a multiple of the number of lanes
+     * @param cRe the real part of the complex number
+     * @param cIm the imaginary part of the complex number
+     */
+    private void multiply(double[] re, double[] im, int from, int to, double cRe, double cIm) {
+        DoubleVector vRe = DoubleVector.broadcast(SPECIES, cRe);
+        DoubleVector vIm = DoubleVector.broadcast(SPECIES, cIm);
+        for (int i = from; i < to; i += LANES) {
+            DoubleVector aRe = DoubleVector.fromArray(SPECIES, re, i);
+            DoubleVector aIm = DoubleVector.fromArray(SPECIES, im, i);
+            vRe.fma(aRe, vIm.mul(aIm).neg()).intoArray(re, i);
+            vRe.fma(aIm, vIm.mul(aRe)).intoArray(im, i);
+        }
+    }
+
+}